@@ -18,11 +18,18 @@ package org.primeframework.persistence.guice;
 import java.sql.Connection;
 
 import org.primeframework.persistence.service.jdbc.ConnectionProvider;
+import org.primeframework.persistence.service.jdbc.DefaultJDBCService;
+import org.primeframework.persistence.service.jdbc.ReplicaBalancing;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
 
 /**
- * Binds the JDBC classes and allows sub-classes to provide the DataSource.
+ * Binds the JDBC classes and allows sub-classes to provide the DataSource. Also, binds the size of the per-Connection
+ * PreparedStatement cache as a constant under the name <code>jdbc.statementCacheSize</code>.
+ * <p/>
+ * Sub-classes can also bind read replicas in {@link #bindReplicas()}. The balancing and the stickiness window are bound
+ * as constants under the names <code>jdbc.replicaBalancing</code> and <code>jdbc.replicaStickiness</code>.
  *
  * @author Brian Pontarelli
  */
@@ -30,11 +37,55 @@ public abstract class JDBCModule extends AbstractModule {
   @Override
   protected void configure() {
     bind(Connection.class).toProvider(ConnectionProvider.class);
+    bindConstant().annotatedWith(Names.named("jdbc.statementCacheSize")).to(statementCacheSize());
+    bindConstant().annotatedWith(Names.named("jdbc.replicaBalancing")).to(replicaBalancing());
+    bindConstant().annotatedWith(Names.named("jdbc.replicaStickiness")).to(replicaStickiness());
     bindDataSource();
+    bindReplicas();
+  }
+
+  /**
+   * Sub-classes can override this to cache PreparedStatements for each Connection.
+   *
+   * @return The number of statements cached for each Connection. Defaults to zero, which disables the cache.
+   */
+  protected int statementCacheSize() {
+    return 0;
+  }
+
+  /**
+   * Sub-classes can override this to change how the replica for each Thread's reads is picked.
+   *
+   * @return The balancing. Defaults to round-robin.
+   */
+  protected ReplicaBalancing replicaBalancing() {
+    return ReplicaBalancing.ROUND_ROBIN;
+  }
+
+  /**
+   * Sub-classes can override this to change how long reads stay on the primary after a Thread writes. This should be
+   * longer than the replication lag.
+   *
+   * @return The window in milliseconds. Defaults to one second.
+   */
+  protected long replicaStickiness() {
+    return DefaultJDBCService.DEFAULT_REPLICA_STICKINESS;
   }
 
   /**
    * Must be implemented to setup the DataSource.
    */
   protected abstract void bindDataSource();
+
+  /**
+   * Sub-classes can override this to bind the replica DataSources that reads are balanced across like this:
+   * <p/>
+   * <pre>
+   * bind(new TypeLiteral&lt;List&lt;DataSource>>() {}).annotatedWith(Names.named("jdbc.replicas")).toInstance(replicas);
+   * </pre>
+   * <p/>
+   * Nothing is bound by default, so everything runs on the primary.
+   */
+  protected void bindReplicas() {
+  }
 }
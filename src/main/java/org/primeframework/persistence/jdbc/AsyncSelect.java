@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.primeframework.persistence.jdbc.Select.Cursor;
+import org.primeframework.persistence.jdbc.Select.RowHandler;
+
+/**
+ * This class runs a select on an executor and publishes the rows to a {@link Subscriber} as the subscriber requests
+ * them. This follows the Reactive Streams protocol:
+ * <p/>
+ * <ol>
+ * <li>{@link Subscriber#onSubscribe} is called with a {@link Subscription} on the thread that calls {@link
+ * #subscribe}.</li>
+ * <li>Nothing happens until the subscriber requests rows. The first request takes a Connection from the DataSource and
+ * opens a streaming {@link Cursor}.</li>
+ * <li>Rows are read from the cursor only while there is outstanding demand. When the demand runs out, the task ends
+ * and the cursor is left where it is, so a slow subscriber holds back the database rather than filling up memory.</li>
+ * <li>When the rows run out, the subscription is cancelled or the select fails, the cursor is closed and the
+ * Connection is closed (which returns it to the pool) before {@link Subscriber#onComplete} or {@link
+ * Subscriber#onError} is called.</li>
+ * </ol>
+ * <p/>
+ * The subscriber is always called from the executor, one call at a time, but not necessarily from the same thread. The
+ * only exception is when the executor rejects the select (for example, because it was shut down). In that case the
+ * cursor and Connection are closed and {@link Subscriber#onError} is called on the thread that called {@link
+ * Subscription#request} or {@link Subscription#cancel}.
+ *
+ * @author Brian Pontarelli
+ */
+public class AsyncSelect<T> {
+  private final DataSource dataSource;
+  private final ExecutorService executor;
+  private final String sql;
+  private final RowHandler<T> handler;
+  private Object[] params = new Object[0];
+  private int fetchSize = Select.DEFAULT_FETCH_SIZE;
+
+  public AsyncSelect(DataSource dataSource, ExecutorService executor, String sql, RowHandler<T> handler) {
+    this.dataSource = dataSource;
+    this.executor = executor;
+    this.sql = sql;
+    this.handler = handler;
+  }
+
+  public AsyncSelect(DataSource dataSource, ExecutorService executor, Query query, RowHandler<T> handler) {
+    this(dataSource, executor, query.sql, handler);
+  }
+
+  /**
+   * Creates a fixed size pool of daemon threads for running selects. The size bounds the number of selects (and
+   * therefore Connections) that are active at any time.
+   *
+   * @param threads The number of threads.
+   * @return The executor.
+   */
+  public static ExecutorService newExecutor(int threads) {
+    return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "prime-async-select-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  public AsyncSelect<T> with(Object... params) {
+    this.params = params;
+    return this;
+  }
+
+  /**
+   * Sets the number of rows the cursor fetches from the database at a time. See {@link Select#fetchSize(int)}.
+   *
+   * @param fetchSize The fetch size.
+   * @return This async select.
+   */
+  public AsyncSelect<T> fetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+    return this;
+  }
+
+  /**
+   * Subscribes to the rows. Each subscription runs the select separately.
+   *
+   * @param subscriber The subscriber.
+   */
+  public void subscribe(Subscriber<? super T> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("The subscriber is required");
+    }
+
+    RowSubscription subscription = new RowSubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+  }
+
+  /**
+   * The receiver of the rows. This mirrors the Reactive Streams <code>Subscriber</code>.
+   */
+  public interface Subscriber<T> {
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable throwable);
+
+    void onComplete();
+  }
+
+  /**
+   * The link between a subscriber and the select. This mirrors the Reactive Streams <code>Subscription</code>.
+   */
+  public interface Subscription {
+    /**
+     * Requests more rows. The rows are delivered asynchronously.
+     *
+     * @param n The number of rows. This must be greater than zero. {@link Long#MAX_VALUE} means unbounded.
+     */
+    void request(long n);
+
+    /**
+     * Stops the select and releases the Connection. The subscriber might still get a few calls to onNext that were
+     * already in progress.
+     */
+    void cancel();
+  }
+
+  private class RowSubscription implements Subscription, Runnable {
+    private final Subscriber<? super T> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger work = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Throwable invalid;
+    private boolean done;
+    private Connection c;
+    private Cursor<T> cursor;
+
+    private RowSubscription(Subscriber<? super T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    public void request(long n) {
+      if (n <= 0) {
+        invalid = new IllegalArgumentException("The number of rows requested must be greater than zero");
+      } else {
+        long current, next;
+        do {
+          current = demand.get();
+          next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!demand.compareAndSet(current, next));
+      }
+
+      schedule();
+    }
+
+    public void cancel() {
+      cancelled = true;
+      schedule();
+    }
+
+    private void schedule() {
+      if (work.getAndIncrement() == 0) {
+        try {
+          executor.execute(this);
+        } catch (RejectedExecutionException e) {
+          // Nothing is going to drain the work, so this thread ends the subscription and rolls the counter back so that
+          // later calls try the executor again rather than waiting on a drain that never runs
+          if (!done) {
+            finish(e, false);
+          }
+
+          work.set(0);
+        }
+      }
+    }
+
+    /**
+     * Drains the demand. The work counter makes sure only one thread runs this at a time and that requests made while
+     * it is running aren't lost.
+     */
+    public void run() {
+      int missed = 1;
+      while (true) {
+        if (!done) {
+          drain();
+        }
+
+        missed = work.addAndGet(-missed);
+        if (missed == 0) {
+          return;
+        }
+      }
+    }
+
+    private void drain() {
+      if (cancelled) {
+        finish(null, false);
+        return;
+      }
+
+      if (invalid != null) {
+        finish(invalid, false);
+        return;
+      }
+
+      try {
+        if (cursor == null) {
+          c = dataSource.getConnection();
+          cursor = new Select(c, sql).with(params).fetchSize(fetchSize).cursor(handler);
+          if (cursor == null) {
+            // The handler handled the exception
+            finish(null, true);
+            return;
+          }
+        }
+
+        long requested = demand.get();
+        long emitted = 0;
+        while (emitted != requested) {
+          if (cancelled) {
+            finish(null, false);
+            return;
+          }
+
+          if (!cursor.hasNext()) {
+            finish(null, true);
+            return;
+          }
+
+          subscriber.onNext(cursor.next());
+          emitted++;
+        }
+
+        if (requested != Long.MAX_VALUE) {
+          demand.addAndGet(-emitted);
+        }
+      } catch (Throwable t) {
+        finish(t, false);
+      }
+    }
+
+    private void finish(Throwable error, boolean complete) {
+      done = true;
+      try {
+        if (cursor != null) {
+          cursor.close();
+        }
+      } catch (RuntimeException e) {
+        error = error != null ? error : e;
+      } finally {
+        if (c != null) {
+          try {
+            c.close();
+          } catch (SQLException e) {
+            error = error != null ? error : e;
+          }
+        }
+      }
+
+      if (error != null) {
+        subscriber.onError(error);
+      } else if (complete) {
+        subscriber.onComplete();
+      }
+    }
+  }
+}
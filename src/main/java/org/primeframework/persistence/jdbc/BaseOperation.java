@@ -15,12 +15,20 @@
  */
 package org.primeframework.persistence.jdbc;
 
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 
-import static java.util.Arrays.*;
+import org.primeframework.persistence.jdbc.convert.TypeConverter;
+import org.primeframework.persistence.jdbc.convert.TypeConverter.Converters;
+import org.primeframework.persistence.metrics.StatementMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This class provides some basic JDBC handling methods.
@@ -29,10 +37,38 @@ import static java.util.Arrays.*;
  */
 @SuppressWarnings("unchecked")
 public abstract class BaseOperation<T extends BaseOperation<T>> {
-  private final List<Object> params = new ArrayList<Object>();
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+  private static final Logger logger = LoggerFactory.getLogger(BaseOperation.class);
+
+  final Connection c;
+  private final Params params = new Params();
+  private final List<Params> batch = new ArrayList<Params>();
+  private final List<String> cleanup = new ArrayList<String>();
+  private final List<InList> tempTables = new ArrayList<InList>();
   private final boolean setNullParams;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private String timedSQL;
+  private long started;
+  private long prepared;
+  private long executed;
+  private long rows;
+  private int boundStart;
+  private int boundEnd;
+  private List<Object> boundValues;
+  private boolean executing;
 
+  /**
+   * Constructs an operation without a Connection, for subclasses that prepare and close their own statements. Those
+   * subclasses don't get statement caching, temp tables for in-clauses or the other features that need the Connection.
+   *
+   * @param setNullParams Whether or not untyped null parameters are bound.
+   */
   public BaseOperation(boolean setNullParams) {
+    this(null, setNullParams);
+  }
+
+  public BaseOperation(Connection c, boolean setNullParams) {
+    this.c = c;
     this.setNullParams = setNullParams;
   }
 
@@ -42,7 +78,80 @@ public abstract class BaseOperation<T extends BaseOperation<T>> {
   }
 
   public T add(Object... params) {
-    this.params.addAll(asList(params));
+    this.params.addAll(params);
+    return (T) this;
+  }
+
+  /**
+   * Adds an int parameter. This doesn't box the value and binds it using {@link PreparedStatement#setInt}.
+   *
+   * @param value The value.
+   * @return This builder.
+   */
+  public T addInt(int value) {
+    this.params.addInt(value);
+    return (T) this;
+  }
+
+  /**
+   * Adds a long parameter. This doesn't box the value and binds it using {@link PreparedStatement#setLong}.
+   *
+   * @param value The value.
+   * @return This builder.
+   */
+  public T addLong(long value) {
+    this.params.addLong(value);
+    return (T) this;
+  }
+
+  /**
+   * Adds a String parameter, which is bound using {@link PreparedStatement#setString}. Null Strings are bound as a
+   * VARCHAR null.
+   *
+   * @param value The value.
+   * @return This builder.
+   */
+  public T addString(String value) {
+    this.params.addString(value);
+    return (T) this;
+  }
+
+  /**
+   * Adds a null parameter of the given SQL type, which is bound using {@link PreparedStatement#setNull}.
+   *
+   * @param sqlType The SQL type from {@link java.sql.Types}.
+   * @return This builder.
+   */
+  public T addNull(int sqlType) {
+    this.params.addNull(sqlType);
+    return (T) this;
+  }
+
+  /**
+   * Adds the current parameters to the batch and clears them so that the next set of parameters can be added. The
+   * batch is executed by the <code>goBatch</code> method of the builder.
+   *
+   * @return This builder.
+   */
+  public T addBatch() {
+    this.batch.add(params.copy());
+    this.params.clear();
+    return (T) this;
+  }
+
+  /**
+   * Sets the number of parameter sets that are sent to the database in a single call to {@link
+   * PreparedStatement#executeBatch()}. Larger batches are flushed in multiple calls.
+   *
+   * @param batchSize The batch size.
+   * @return This builder.
+   */
+  public T batchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("The batch size must be greater than zero");
+    }
+
+    this.batchSize = batchSize;
     return (T) this;
   }
 
@@ -53,24 +162,406 @@ public abstract class BaseOperation<T extends BaseOperation<T>> {
     return this.params.size();
   }
 
+  /**
+   * @return The parameters that have been added to this statement.
+   */
+  Params params() {
+    return params;
+  }
+
+  /**
+   * Adds a SQL statement that is executed when the statement is closed. This is used to drop temp tables.
+   *
+   * @param sql The SQL.
+   */
+  void cleanup(String sql) {
+    this.cleanup.add(sql);
+  }
+
+  /**
+   * Adds an in-clause whose temp table is created by {@link #createTempTables()}.
+   *
+   * @param inList The in-clause.
+   */
+  void tempTable(InList inList) {
+    this.tempTables.add(inList);
+  }
+
+  /**
+   * Creates and fills the temp tables of the in-clauses. This is called right before the statement is prepared and
+   * the tables are dropped when the statement is closed, so they are created again each time the builder is run.
+   *
+   * @throws SQLException If a temp table couldn't be created.
+   */
+  void createTempTables() throws SQLException {
+    executing = true;
+    for (InList inList : tempTables) {
+      inList.createTempTable(this);
+    }
+  }
+
+  /**
+   * Prepares the statement. This and the other prepare and execute methods time the statement for the {@link
+   * StatementLog} and the {@link StatementMetrics}. The timing ends when the statement is closed using {@link
+   * #close(PreparedStatement)}.
+   *
+   * @param sql The SQL.
+   * @return The statement.
+   * @throws SQLException If the statement couldn't be prepared.
+   */
+  PreparedStatement prepare(String sql) throws SQLException {
+    createTempTables();
+    start(sql);
+    PreparedStatement ps = c.prepareStatement(sql);
+    prepared();
+    return ps;
+  }
+
+  PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+    createTempTables();
+    start(sql);
+    PreparedStatement ps = c.prepareStatement(sql, autoGeneratedKeys);
+    prepared();
+    return ps;
+  }
+
+  PreparedStatement prepare(String sql, String[] columnNames) throws SQLException {
+    createTempTables();
+    start(sql);
+    PreparedStatement ps = c.prepareStatement(sql, columnNames);
+    prepared();
+    return ps;
+  }
+
+  PreparedStatement prepare(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+    createTempTables();
+    start(sql);
+    PreparedStatement ps = c.prepareStatement(sql, resultSetType, resultSetConcurrency);
+    prepared();
+    return ps;
+  }
+
+  ResultSet executeQuery(PreparedStatement ps) throws SQLException {
+    ResultSet rs = ps.executeQuery();
+    executed();
+    executing = false;
+    return rs;
+  }
+
+  boolean execute(PreparedStatement ps) throws SQLException {
+    boolean result = ps.execute();
+    executed();
+    executing = false;
+    return result;
+  }
+
+  int executeUpdate(PreparedStatement ps) throws SQLException {
+    int count = ps.executeUpdate();
+    executed();
+    executing = false;
+    rows += count;
+    return count;
+  }
+
+  /**
+   * Moves to the next row and counts it for the {@link StatementMetrics}.
+   *
+   * @param rs The result set.
+   * @return The result of {@link ResultSet#next()}.
+   * @throws SQLException If the next row couldn't be fetched.
+   */
+  boolean nextRow(ResultSet rs) throws SQLException {
+    try {
+      if (rs.next()) {
+        rows++;
+        return true;
+      }
+    } catch (SQLException e) {
+      executing = true;
+      throw e;
+    }
+
+    return false;
+  }
+
+  private void start(String sql) {
+    if (StatementLog.enabled() || StatementMetrics.enabled()) {
+      timedSQL = sql;
+      started = System.nanoTime();
+      prepared = 0;
+      executed = 0;
+      rows = 0;
+      boundStart = 0;
+      boundEnd = 0;
+      boundValues = null;
+    }
+  }
+
+  private void prepared() {
+    if (started != 0) {
+      prepared = System.nanoTime();
+    }
+  }
+
+  private void executed() {
+    if (started != 0) {
+      executed = System.nanoTime();
+    }
+  }
+
+  /**
+   * Ends the timing of the current statement and hands it to the {@link StatementLog} and the {@link
+   * StatementMetrics}. If the statement failed, the time until the failure is counted in the phase that failed.
+   */
+  private void timed() {
+    if (started == 0) {
+      return;
+    }
+
+    long now = System.nanoTime();
+    long prepare = (prepared != 0 ? prepared : now) - started;
+    long execute = prepared != 0 ? (executed != 0 ? executed : now) - prepared : 0;
+    long fetch = executed != 0 ? now - executed : 0;
+    Object[] extra = boundValues != null ? boundValues.toArray() : null;
+    int end = Math.min(boundEnd, params.size());
+    started = 0;
+    boundValues = null;
+    StatementMetrics.recordNanos(timedSQL, prepare + execute + fetch, rows);
+    StatementLog.statement(timedSQL, params, Math.min(boundStart, end), end, extra, prepare, execute, fetch);
+  }
+
   void setParams(PreparedStatement ps) throws SQLException {
-    if (params != null) {
-      for (int i = 0; i < params.size(); i++) {
-        Object param = params.get(i);
-        if (param != null || setNullParams) {
-          ps.setObject(i + 1, param);
+    bound(0, params.size());
+    params.bind(ps, 0, params.size(), setNullParams);
+  }
+
+  /**
+   * Sets a range of the parameters on the statement starting at the first parameter of the statement.
+   *
+   * @param ps    The statement.
+   * @param start The index of the first parameter (inclusive).
+   * @param end   The index of the last parameter (exclusive).
+   * @throws SQLException If a parameter couldn't be set.
+   */
+  void setParams(PreparedStatement ps, int start, int end) throws SQLException {
+    bound(start, end);
+    params.bind(ps, start, end, setNullParams);
+  }
+
+  /**
+   * Sets the given values on the statement after the parameters of this builder. Values that have a {@link
+   * TypeConverter} are converted first.
+   *
+   * @param ps     The statement.
+   * @param values The values.
+   * @param offset The number of statement parameters before the values.
+   * @throws SQLException If a parameter couldn't be set.
+   */
+  void setParams(PreparedStatement ps, List<Object> values, int offset) throws SQLException {
+    if (started != 0) {
+      boundValues = values;
+    }
+
+    for (int i = 0; i < values.size(); i++) {
+      Object value = Converters.toSQL(values.get(i));
+      if (value != null || setNullParams) {
+        ps.setObject(offset + i + 1, value);
+      }
+    }
+  }
+
+  private void bound(int start, int end) {
+    if (started != 0) {
+      boundStart = start;
+      boundEnd = end;
+    }
+  }
+
+  /**
+   * Records the last parameter set of the batch as the parameters of the statement for the {@link StatementLog}.
+   */
+  private void batchBound() {
+    if (started != 0 && !batch.isEmpty()) {
+      Params last = batch.get(batch.size() - 1);
+      boundStart = 0;
+      boundEnd = 0;
+      boundValues = new ArrayList<Object>(last.size());
+      for (int i = 0; i < last.size(); i++) {
+        boundValues.add(last.get(i));
+      }
+    }
+  }
+
+  /**
+   * Executes all of the parameter sets that have been added via {@link #addBatch()} using the given statement. If
+   * there are any parameters that haven't been added to the batch yet, they are added as the last parameter set. The
+   * batch is flushed to the database every <code>batchSize</code> parameter sets.
+   *
+   * @param ps The statement.
+   * @return The update counts for each parameter set in the order they were added. Some drivers return {@link
+   *         Statement#SUCCESS_NO_INFO} rather than an actual count.
+   * @throws SQLException If the statement failed for a reason other than the batch execution.
+   * @throws BatchException If the batch failed. This contains the index of the parameter set that failed.
+   */
+  int[] executeBatch(PreparedStatement ps) throws SQLException, BatchException {
+    if (!params.isEmpty()) {
+      addBatch();
+    }
+
+    if (batch.isEmpty()) {
+      throw new BatchException("No parameters were added to the batch", 0, new int[0]);
+    }
+
+    int[] counts = new int[batch.size()];
+    int flushed = 0;
+    try {
+      for (int i = 0; i < batch.size(); i++) {
+        Params set = batch.get(i);
+        set.bind(ps, 0, set.size(), setNullParams);
+        ps.addBatch();
+
+        int pending = i + 1 - flushed;
+        if (pending == batchSize || i == batch.size() - 1) {
+          int[] results;
+          try {
+            results = ps.executeBatch();
+          } catch (BatchUpdateException e) {
+            throw batchFailed(e, counts, flushed, pending);
+          }
+
+          System.arraycopy(results, 0, counts, flushed, Math.min(results.length, pending));
+          for (int result : results) {
+            rows += result > 0 ? result : 0;
+          }
+          flushed += pending;
+          batchFlushed(ps);
         }
       }
+
+      executing = false;
+    } finally {
+      batchBound();
+      batch.clear();
+      executed();
     }
+
+    return counts;
   }
 
+  /**
+   * Called after each part of a batch has been executed successfully. This does nothing by default.
+   *
+   * @param ps The statement.
+   * @throws SQLException If the subclass fails to read the results.
+   */
+  void batchFlushed(PreparedStatement ps) throws SQLException {
+  }
+
+  /**
+   * Drivers either stop at the first failed parameter set and return the counts of the ones that succeeded, or they
+   * keep going and mark the failed ones with {@link Statement#EXECUTE_FAILED}. This handles both.
+   */
+  private BatchException batchFailed(BatchUpdateException e, int[] counts, int flushed, int pending) {
+    int[] results = e.getUpdateCounts();
+    if (results == null) {
+      results = new int[0];
+    }
+
+    int failed = results.length;
+    if (results.length == pending) {
+      for (int i = 0; i < results.length; i++) {
+        if (results[i] == Statement.EXECUTE_FAILED) {
+          failed = i;
+          break;
+        }
+      }
+    }
+
+    System.arraycopy(results, 0, counts, flushed, Math.min(failed, pending));
+
+    int[] completed = new int[flushed + Math.min(failed, pending)];
+    System.arraycopy(counts, 0, completed, 0, completed.length);
+    return new BatchException("The batch failed at parameter set [" + (flushed + failed) + "]", flushed + failed,
+      completed, e);
+  }
+
+  /**
+   * Starts a local transaction if the Connection is in auto-commit mode. This is used when a single operation is split
+   * into multiple statements, so that the operation is still all or nothing.
+   *
+   * @return True if a local transaction was started and must be ended with {@link #endLocalTransaction(boolean)}.
+   * @throws SQLException If the auto-commit mode couldn't be read or changed.
+   */
+  boolean startLocalTransaction() throws SQLException {
+    if (!c.getAutoCommit()) {
+      return false;
+    }
+
+    c.setAutoCommit(false);
+    return true;
+  }
+
+  /**
+   * Commits or rolls back a local transaction started by {@link #startLocalTransaction()} and puts the Connection back
+   * into auto-commit mode.
+   *
+   * @param success True to commit, false to roll back.
+   * @throws SQLException If the commit or rollback failed.
+   */
+  void endLocalTransaction(boolean success) throws SQLException {
+    try {
+      if (success) {
+        c.commit();
+      } else {
+        c.rollback();
+      }
+    } finally {
+      c.setAutoCommit(true);
+    }
+  }
+
+  /**
+   * Closes the statement or hands it back to the Connection if the Connection caches statements (see {@link
+   * StatementReleaser}). Any cleanup statements are run afterwards. This also ends the timing of the statement.
+   * <p/>
+   * If the statement failed, the cleanup can fail as well (for example, PostgreSQL refuses every statement after a
+   * failure until the transaction is rolled back). Those failures are only logged so that they don't replace the
+   * exception of the statement, which is already on its way to the caller.
+   *
+   * @param ps The statement.
+   */
   void close(PreparedStatement ps) {
+    timed();
     if (ps != null) {
       try {
-        ps.close();
+        if (c instanceof StatementReleaser) {
+          ((StatementReleaser) c).release(ps);
+        } else {
+          ps.close();
+        }
       } catch (SQLException e) {
         throw new JDBCException("Unable to close PreparedStatement");
       }
     }
+
+    if (!cleanup.isEmpty()) {
+      try {
+        Statement s = c.createStatement();
+        try {
+          for (String sql : cleanup) {
+            s.execute(sql);
+          }
+        } finally {
+          cleanup.clear();
+          s.close();
+        }
+      } catch (SQLException e) {
+        if (!executing) {
+          throw new JDBCException("Unable to clean up after the statement", e);
+        }
+
+        logger.warn("Unable to clean up after the failed statement", e);
+      }
+    }
   }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+/**
+ * This is thrown when a batch execution fails. It contains the index of the parameter set that failed and the update
+ * counts of the parameter sets that were executed before the failure.
+ *
+ * @author Brian Pontarelli
+ */
+public class BatchException extends JDBCException {
+  public final int index;
+  public final int[] counts;
+
+  public BatchException(String message, int index, int[] counts) {
+    super(message);
+    this.index = index;
+    this.counts = counts;
+  }
+
+  public BatchException(String message, int index, int[] counts, Throwable cause) {
+    super(message, cause);
+    this.index = index;
+    this.counts = counts;
+  }
+}
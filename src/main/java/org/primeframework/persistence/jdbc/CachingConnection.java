@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This class is a Connection wrapper that caches the PreparedStatements created via {@link #prepareStatement(String)}
+ * and {@link #prepareStatement(String, int)} in a {@link StatementCache}. The JDBC builders release their statements
+ * back to this Connection rather than closing them, which allows the same SQL to be executed many times without being
+ * parsed and planned again.
+ *
+ * @author Brian Pontarelli
+ */
+public class CachingConnection extends ConnectionWrapper implements StatementReleaser {
+  private final StatementCache cache;
+
+  public CachingConnection(Connection c, int cacheSize) {
+    super(c);
+    this.cache = new StatementCache(cacheSize);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql) throws SQLException {
+    return prepareStatement(sql, Statement.NO_GENERATED_KEYS);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+    PreparedStatement ps = cache.checkout(sql, autoGeneratedKeys);
+    if (ps == null) {
+      ps = super.prepareStatement(sql, autoGeneratedKeys);
+      cache.track(sql, autoGeneratedKeys, ps);
+    }
+
+    return ps;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void release(PreparedStatement ps) throws SQLException {
+    cache.release(ps);
+  }
+
+  /**
+   * Closes all of the cached statements and then the Connection.
+   *
+   * @throws SQLException If the Connection couldn't be closed.
+   */
+  @Override
+  public void close() throws SQLException {
+    cache.close();
+    super.close();
+  }
+
+  /**
+   * @return The statement cache, mostly for checking the hit and miss counts.
+   */
+  public StatementCache getCache() {
+    return cache;
+  }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import javax.persistence.Column;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.primeframework.persistence.jdbc.convert.TypeConverter;
+import org.primeframework.persistence.util.StringTools;
+
+/**
+ * This class is the compiled mapping between a class and a table that the JDBC builders use to insert and select
+ * objects. The mapping uses the JPA annotations if they exist and otherwise de-camel-cases the class and field names.
+ * Only public fields that aren't {@link Transient} are mapped.
+ * <p/>
+ * The reflection is done once per class and the mapping is cached, so that inserting or selecting many objects doesn't
+ * pay the cost of looking up the fields, annotations and converters for each object.
+ *
+ * @author Brian Pontarelli
+ */
+public class ClassMapping {
+  private static final ConcurrentMap<Class<?>, ClassMapping> mappings = new ConcurrentHashMap<Class<?>, ClassMapping>();
+  private static final int OBJECT = 0;
+  private static final int STRING = 1;
+  private static final int INT = 2;
+  private static final int LONG = 3;
+  private static final int DOUBLE = 4;
+  private static final int FLOAT = 5;
+  private static final int BOOLEAN = 6;
+  private static final int SHORT = 7;
+  private static final int BYTE = 8;
+  private static final int INTEGER_OBJECT = 9;
+  private static final int LONG_OBJECT = 10;
+  private static final int DOUBLE_OBJECT = 11;
+  private static final int FLOAT_OBJECT = 12;
+  private static final int BOOLEAN_OBJECT = 13;
+  private static final int SHORT_OBJECT = 14;
+  private static final int BYTE_OBJECT = 15;
+  private static final int BIG_DECIMAL = 16;
+  private static final int TIMESTAMP = 17;
+  private static final int DATE = 18;
+
+  public final Class<?> type;
+  public final String tableName;
+  public final List<String> columns;
+  public final String columnList;
+  public final String placeholders;
+  private final Field[] fields;
+  private final int[] kinds;
+  private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+  private volatile Converters converters;
+  private volatile Constructor<?> constructor;
+
+  private ClassMapping(Class<?> type) {
+    this.type = type;
+
+    Table table = type.getAnnotation(Table.class);
+    if (table != null) {
+      this.tableName = table.name();
+    } else {
+      this.tableName = StringTools.deCamelCase(type.getSimpleName(), true, "_");
+    }
+
+    List<String> columns = new ArrayList<String>();
+    List<Field> fields = new ArrayList<Field>();
+    for (Field field : type.getFields()) {
+      if (field.getAnnotation(Transient.class) != null) {
+        continue;
+      }
+
+      Column column = field.getAnnotation(Column.class);
+      String name = "";
+      if (column != null) {
+        name = column.name();
+      }
+
+      if (name.equals("")) {
+        name = StringTools.deCamelCase(field.getName(), true, "_");
+      }
+
+      // Skips the access checks on each get and set
+      field.setAccessible(true);
+      columns.add(name);
+      fields.add(field);
+    }
+
+    this.columns = Collections.unmodifiableList(columns);
+    this.columnList = StringUtils.join(columns, ",");
+    this.fields = fields.toArray(new Field[fields.size()]);
+    this.kinds = new int[this.fields.length];
+    for (int i = 0; i < this.fields.length; i++) {
+      kinds[i] = kind(this.fields[i].getType());
+      indexes.put(columns.get(i).toLowerCase(), i);
+    }
+
+    StringBuilder build = new StringBuilder("(");
+    for (int i = 0; i < this.fields.length; i++) {
+      if (i > 0) {
+        build.append(",");
+      }
+      build.append("?");
+    }
+    this.placeholders = build.append(")").toString();
+  }
+
+  /**
+   * Returns the mapping for the given class, building it the first time the class is used.
+   *
+   * @param type The class.
+   * @return The mapping and never null.
+   */
+  public static ClassMapping of(Class<?> type) {
+    ClassMapping mapping = mappings.get(type);
+    if (mapping == null) {
+      mapping = new ClassMapping(type);
+      ClassMapping existing = mappings.putIfAbsent(type, mapping);
+      if (existing != null) {
+        mapping = existing;
+      }
+    }
+
+    return mapping;
+  }
+
+  /**
+   * @return The number of mapped columns.
+   */
+  public int size() {
+    return fields.length;
+  }
+
+  /**
+   * Pulls the values of the mapped fields out of the object and converts them to SQL values using the registered
+   * {@link TypeConverter}s.
+   *
+   * @param object The object.
+   * @return The values in the same order as the columns.
+   */
+  public Object[] values(Object object) {
+    TypeConverter[] converters = converters();
+    Object[] values = new Object[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      values[i] = get(i, object, converters);
+    }
+
+    return values;
+  }
+
+  /**
+   * Pulls the value of a single mapped field out of the object and converts it to a SQL value.
+   *
+   * @param index  The index of the column.
+   * @param object The object.
+   * @return The value.
+   */
+  public Object value(int index, Object object) {
+    return get(index, object, converters());
+  }
+
+  /**
+   * Determines the index of the field that is mapped to the given column. Column names are case-insensitive.
+   *
+   * @param column The column name or label.
+   * @return The index or -1 if the column isn't mapped.
+   */
+  public int indexOf(String column) {
+    Integer index = indexes.get(column.toLowerCase());
+    return index != null ? index : -1;
+  }
+
+  /**
+   * Creates a new instance of the class using its no-argument constructor.
+   *
+   * @return The new instance.
+   */
+  public Object newInstance() {
+    try {
+      Constructor<?> constructor = this.constructor;
+      if (constructor == null) {
+        constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        this.constructor = constructor;
+      }
+
+      return constructor.newInstance();
+    } catch (NoSuchMethodException e) {
+      throw new JDBCException("The class [" + type + "] must have a no-argument constructor to be selected", e);
+    } catch (Exception e) {
+      throw new JDBCException("Unable to create an instance of [" + type + "]", e);
+    }
+  }
+
+  /**
+   * Reads the given column of the current row and sets it into the mapped field of the object. If there is a {@link
+   * TypeConverter} for the field, the value is converted using it. Otherwise the value is read using the ResultSet
+   * getter for the field's type, which means that primitive fields are set without boxing.
+   *
+   * @param index      The index of the field.
+   * @param object     The object.
+   * @param rs         The ResultSet.
+   * @param column     The column index in the ResultSet.
+   * @param converters The converters from {@link #converters()}.
+   * @throws SQLException If the column couldn't be read.
+   */
+  void read(int index, Object object, ResultSet rs, int column, TypeConverter[] converters) throws SQLException {
+    Field field = fields[index];
+    try {
+      if (converters[index] != null) {
+        field.set(object, converters[index].convertFromSQL(rs.getObject(column)));
+        return;
+      }
+
+      switch (kinds[index]) {
+        case STRING:
+          field.set(object, rs.getString(column));
+          break;
+        case INT:
+          field.setInt(object, rs.getInt(column));
+          break;
+        case LONG:
+          field.setLong(object, rs.getLong(column));
+          break;
+        case DOUBLE:
+          field.setDouble(object, rs.getDouble(column));
+          break;
+        case FLOAT:
+          field.setFloat(object, rs.getFloat(column));
+          break;
+        case BOOLEAN:
+          field.setBoolean(object, rs.getBoolean(column));
+          break;
+        case SHORT:
+          field.setShort(object, rs.getShort(column));
+          break;
+        case BYTE:
+          field.setByte(object, rs.getByte(column));
+          break;
+        case INTEGER_OBJECT:
+          int i = rs.getInt(column);
+          field.set(object, rs.wasNull() ? null : i);
+          break;
+        case LONG_OBJECT:
+          long l = rs.getLong(column);
+          field.set(object, rs.wasNull() ? null : l);
+          break;
+        case DOUBLE_OBJECT:
+          double d = rs.getDouble(column);
+          field.set(object, rs.wasNull() ? null : d);
+          break;
+        case FLOAT_OBJECT:
+          float f = rs.getFloat(column);
+          field.set(object, rs.wasNull() ? null : f);
+          break;
+        case BOOLEAN_OBJECT:
+          boolean b = rs.getBoolean(column);
+          field.set(object, rs.wasNull() ? null : b);
+          break;
+        case SHORT_OBJECT:
+          short sh = rs.getShort(column);
+          field.set(object, rs.wasNull() ? null : sh);
+          break;
+        case BYTE_OBJECT:
+          byte by = rs.getByte(column);
+          field.set(object, rs.wasNull() ? null : by);
+          break;
+        case BIG_DECIMAL:
+          field.set(object, rs.getBigDecimal(column));
+          break;
+        case TIMESTAMP:
+          field.set(object, rs.getTimestamp(column));
+          break;
+        case DATE:
+          field.set(object, rs.getDate(column));
+          break;
+        default:
+          field.set(object, rs.getObject(column));
+      }
+    } catch (IllegalAccessException e) {
+      throw new JDBCException(e);
+    }
+  }
+
+  private static int kind(Class<?> type) {
+    if (type == String.class) {
+      return STRING;
+    } else if (type == int.class) {
+      return INT;
+    } else if (type == long.class) {
+      return LONG;
+    } else if (type == double.class) {
+      return DOUBLE;
+    } else if (type == float.class) {
+      return FLOAT;
+    } else if (type == boolean.class) {
+      return BOOLEAN;
+    } else if (type == short.class) {
+      return SHORT;
+    } else if (type == byte.class) {
+      return BYTE;
+    } else if (type == Integer.class) {
+      return INTEGER_OBJECT;
+    } else if (type == Long.class) {
+      return LONG_OBJECT;
+    } else if (type == Double.class) {
+      return DOUBLE_OBJECT;
+    } else if (type == Float.class) {
+      return FLOAT_OBJECT;
+    } else if (type == Boolean.class) {
+      return BOOLEAN_OBJECT;
+    } else if (type == Short.class) {
+      return SHORT_OBJECT;
+    } else if (type == Byte.class) {
+      return BYTE_OBJECT;
+    } else if (type == BigDecimal.class) {
+      return BIG_DECIMAL;
+    } else if (type == Timestamp.class || type == java.util.Date.class) {
+      return TIMESTAMP;
+    } else if (type == java.sql.Date.class) {
+      return DATE;
+    }
+
+    return OBJECT;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object get(int index, Object object, TypeConverter[] converters) {
+    Object value;
+    try {
+      value = fields[index].get(object);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+
+    TypeConverter converter = converters[index];
+    if (converter != null) {
+      value = converter.convertToSQL(value);
+    }
+
+    return value;
+  }
+
+  /**
+   * The converters are resolved up front, but are resolved again if a new converter is registered after the mapping
+   * was built.
+   */
+  TypeConverter[] converters() {
+    Converters converters = this.converters;
+    int version = TypeConverter.Converters.version();
+    if (converters == null || converters.version != version) {
+      TypeConverter[] array = new TypeConverter[fields.length];
+      for (int i = 0; i < fields.length; i++) {
+        array[i] = TypeConverter.Converters.get(fields[i].getType());
+      }
+
+      converters = new Converters(version, array);
+      this.converters = converters;
+    }
+
+    return converters.array;
+  }
+
+  private static class Converters {
+    private final int version;
+    private final TypeConverter[] array;
+
+    private Converters(int version, TypeConverter[] array) {
+      this.version = version;
+      this.array = array;
+    }
+  }
+}
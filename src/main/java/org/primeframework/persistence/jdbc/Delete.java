@@ -23,6 +23,8 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
 
 /**
  * This class is a builder for updating.
@@ -33,7 +35,6 @@ public class Delete extends BaseOperation<Delete> {
   public static final String FROM_UNDEFINED_MSG = "from undefined";
   public static final String EQUALS_AND_IN_AND_LESS_THAN_UNDEFINED_MSG = "where clause defined without '=' or 'in'";
 
-  private final Connection c;
   private String someTable;
   private String someColumn;
   private Object someValue;
@@ -44,8 +45,7 @@ public class Delete extends BaseOperation<Delete> {
   boolean inDefined = false;
 
   public Delete(Connection c) {
-    super(true);
-    this.c = c;
+    super(c, true);
   }
 
   public Delete from(String someTable) {
@@ -88,21 +88,60 @@ public class Delete extends BaseOperation<Delete> {
    * @throws DeleteException If the update fails.
    */
   public int execute() throws DeleteException {
+    List<Object> values = new ArrayList<Object>();
+    String sql = sql(values);
 
-    boolean fromUndefined = StringUtils.isBlank(someTable);
-    boolean whereDefined = !StringUtils.isBlank(someColumn);
-    boolean equalsAndInAndLessThanUndefined = !equalsDefined && !inDefined && !lessThanDefined;
+    PreparedStatement ps = null;
+    try {
+      ps = prepare(sql);
+      setParams(ps);
+      setParams(ps, values, size());
 
-    if (fromUndefined) {
-      throw new DeleteException(FROM_UNDEFINED_MSG);
+      return executeUpdate(ps);
+    } catch (SQLException e) {
+      throw new DeleteException(e);
+    } finally {
+      close(ps);
     }
+  }
 
-    if (whereDefined) {
-      if (equalsAndInAndLessThanUndefined) {
-        throw new DeleteException(EQUALS_AND_IN_AND_LESS_THAN_UNDEFINED_MSG);
-      }
+  /**
+   * Compiles this delete into a query that can be stored and executed with {@link Query#update}. The values passed to
+   * <code>isEqualTo</code>, <code>isLessThan</code> and <code>in</code> aren't part of the query. They only determine
+   * the number of parameters, so an in-clause with three values compiles to a query with three parameters.
+   *
+   * @return The query.
+   * @throws DeleteException If the from or where clauses are invalid.
+   */
+  public Query compile() throws DeleteException {
+    return Query.compile(sql(new ArrayList<Object>()));
+  }
+
+  /**
+   * Starts a purge, which deletes the rows in chunks rather than in a single statement. This keeps the number of locked
+   * rows and the size of the undo log or WAL small when deleting a large number of rows.
+   *
+   * @param chunkSize The maximum number of rows deleted by each statement.
+   * @return The purge builder.
+   */
+  public Purge purge(int chunkSize) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("The chunk size must be greater than zero");
     }
 
+    return new Purge(chunkSize);
+  }
+
+  /**
+   * Builds the SQL for the delete.
+   *
+   * @param values The list that the values of the where clause are added to.
+   * @return The SQL.
+   * @throws DeleteException If the from or where clauses are invalid.
+   */
+  private String sql(List<Object> values) throws DeleteException {
+    boolean whereDefined = validate();
+
     StringBuilder sql = new StringBuilder();
     sql.append("delete from ").append(someTable);
 
@@ -111,7 +150,7 @@ public class Delete extends BaseOperation<Delete> {
 
       if (equalsDefined) {
         sql.append("= ").append("?");
-        add(someValue);
+        values.add(someValue);
       } else if (inDefined) {
         sql.append("in (");
         for (int i = 0; i < valueList.size(); i++) {
@@ -119,26 +158,259 @@ public class Delete extends BaseOperation<Delete> {
             sql.append(",");
           }
           sql.append("?");
-          add(valueList.get(i));
+          values.add(valueList.get(i));
         }
         sql.append(")");
       } else {
         sql.append("< ").append("?");
-        add(someValue);
+        values.add(someValue);
       }
+    }
+
+    return sql.toString();
+  }
+
+  /**
+   * Validates the from and where clauses.
+   *
+   * @return True if the where clause is defined.
+   * @throws DeleteException If the from or where clauses are invalid.
+   */
+  private boolean validate() throws DeleteException {
+    boolean fromUndefined = StringUtils.isBlank(someTable);
+    boolean whereDefined = !StringUtils.isBlank(someColumn);
+    boolean equalsAndInAndLessThanUndefined = !equalsDefined && !inDefined && !lessThanDefined;
+
+    if (fromUndefined) {
+      throw new DeleteException(FROM_UNDEFINED_MSG);
+    }
 
+    if (whereDefined) {
+      if (equalsAndInAndLessThanUndefined) {
+        throw new DeleteException(EQUALS_AND_IN_AND_LESS_THAN_UNDEFINED_MSG);
+      }
     }
 
-    PreparedStatement ps = null;
-    try {
-      ps = c.prepareStatement(sql.toString());
-      setParams(ps);
+    return whereDefined;
+  }
 
-      return ps.executeUpdate();
-    } catch (SQLException e) {
-      throw new DeleteException(e);
-    } finally {
-      close(ps);
+  /**
+   * This class is a builder for purges. Each chunk is committed separately, so the Connection must be in auto-commit
+   * mode. Purges can't run inside of a transaction because committing the chunks would also commit the rest of the
+   * transaction.
+   * <p/>
+   * For in-clauses, the values are split into chunks. For everything else, the rows are deleted in the order of the key
+   * column (which defaults to <code>id</code>) until a chunk deletes fewer rows than the chunk size.
+   */
+  public class Purge {
+    private final int chunkSize;
+    private String key = "id";
+    private long pause;
+    private int rowsPerSecond;
+
+    private Purge(int chunkSize) {
+      this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the key column that the rows are deleted in the order of.
+     *
+     * @param key The key column.
+     * @return This purge builder.
+     */
+    public Purge orderBy(String key) {
+      this.key = key;
+      return this;
+    }
+
+    /**
+     * Sets the number of milliseconds to pause between chunks.
+     *
+     * @param pause The pause in milliseconds.
+     * @return This purge builder.
+     */
+    public Purge pause(long pause) {
+      this.pause = pause;
+      return this;
+    }
+
+    /**
+     * Limits the rate that rows are deleted at. This pauses between chunks as long as necessary to keep the overall
+     * rate under the limit.
+     *
+     * @param rowsPerSecond The maximum number of rows deleted per second.
+     * @return This purge builder.
+     */
+    public Purge rowsPerSecond(int rowsPerSecond) {
+      this.rowsPerSecond = rowsPerSecond;
+      return this;
+    }
+
+    /**
+     * Performs the purge.
+     *
+     * @return The total number of rows deleted.
+     * @throws DeleteException           If the Connection is in a transaction or any of the chunks fail. The chunks
+     *                                   before the failed one are already committed.
+     * @throws PurgeInterruptedException If the thread was interrupted between chunks.
+     */
+    public long go() throws DeleteException {
+      return go(null);
+    }
+
+    /**
+     * Performs the purge and reports the progress after each chunk to the given listener.
+     *
+     * @param listener (Optional) The listener.
+     * @return The total number of rows deleted.
+     * @throws DeleteException           If the Connection is in a transaction or any of the chunks fail. The chunks
+     *                                   before the failed one are already committed.
+     * @throws PurgeInterruptedException If the thread was interrupted between chunks.
+     */
+    public long go(PurgeListener listener) throws DeleteException {
+      boolean whereDefined = validate();
+      long start = System.currentTimeMillis();
+      long total = 0;
+      int chunk = 0;
+      try {
+        if (!c.getAutoCommit()) {
+          throw new DeleteException("Purges commit each chunk and can't run inside of a transaction. Use a Connection " +
+            "in auto-commit mode.");
+        }
+
+        if (whereDefined && inDefined) {
+          for (int i = 0; i < valueList.size(); i += chunkSize) {
+            List<Object> values = valueList.subList(i, Math.min(i + chunkSize, valueList.size()));
+            int deleted = execute(inSQL(values.size()), values);
+            total += deleted;
+            chunk++;
+            if (listener != null) {
+              listener.chunk(chunk, deleted, total);
+            }
+
+            if (i + chunkSize >= valueList.size()) {
+              break;
+            }
+
+            throttle(total, start);
+          }
+        } else {
+          List<Object> params = new ArrayList<Object>();
+          if (whereDefined) {
+            params.add(someValue);
+          }
+
+          String sql = chunkSQL(whereDefined);
+          while (true) {
+            int deleted = execute(sql, params);
+            total += deleted;
+            chunk++;
+            if (listener != null) {
+              listener.chunk(chunk, deleted, total);
+            }
+
+            if (deleted < chunkSize) {
+              break;
+            }
+
+            throttle(total, start);
+          }
+        }
+      } catch (SQLException e) {
+        throw new DeleteException(e);
+      }
+
+      return total;
+    }
+
+    private int execute(String sql, List<Object> params) throws SQLException {
+      PreparedStatement ps = null;
+      try {
+        ps = prepare(sql);
+        setParams(ps, params, 0);
+        return executeUpdate(ps);
+      } finally {
+        close(ps);
+      }
+    }
+
+    private String inSQL(int count) {
+      StringBuilder sql = new StringBuilder("delete from ").append(someTable).append(" where ").append(someColumn).
+        append(" in (");
+      for (int i = 0; i < count; i++) {
+        if (i > 0) {
+          sql.append(",");
+        }
+        sql.append("?");
+      }
+
+      return sql.append(")").toString();
+    }
+
+    /**
+     * MySQL supports order by and limit on deletes. PostgreSQL doesn't, so it uses a sub-select on the key.
+     */
+    private String chunkSQL(boolean whereDefined) {
+      String where = "";
+      if (whereDefined) {
+        where = " where " + someColumn + (equalsDefined ? " = ?" : " < ?");
+      }
+
+      if (DatabaseType.database == Database.MYSQL) {
+        return "delete from " + someTable + where + " order by " + key + " limit " + chunkSize;
+      }
+
+      return "delete from " + someTable + " where " + key + " in (select " + key + " from " + someTable + where +
+        " order by " + key + " limit " + chunkSize + ")";
+    }
+
+    /**
+     * Pauses between chunks for the configured pause and rate limit.
+     *
+     * @throws PurgeInterruptedException If the thread was interrupted, which stops the purge.
+     */
+    private void throttle(long total, long start) {
+      long sleep = pause;
+      if (rowsPerSecond > 0) {
+        long elapsed = System.currentTimeMillis() - start;
+        sleep = Math.max(sleep, (total * 1000 / rowsPerSecond) - elapsed);
+      }
+
+      if (sleep > 0) {
+        try {
+          Thread.sleep(sleep);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new PurgeInterruptedException(total, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Receives the progress of a purge after each chunk.
+   */
+  public static abstract class PurgeListener {
+    /**
+     * Called after each chunk has been deleted and committed.
+     *
+     * @param chunk   The number of the chunk, starting at 1.
+     * @param deleted The number of rows deleted by the chunk.
+     * @param total   The total number of rows deleted so far.
+     */
+    public abstract void chunk(int chunk, int deleted, long total);
+  }
+
+  /**
+   * Thrown when a purge is interrupted between chunks. The chunks that were deleted before the interrupt are
+   * committed.
+   */
+  public static class PurgeInterruptedException extends DeleteException {
+    public final long total;
+
+    public PurgeInterruptedException(long total, Throwable cause) {
+      super("The purge was interrupted after deleting [" + total + "] rows", cause);
+      this.total = total;
     }
   }
 
@@ -25,17 +25,14 @@ import java.sql.SQLException;
  * @author Brian Pontarelli
  */
 public class Execute extends BaseOperation<Execute> {
-  private final Connection c;
   private String sql;
 
   public Execute(Connection c) {
-    super(true);
-    this.c = c;
+    super(c, true);
   }
 
   public Execute(Connection c, boolean setNullParams) {
-    super(setNullParams);
-    this.c = c;
+    super(c, setNullParams);
   }
 
   public Execute in(String sql) {
@@ -46,9 +43,28 @@ public class Execute extends BaseOperation<Execute> {
   public int go() {
     PreparedStatement ps = null;
     try {
-      ps = c.prepareStatement(sql);
+      ps = prepare(sql);
       setParams(ps);
-      return ps.executeUpdate();
+      return executeUpdate(ps);
+    } catch (SQLException e) {
+      throw new ExecuteException(e);
+    } finally {
+      close(ps);
+    }
+  }
+
+  /**
+   * Executes the SQL once for each parameter set that was added via {@link #addBatch()}.
+   *
+   * @return The number of rows changed for each parameter set.
+   * @throws ExecuteException If the execution fails.
+   * @throws BatchException If the batch fails.
+   */
+  public int[] goBatch() throws ExecuteException, BatchException {
+    PreparedStatement ps = null;
+    try {
+      ps = prepare(sql);
+      return executeBatch(ps);
     } catch (SQLException e) {
       throw new ExecuteException(e);
     } finally {
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
+
+import static java.util.Arrays.*;
+
+/**
+ * This class collects the values of an in-clause for the {@link Select} and {@link Update} builders and writes out the
+ * SQL once all of the values are known. By default, each value gets its own parameter. The other strategies keep the
+ * number of distinct SQL strings small so that the statement cache and the database's plan cache are actually used,
+ * and they must be turned on using the <code>inStrategy</code> method of the builder or for all builders using {@link
+ * #defaultStrategy(Strategy)}:
+ * <p/>
+ * <ul>
+ * <li>{@link Strategy#EXPAND} writes out one parameter per value. This is the default.</li>
+ * <li>{@link Strategy#ARRAY} binds all of the values as a single array parameter (<code>= any(?)</code>). This only
+ * works on PostgreSQL.</li>
+ * <li>{@link Strategy#PAD} pads the list up to the next power of two by repeating the last value.</li>
+ * <li>{@link Strategy#AUTO} uses {@link Strategy#ARRAY} on PostgreSQL and {@link Strategy#PAD} everywhere else, so
+ * that a single setting keeps the SQL stable on every database.</li>
+ * <li>{@link Strategy#TEMP_TABLE} inserts the values into a temporary table and selects from it. This is also used
+ * when the list is larger than the temp table threshold of the builder. The table is created and filled right before
+ * the statement is prepared and dropped when the statement is closed, so a builder that is never run doesn't create
+ * it.</li>
+ * </ul>
+ * <p/>
+ * The array and temp table strategies need to know the SQL type of the values, which is taken from the first non-null
+ * value. If the type isn't known, the values are expanded instead (or padded for {@link Strategy#AUTO}).
+ *
+ * @author Brian Pontarelli
+ */
+public class InList {
+  public static enum Strategy {
+    AUTO,
+    EXPAND,
+    PAD,
+    ARRAY,
+    TEMP_TABLE
+  }
+
+  private static final AtomicInteger tempTables = new AtomicInteger();
+  private static volatile Strategy defaultStrategy = Strategy.EXPAND;
+  private final List<Object> values = new ArrayList<Object>();
+  private String table;
+  private String type;
+
+  /**
+   * Sets the strategy of the builders that don't set one using <code>inStrategy</code>. This is {@link
+   * Strategy#EXPAND} unless it is changed, usually to {@link Strategy#AUTO} when the application starts.
+   *
+   * @param strategy The strategy.
+   */
+  public static void defaultStrategy(Strategy strategy) {
+    if (strategy == null) {
+      throw new NullPointerException("The strategy is required");
+    }
+
+    defaultStrategy = strategy;
+  }
+
+  public void add(Object... values) {
+    this.values.addAll(asList(values));
+  }
+
+  public int size() {
+    return values.size();
+  }
+
+  /**
+   * Writes the in-clause to the SQL and adds the parameters to the builder.
+   *
+   * @param sql                The SQL to append to.
+   * @param op                 The builder that the parameters are added to.
+   * @param strategy           The strategy or null to use the default strategy.
+   * @param tempTableThreshold The size past which a temp table is used or 0 to never use one.
+   * @throws SQLException If the array couldn't be created.
+   */
+  void build(StringBuilder sql, BaseOperation<?> op, Strategy strategy, int tempTableThreshold)
+  throws SQLException {
+    if (strategy == null) {
+      strategy = defaultStrategy;
+    }
+
+    if (tempTableThreshold > 0 && values.size() > tempTableThreshold) {
+      strategy = Strategy.TEMP_TABLE;
+    }
+
+    boolean auto = strategy == Strategy.AUTO;
+    if (auto) {
+      strategy = DatabaseType.database == Database.POSTGRESQL ? Strategy.ARRAY : Strategy.PAD;
+    }
+
+    String type = null;
+    if (strategy == Strategy.ARRAY || strategy == Strategy.TEMP_TABLE) {
+      type = type(strategy);
+      if (type == null) {
+        strategy = auto ? Strategy.PAD : Strategy.EXPAND;
+      }
+    }
+
+    switch (strategy) {
+      case EXPAND:
+        sql.append(" in (").append(placeholders(values.size())).append(")");
+        op.add(values.toArray());
+        break;
+      case ARRAY:
+        sql.append(" = any(?)");
+        op.add(op.c.createArrayOf(type, values.toArray()));
+        break;
+      case TEMP_TABLE:
+        this.table = "prime_in_" + (tempTables.incrementAndGet() & Integer.MAX_VALUE);
+        this.type = type;
+        sql.append(" in (select value from ").append(table).append(")");
+        op.tempTable(this);
+        break;
+      default:
+        pad(sql, op);
+    }
+  }
+
+  /**
+   * Pads the list to the next power of two. An empty list is written as <code>in (null)</code>, which never matches
+   * anything.
+   */
+  private void pad(StringBuilder sql, BaseOperation<?> op) {
+    if (values.isEmpty()) {
+      sql.append(" in (null)");
+      return;
+    }
+
+    int size = values.size();
+    int bucket = size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    sql.append(" in (").append(placeholders(bucket)).append(")");
+    op.add(values.toArray());
+
+    Object last = values.get(size - 1);
+    for (int i = size; i < bucket; i++) {
+      op.add(last);
+    }
+  }
+
+  /**
+   * Creates the temp table and inserts the values. The drop is added to the cleanup of the builder as soon as the
+   * table exists, so it is dropped even if the insert fails.
+   *
+   * @param op The builder.
+   * @throws SQLException If the table couldn't be created or filled.
+   */
+  void createTempTable(BaseOperation<?> op) throws SQLException {
+    boolean mysql = DatabaseType.database == Database.MYSQL;
+    Statement s = op.c.createStatement();
+    try {
+      s.execute("create temporary table " + table + " (value " + type + (mysql ? ", key (value))" : ")"));
+    } finally {
+      s.close();
+    }
+
+    op.cleanup(mysql ? "drop temporary table " + table : "drop table " + table);
+
+    Insert insert = new Insert(op.c, "insert into " + table + " (value) values ");
+    for (Object value : values) {
+      insert.addBulk(value);
+    }
+    insert.go();
+  }
+
+  /**
+   * Determines the SQL type of the values. PostgreSQL array types and column types use the same names.
+   */
+  private String type(Strategy strategy) {
+    Object value = null;
+    for (Object v : values) {
+      if (v != null) {
+        value = v;
+        break;
+      }
+    }
+
+    boolean mysql = strategy == Strategy.TEMP_TABLE && DatabaseType.database == Database.MYSQL;
+    if (value instanceof Integer || value instanceof Short) {
+      return mysql ? "int" : "int4";
+    } else if (value instanceof Long) {
+      return mysql ? "bigint" : "int8";
+    } else if (value instanceof String) {
+      return mysql ? "varchar(255)" : "varchar";
+    } else if (value instanceof UUID) {
+      return mysql ? null : "uuid";
+    } else if (value instanceof BigDecimal) {
+      return mysql ? "decimal(65,30)" : "numeric";
+    } else if (value instanceof Double) {
+      return mysql ? "double" : "float8";
+    } else if (value instanceof Boolean) {
+      return mysql ? "boolean" : "bool";
+    } else if (value instanceof Timestamp) {
+      return mysql ? "datetime" : "timestamp";
+    } else if (value instanceof java.sql.Date) {
+      return "date";
+    }
+
+    return null;
+  }
+
+  private static String placeholders(int count) {
+    StringBuilder build = new StringBuilder(count * 2);
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        build.append(",");
+      }
+      build.append("?");
+    }
+    return build.toString();
+  }
+}
@@ -15,10 +15,6 @@
  */
 package org.primeframework.persistence.jdbc;
 
-import javax.persistence.Column;
-import javax.persistence.Table;
-import javax.persistence.Transient;
-import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -29,8 +25,8 @@ import java.util.Collection;
 import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
-import org.primeframework.persistence.jdbc.convert.TypeConverter;
-import org.primeframework.persistence.util.StringTools;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
 
 import static java.util.Arrays.*;
 
@@ -40,23 +36,87 @@ import static java.util.Arrays.*;
  * @author Brian Pontarelli
  */
 public class Insert extends BaseOperation<Insert> {
-  private final Connection c;
+  public static final int DEFAULT_MAX_BULK_BYTES = 1024 * 1024;
+  public static final int POSTGRESQL_MAX_PARAMETERS = 32767;
+  public static final int MYSQL_MAX_PARAMETERS = 65535;
+
   private StringBuilder sql = new StringBuilder();
+  private final List<String> bulkRows = new ArrayList<String>();
+  private final List<Integer> bulkWidths = new ArrayList<Integer>();
+  private int bulkStart;
+  private int maxBulkParameters;
+  private int maxBulkBytes = DEFAULT_MAX_BULK_BYTES;
+  private String lastPlaceholders = "()";
+  private String keyColumn;
+  private String suffix = "";
+  private GeneratedKeyHandler<?> batchKeyHandler;
+  private List<Object> batchKeys;
 
   public Insert(Connection c) {
-    super(true);
-    this.c = c;
+    super(c, true);
   }
 
   public Insert(Connection c, String sql) {
-    super(true);
-    this.c = c;
+    super(c, true);
     this.sql.append(sql);
   }
 
   public Insert in(String sql) {
     this.sql = new StringBuilder();
     this.sql.append(sql);
+    this.bulkRows.clear();
+    this.bulkWidths.clear();
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of parameters in a single bulk insert statement. Bulk inserts with more parameters than
+   * this are split into multiple statements. This defaults to the limit of the current {@link DatabaseType#database}.
+   *
+   * @param maxBulkParameters The maximum number of parameters.
+   * @return This insert builder.
+   */
+  public Insert maxBulkParameters(int maxBulkParameters) {
+    this.maxBulkParameters = maxBulkParameters;
+    return this;
+  }
+
+  /**
+   * Sets the estimated maximum size in bytes of a single bulk insert statement. Bulk inserts that are larger than this
+   * are split into multiple statements. This defaults to 1MB, which is the default MySQL <code>max_allowed_packet</code>
+   * size.
+   *
+   * @param maxBulkBytes The maximum size in bytes.
+   * @return This insert builder.
+   */
+  public Insert maxBulkBytes(int maxBulkBytes) {
+    this.maxBulkBytes = maxBulkBytes;
+    return this;
+  }
+
+  /**
+   * Sets the name of the generated key column. On PostgreSQL, the keys are then returned by adding a
+   * <code>RETURNING</code> clause for only this column to the insert. If this isn't set, the driver decides which
+   * columns are returned (the PostgreSQL driver returns all of them). Other databases always return the keys of the
+   * auto-increment column.
+   *
+   * @param keyColumn The key column.
+   * @return This insert builder.
+   */
+  public Insert keyColumn(String keyColumn) {
+    this.keyColumn = keyColumn;
+    return this;
+  }
+
+  /**
+   * Sets the SQL that is appended after the bulk rows of each statement, such as a conflict clause. Since this is
+   * appended to every chunk, it must not contain any parameters.
+   *
+   * @param suffix The SQL.
+   * @return This insert builder.
+   */
+  Insert suffix(String suffix) {
+    this.suffix = suffix;
     return this;
   }
 
@@ -72,43 +132,214 @@ public class Insert extends BaseOperation<Insert> {
     return new InsertObject<T>(type);
   }
 
+  /**
+   * Starts a bulk load of raw rows into the given table. On PostgreSQL the rows are streamed using COPY, which is much
+   * faster than multi-row inserts. On other databases, this falls back to a chunked multi-row insert.
+   *
+   * @param table   The table.
+   * @param columns The columns that each row contains values for.
+   * @return The builder that is used to add the rows.
+   */
+  public Copy copyInto(String table, String... columns) {
+    return new Copy(table, columns);
+  }
+
   /**
    * Adds a bulk insert block. This appends the (?,?,?) format to the SQL. It also adds the given values ot the
    * parameters.
+   * <p/>
+   * If the bulk insert exceeds the parameter or size limits of the database, it is split into multiple statements that
+   * are executed on the same Connection when the insert is performed. If the Connection is in auto-commit mode, the
+   * statements are run in a local transaction so that the insert is still all or nothing.
    *
    * @param params The value parameters.
    * @return This insert builder.
    */
   public Insert addBulk(Object... params) {
-    if (sql.charAt(sql.length() - 1) == ')') {
-      sql.append(",");
+    // Rows are almost always the same width, so the placeholders are only built when the width changes
+    if (lastPlaceholders.length() != params.length * 2 + 1) {
+      StringBuilder build = new StringBuilder("(");
+      for (int i = 0; i < params.length; i++) {
+        if (i > 0) {
+          build.append(",");
+        }
+        build.append("?");
+      }
+      lastPlaceholders = build.append(")").toString();
     }
 
-    sql.append("(");
-    for (int i = 0; i < params.length; i++) {
-      if (i > 0) {
-        sql.append(",");
-      }
-      sql.append("?");
-      add(params[i]);
+    return addBulkRow(lastPlaceholders, params);
+  }
+
+  Insert addBulkRow(String placeholders, Object[] params) {
+    if (bulkRows.isEmpty()) {
+      bulkStart = size();
     }
-    sql.append(")");
+
+    bulkRows.add(placeholders);
+    bulkWidths.add(params.length);
+    add(params);
     return this;
   }
 
   /**
-   * Performs the insert.
+   * Performs the insert. Bulk inserts that exceed the limits of the database are split into multiple statements.
    *
-   * @return The number of rows inserted.
+   * @return The total number of rows inserted.
    * @throws InsertException If the insert fails.
    */
   public int go() throws InsertException {
+    try {
+      if (bulkRows.isEmpty()) {
+        return execute(sql.toString(), 0, size(), null, null);
+      }
+
+      return executeBulk(null, null);
+    } catch (SQLException e) {
+      throw new InsertException(e);
+    }
+  }
+
+  private <T> int execute(String sql, int start, int end, GeneratedKeyHandler<T> handler, List<T> keys)
+  throws SQLException {
     PreparedStatement ps = null;
     try {
-      ps = c.prepareStatement(sql.toString(), Statement.NO_GENERATED_KEYS);
-      setParams(ps);
+      ps = handler != null ? prepareForKeys(sql) : prepare(sql, Statement.NO_GENERATED_KEYS);
+      setParams(ps, start, end);
+
+      int count = executeUpdate(ps);
+      if (handler != null) {
+        readKeys(ps, handler, keys);
+      }
+
+      return count;
+    } finally {
+      close(ps);
+    }
+  }
+
+  /**
+   * Prepares a statement that returns the generated keys. If a key column was set, PostgreSQL returns the keys using
+   * <code>RETURNING</code> on that column, which returns a key for every row in the order of the rows. Otherwise, the
+   * driver's default generated keys are returned.
+   */
+  private PreparedStatement prepareForKeys(String sql) throws SQLException {
+    if (keyColumn != null && DatabaseType.database == Database.POSTGRESQL) {
+      return prepare(sql, new String[]{keyColumn});
+    }
+
+    return prepare(sql, Statement.RETURN_GENERATED_KEYS);
+  }
+
+  private <T> void readKeys(PreparedStatement ps, GeneratedKeyHandler<T> handler, List<T> keys) throws SQLException {
+    ResultSet keysRS = ps.getGeneratedKeys();
+    try {
+      while (keysRS.next()) {
+        keys.add(handler.handle(keysRS));
+      }
+    } finally {
+      // The statement might be cached rather than closed, so the keys have to be closed here
+      keysRS.close();
+    }
+  }
+
+  /**
+   * Splits the bulk rows into chunks that fit within the parameter and size limits and executes each chunk. Chunks can
+   * only be split if there aren't any parameters or values before the bulk rows, since those can't be repeated.
+   * <p/>
+   * If the insert is split and the Connection is in auto-commit mode, the chunks are run in a local transaction so
+   * that the insert is still all or nothing.
+   */
+  private <T> int executeBulk(GeneratedKeyHandler<T> handler, List<T> keys) throws SQLException {
+    Params params = params();
+    boolean continued = sql.length() > 0 && sql.charAt(sql.length() - 1) == ')';
+    boolean chunkable = bulkStart == 0 && !continued;
+    int maxParameters = maxBulkParameters > 0 ? maxBulkParameters :
+      DatabaseType.database == Database.MYSQL ? MYSQL_MAX_PARAMETERS : POSTGRESQL_MAX_PARAMETERS;
+
+    int total = 0;
+    int row = 0;
+    int param = bulkStart;
+    boolean local = false;
+    boolean done = false;
+    try {
+      while (row < bulkRows.size()) {
+        StringBuilder build = new StringBuilder(sql);
+        int first = chunkable ? param : 0;
+        int bytes = sql.length() + suffix.length();
+        int count = 0;
+        while (row < bulkRows.size()) {
+          String placeholders = bulkRows.get(row);
+          int width = bulkWidths.get(row);
+          if (chunkable) {
+            int rowBytes = placeholders.length() + 1 + params.estimate(param, width);
+            if (count > 0 && (param + width - first > maxParameters || bytes + rowBytes > maxBulkBytes)) {
+              break;
+            }
+
+            bytes += rowBytes;
+          }
+
+          if (count > 0 || continued) {
+            build.append(",");
+          }
 
-      return ps.executeUpdate();
+          build.append(placeholders);
+          param += width;
+          count++;
+          row++;
+        }
+
+        // The first chunk doesn't hold all of the rows, so start a local transaction if there isn't one
+        if (first == bulkStart && row < bulkRows.size()) {
+          local = startLocalTransaction();
+        }
+
+        total += execute(build.append(suffix).toString(), first, param, handler, keys);
+      }
+
+      done = true;
+    } finally {
+      if (local) {
+        endLocalTransaction(done);
+      }
+    }
+
+    return total;
+  }
+
+  /**
+   * @return The full SQL for the insert including all of the bulk rows in a single statement.
+   */
+  private String sql() {
+    if (bulkRows.isEmpty()) {
+      return sql.toString();
+    }
+
+    StringBuilder build = new StringBuilder(sql);
+    boolean continued = sql.length() > 0 && sql.charAt(sql.length() - 1) == ')';
+    for (int i = 0; i < bulkRows.size(); i++) {
+      if (i > 0 || continued) {
+        build.append(",");
+      }
+      build.append(bulkRows.get(i));
+    }
+
+    return build.append(suffix).toString();
+  }
+
+  /**
+   * Performs the insert once for each parameter set that was added via {@link #addBatch()}.
+   *
+   * @return The number of rows inserted for each parameter set.
+   * @throws InsertException If the insert fails.
+   * @throws BatchException If the batch fails.
+   */
+  public int[] goBatch() throws InsertException, BatchException {
+    PreparedStatement ps = null;
+    try {
+      ps = prepare(sql(), Statement.NO_GENERATED_KEYS);
+      return executeBatch(ps);
     } catch (SQLException e) {
       throw new InsertException(e);
     } finally {
@@ -117,37 +348,71 @@ public class Insert extends BaseOperation<Insert> {
   }
 
   /**
-   * Performs the insert.
+   * Executes the batch like {@link #goBatch()} and returns the generated keys of all the rows in the order that the
+   * parameter sets were added. The keys are read after each part of the batch is flushed.
    *
    * @param handler The generated keys handler.
-   * @return The result.
+   * @return The result, where the count is the number of rows inserted.
    * @throws InsertException If the insert fails.
+   * @throws BatchException If the batch fails. The keys of the rows that were inserted before the failure are lost.
    */
-  public <T> InsertResult<T> go(GeneratedKeyHandler<T> handler) throws InsertException {
+  @SuppressWarnings("unchecked")
+  public <T> InsertResult<T> goBatch(GeneratedKeyHandler<T> handler) throws InsertException, BatchException {
     PreparedStatement ps = null;
+    List<T> keys = new ArrayList<T>();
+    batchKeyHandler = handler;
+    batchKeys = (List<Object>) keys;
     try {
-      ps = c.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
-      setParams(ps);
-
-      int results = ps.executeUpdate();
-      if (results != 1) {
-        throw new InsertException("Inserting a single row failed completely");
+      ps = prepareForKeys(sql());
+      int[] counts = executeBatch(ps);
+      int count = 0;
+      for (int result : counts) {
+        count += result > 0 ? result : 0;
       }
 
-      ResultSet keysRS = ps.getGeneratedKeys();
-      List<T> keys = new ArrayList<T>();
-      while (keysRS.next()) {
-        keys.add(handler.handle(keysRS));
-      }
-
-      return new InsertResult<T>(results, keys);
+      return new InsertResult<T>(count, keys);
     } catch (SQLException e) {
       throw new InsertException(e);
     } finally {
+      batchKeyHandler = null;
+      batchKeys = null;
       close(ps);
     }
   }
 
+  @Override
+  @SuppressWarnings("unchecked")
+  void batchFlushed(PreparedStatement ps) throws SQLException {
+    if (batchKeyHandler != null) {
+      readKeys(ps, (GeneratedKeyHandler<Object>) batchKeyHandler, batchKeys);
+    }
+  }
+
+  /**
+   * Performs the insert and returns the generated keys. This works for single row inserts and bulk inserts. Bulk
+   * inserts are split into multiple statements the same way as {@link #go()} and the keys of all the statements are
+   * returned in the order of the rows.
+   *
+   * @param handler The generated keys handler.
+   * @return The result.
+   * @throws InsertException If the insert fails.
+   */
+  public <T> InsertResult<T> go(GeneratedKeyHandler<T> handler) throws InsertException {
+    List<T> keys = new ArrayList<T>();
+    try {
+      int count;
+      if (bulkRows.isEmpty()) {
+        count = execute(sql.toString(), 0, size(), handler, keys);
+      } else {
+        count = executeBulk(handler, keys);
+      }
+
+      return new InsertResult<T>(count, keys);
+    } catch (SQLException e) {
+      throw new InsertException(e);
+    }
+  }
+
   public static class InsertException extends JDBCException {
     public InsertException() {
     }
@@ -201,99 +466,125 @@ public class Insert extends BaseOperation<Insert> {
     }
 
     public int go() throws InsertException {
-      List<String> columns = columnNames(type);
-      Insert.this.sql.append("insert into ").append(tableName(type)).append(" (").append(StringUtils.join(columns, ",")).
-        append(") values ");
-      boolean first = true;
-      for (T object : objects) {
-        if (!first) {
-          Insert.this.sql.append(",");
+      build();
+      return Insert.this.go();
+    }
+
+    /**
+     * Inserts the objects using COPY on PostgreSQL. On other databases this falls back to {@link #go()}.
+     *
+     * @return The number of rows inserted.
+     * @throws InsertException If the insert fails.
+     */
+    public long copy() throws InsertException {
+      if (DatabaseType.database != Database.POSTGRESQL) {
+        return go();
+      }
+
+      ClassMapping mapping = ClassMapping.of(type);
+      PostgreSQLCopy copy = null;
+      try {
+        copy = PostgreSQLCopy.start(c, mapping.tableName, mapping.columnList);
+        for (T object : objects) {
+          copy.row(mapping.values(object));
         }
-        first = false;
 
-        Insert.this.sql.append("(");
-        for (int i = 0; i < columns.size(); i++) {
-          Insert.this.sql.append("?");
-          if (i < columns.size() - 1) {
-            Insert.this.sql.append(",");
-          }
+        return copy.end();
+      } catch (SQLException e) {
+        if (copy != null) {
+          copy.cancel();
         }
-        Insert.this.sql.append(")");
 
-        Insert.this.add(values(type, columns.size(), object));
+        throw new InsertException(e);
       }
+    }
 
-      return Insert.this.go();
+    /**
+     * Inserts the objects and returns their generated keys in the same order as the objects, so that the keys can be
+     * assigned to the objects.
+     *
+     * @param handler The generated keys handler.
+     * @return The result.
+     * @throws InsertException If the insert fails.
+     */
+    public <K> InsertResult<K> go(GeneratedKeyHandler<K> handler) throws InsertException {
+      build();
+      return Insert.this.go(handler);
     }
 
-    private String tableName(Class<T> type) {
-      Table table = type.getAnnotation(Table.class);
-      String tableName;
-      if (table != null) {
-        tableName = table.name();
-      } else {
-        tableName = StringTools.deCamelCase(type.getSimpleName(), true, "_");
+    private void build() {
+      ClassMapping mapping = ClassMapping.of(type);
+      Insert.this.sql.append("insert into ").append(mapping.tableName).append(" (").append(mapping.columnList).
+        append(") values ");
+      for (T object : objects) {
+        Insert.this.addBulkRow(mapping.placeholders, mapping.values(object));
       }
-
-      return tableName;
     }
+  }
 
-    private List<String> columnNames(Class<T> type) {
-      List<String> columnNames = new ArrayList<String>();
-      Field[] fields = type.getFields();
-      for (Field field : fields) {
-        Transient trans = field.getAnnotation(Transient.class);
-        if (trans != null) {
-          continue;
-        }
+  /**
+   * This class is a builder for loading raw rows into a table. The values must already be converted to SQL values.
+   */
+  public class Copy {
+    private final String table;
+    private final String[] columns;
+    private final List<Object[]> rows = new ArrayList<Object[]>();
+
+    public Copy(String table, String... columns) {
+      this.table = table;
+      this.columns = columns;
+    }
 
-        Column column = field.getAnnotation(Column.class);
-        String name = "";
-        if (column != null) {
-          name = column.name();
-        }
+    public Copy row(Object... values) {
+      if (values.length != columns.length) {
+        throw new InsertException("The row has [" + values.length + "] values but there are [" + columns.length +
+          "] columns");
+      }
 
-        if (name.equals("")) {
-          name = StringTools.deCamelCase(field.getName(), true, "_");
-        }
+      this.rows.add(values);
+      return this;
+    }
 
-        columnNames.add(name);
+    public Copy rows(Collection<Object[]> rows) {
+      for (Object[] row : rows) {
+        row(row);
       }
 
-      return columnNames;
+      return this;
     }
 
-    @SuppressWarnings("unchecked")
-    private Object[] values(Class<T> type, int size, T object) {
-      Object[] values = new Object[size];
-      Field[] fields = type.getFields();
-      int index = 0;
-      for (Field field : fields) {
-        Transient trans = field.getAnnotation(Transient.class);
-        if (trans != null) {
-          continue;
+    /**
+     * Loads the rows using COPY on PostgreSQL and a chunked multi-row insert on other databases.
+     *
+     * @return The number of rows inserted.
+     * @throws InsertException If the insert fails.
+     */
+    public long go() throws InsertException {
+      String columnList = StringUtils.join(columns, ",");
+      if (DatabaseType.database != Database.POSTGRESQL) {
+        Insert.this.in("insert into " + table + " (" + columnList + ") values ");
+        for (Object[] row : rows) {
+          Insert.this.addBulk(row);
         }
 
-        try {
-          values[index] = field.get(object);
-        } catch (IllegalAccessException e) {
-          throw new RuntimeException(e);
+        return Insert.this.go();
+      }
+
+      PostgreSQLCopy copy = null;
+      try {
+        copy = PostgreSQLCopy.start(c, table, columnList);
+        for (Object[] row : rows) {
+          copy.row(row);
         }
 
-        Class<?> fieldType = field.getType();
-        TypeConverter converter = TypeConverter.Converters.get(fieldType);
-        if (converter != null) {
-          values[index] = converter.convertToSQL(values[index]);
+        return copy.end();
+      } catch (SQLException e) {
+        if (copy != null) {
+          copy.cancel();
         }
 
-        index++;
+        throw new InsertException(e);
       }
-
-      return values;
-    }
-
-    public <T> InsertResult go(GeneratedKeyHandler<T> handler) throws InsertException {
-      return Insert.this.go(handler);
     }
   }
 }
@@ -15,60 +15,167 @@
  */
 package org.primeframework.persistence.jdbc;
 
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
 /**
- * This class assists in building SQL statements.
+ * This class assists in building SQL statements. By default the SQL is built in memory and returned from {@link
+ * #sql()}. The SQL can also be streamed to a Writer, OutputStream or channel (optionally gzipped), in which case
+ * each row is written as it is added and the {@link #close()} method must be called to finish the script.
  *
  * @author Brian Pontarelli
  */
-public class InsertGenerator {
+public class InsertGenerator implements Closeable {
   public static final Object NOW = new Object();
-  private final StringBuilder build = new StringBuilder();
+  private final Appendable build;
+  private final Writer writer;
   private String insert;
   private int valuesCount = 0;
 
   public InsertGenerator() {
+    this.build = new StringBuilder();
+    this.writer = null;
+  }
+
+  /**
+   * Streams the SQL to the given Writer. The Writer is closed when this generator is closed.
+   *
+   * @param writer The Writer.
+   */
+  public InsertGenerator(Writer writer) {
+    this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+    this.build = this.writer;
+  }
+
+  /**
+   * Streams the SQL to the given OutputStream using UTF-8. The stream is closed when this generator is closed.
+   *
+   * @param outputStream The OutputStream.
+   * @param gzip         True if the SQL should be gzipped.
+   */
+  public InsertGenerator(OutputStream outputStream, boolean gzip) {
+    this(writer(outputStream, gzip));
+  }
+
+  /**
+   * Streams the SQL to the given channel using UTF-8. The channel is closed when this generator is closed.
+   *
+   * @param channel The channel.
+   * @param gzip    True if the SQL should be gzipped.
+   */
+  public InsertGenerator(WritableByteChannel channel, boolean gzip) {
+    this(writer(Channels.newOutputStream(channel), gzip));
   }
 
   public InsertGenerator insert(String sql) {
     this.insert = sql;
-    build.append(sql);
+    append(sql);
     return this;
   }
 
   public InsertGenerator values(Object... values) {
-    if (valuesCount != 0 && valuesCount % 10000 == 0) {
-      build.append(";\n").append(insert);
-    } else if (valuesCount != 0) {
-      build.append(",\n");
-    }
-
-    int count = 0;
-    build.append("(");
-    for (Object value : values) {
-      if (count > 0) {
-        build.append(",");
+    try {
+      if (valuesCount != 0 && valuesCount % 10000 == 0) {
+        build.append(";\n").append(insert);
+      } else if (valuesCount != 0) {
+        build.append(",\n");
       }
 
-      if (value == null) {
-        build.append("null");
-      } else if (value == NOW) {
-        build.append("now()");
-      } else if (value instanceof Enum || value instanceof String) {
-        build.append("'").append(value.toString().replace("'", "''")).append("'");
-      } else {
-        build.append(value.toString());
+      int count = 0;
+      build.append("(");
+      for (Object value : values) {
+        if (count > 0) {
+          build.append(",");
+        }
+
+        if (value == null) {
+          build.append("null");
+        } else if (value == NOW) {
+          build.append("now()");
+        } else if (value instanceof Enum || value instanceof String) {
+          build.append("'").append(value.toString().replace("'", "''")).append("'");
+        } else {
+          build.append(value.toString());
+        }
+
+        count++;
       }
 
-      count++;
+      build.append(")");
+    } catch (IOException e) {
+      throw new InsertGeneratorException(e);
     }
 
-    build.append(")");
     valuesCount++;
     return this;
   }
 
+  /**
+   * Finishes the script and closes the underlying Writer or stream. This does nothing if the SQL is being built in
+   * memory.
+   */
+  @Override
+  public void close() {
+    if (writer != null) {
+      try {
+        writer.append(";\n");
+        writer.close();
+      } catch (IOException e) {
+        throw new InsertGeneratorException(e);
+      }
+    }
+  }
+
+  /**
+   * @return The SQL that has been built in memory.
+   * @throws IllegalStateException If the SQL is being streamed.
+   */
+  public String sql() {
+    if (writer != null) {
+      throw new IllegalStateException("The SQL was streamed and can't be returned as a String");
+    }
+
+    return build.toString() + ";\n";
+  }
+
+  /**
+   * @return The SQL if it is being built in memory or a description of the generator if the SQL is being streamed.
+   */
   public String toString() {
-    build.append(";\n");
-    return build.toString();
+    if (writer != null) {
+      return "InsertGenerator{streaming " + valuesCount + " rows for [" + insert + "]}";
+    }
+
+    return sql();
+  }
+
+  private void append(String str) {
+    try {
+      build.append(str);
+    } catch (IOException e) {
+      throw new InsertGeneratorException(e);
+    }
+  }
+
+  private static Writer writer(OutputStream outputStream, boolean gzip) {
+    try {
+      OutputStream os = gzip ? new GZIPOutputStream(outputStream, 64 * 1024) : outputStream;
+      return new BufferedWriter(new OutputStreamWriter(os, "UTF-8"), 64 * 1024);
+    } catch (IOException e) {
+      throw new InsertGeneratorException(e);
+    }
+  }
+
+  public static class InsertGeneratorException extends JDBCException {
+    public InsertGeneratorException(Throwable cause) {
+      super(cause);
+    }
   }
 }
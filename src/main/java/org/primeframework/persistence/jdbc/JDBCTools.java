@@ -19,7 +19,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 
 /**
- * This class is a toolkit that provides JDBC helper methods.
+ * This class is a toolkit that provides JDBC helper methods. Handlers that read many rows should use a {@link Row}
+ * (via {@link Select.RowMapper} or {@link Select.RowCallback}) instead, which doesn't box the values.
  *
  * @author Brian Pontarelli
  */
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import javax.sql.DataSource;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.primeframework.persistence.jdbc.Select.SelectHandler;
+
+import static java.util.Arrays.*;
+
+/**
+ * This class scans an entire table in parallel. It finds the minimum and maximum values of the key column, splits that
+ * range into segments and streams each segment on its own Connection from the DataSource. The key can be an integer
+ * column or a UUID column (native, 16 byte binary or String).
+ * <p/>
+ * The handler is called from multiple threads at the same time, so it must be thread-safe. Rows are only in key order
+ * within a segment.
+ *
+ * @author Brian Pontarelli
+ */
+public class ParallelScan {
+  private final DataSource dataSource;
+  private final String table;
+  private final String key;
+  private String columns = "*";
+  private String where;
+  private Object[] params = new Object[0];
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+  private int segments;
+  private int fetchSize = Select.DEFAULT_FETCH_SIZE;
+  private ScanListener listener;
+
+  public ParallelScan(DataSource dataSource, String table, String key) {
+    this.dataSource = dataSource;
+    this.table = table;
+    this.key = key;
+  }
+
+  /**
+   * @param columns The columns to select. This defaults to <code>*</code>.
+   * @return This scan.
+   */
+  public ParallelScan columns(String columns) {
+    this.columns = columns;
+    return this;
+  }
+
+  /**
+   * Restricts the scan to the rows that match the condition.
+   *
+   * @param condition The condition, which is added to the where clause of each query.
+   * @param params    The parameters of the condition.
+   * @return This scan.
+   */
+  public ParallelScan where(String condition, Object... params) {
+    this.where = condition;
+    this.params = params;
+    return this;
+  }
+
+  /**
+   * @param parallelism The maximum number of segments that are scanned at the same time, which is also the maximum
+   *                    number of Connections used. This defaults to the number of processors.
+   * @return This scan.
+   */
+  public ParallelScan parallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The parallelism must be greater than zero");
+    }
+
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * @param segments The number of segments the key range is split into. This defaults to the parallelism. More segments
+   *                 than threads evens out the work when the keys aren't evenly distributed.
+   * @return This scan.
+   */
+  public ParallelScan segments(int segments) {
+    if (segments < 1) {
+      throw new IllegalArgumentException("The number of segments must be greater than zero");
+    }
+
+    this.segments = segments;
+    return this;
+  }
+
+  public ParallelScan fetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+    return this;
+  }
+
+  public ParallelScan listener(ScanListener listener) {
+    this.listener = listener;
+    return this;
+  }
+
+  /**
+   * Performs the scan. This blocks until all of the segments are finished. As soon as any segment fails, the segments
+   * that haven't started yet are cancelled and the failure is thrown. Segments that are already running are left to
+   * finish on their own.
+   *
+   * @param handler The thread-safe handler that is called for each row.
+   * @return The total number of rows scanned.
+   * @throws ScanException If the range couldn't be determined or a segment failed.
+   */
+  public long go(final SelectHandler handler) throws ScanException {
+    String condition = where != null ? " where (" + where + ")" : "";
+    Object[] range = range(condition);
+    if (range == null) {
+      return 0;
+    }
+
+    final KeyType type = KeyType.of(range[0]);
+    BigInteger min = type.toBigInteger(range[0]);
+    BigInteger max = type.toBigInteger(range[1]);
+    BigInteger size = max.subtract(min).add(BigInteger.ONE);
+    int count = segments > 0 ? segments : parallelism;
+    if (size.compareTo(BigInteger.valueOf(count)) < 0) {
+      count = size.intValue();
+    }
+
+    String prefix = "select " + columns + " from " + table + (where != null ? condition + " and " : " where ") + key;
+    final String sql = prefix + " >= ? and " + key + " < ?";
+    final String lastSQL = prefix + " >= ? and " + key + " <= ?";
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, count));
+    CompletionService<Long> completion = new ExecutorCompletionService<Long>(executor);
+    List<Future<Long>> futures = new ArrayList<Future<Long>>();
+    try {
+      for (int i = 0; i < count; i++) {
+        final int segment = i;
+        final boolean last = i == count - 1;
+        final Object lower = type.fromBigInteger(min.add(size.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(count))));
+        final Object upper = type.fromBigInteger(last ? max :
+          min.add(size.multiply(BigInteger.valueOf(i + 1)).divide(BigInteger.valueOf(count))));
+        futures.add(completion.submit(new Callable<Long>() {
+          public Long call() throws Exception {
+            return scan(segment, last ? lastSQL : sql, lower, upper, handler);
+          }
+        }));
+      }
+
+      // Segments are taken as they finish so that a failure is seen right away rather than after the segments before it
+      long total = 0;
+      for (int i = 0; i < count; i++) {
+        total += completion.take().get();
+      }
+
+      return total;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ScanException("The scan was interrupted", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ScanException) {
+        throw (ScanException) cause;
+      }
+      throw new ScanException("A segment of the scan failed", cause);
+    } finally {
+      for (Future<Long> future : futures) {
+        future.cancel(false);
+      }
+      executor.shutdown();
+    }
+  }
+
+  private Object[] range(String condition) throws ScanException {
+    Connection c = null;
+    try {
+      c = dataSource.getConnection();
+      return new Select(c, "select min(" + key + "), max(" + key + ") from " + table + condition).with(params).
+        singleResult(new Select.RowHandler<Object[]>() {
+          public Object[] row(ResultSet rs) throws SQLException {
+            Object min = rs.getObject(1);
+            return min != null ? new Object[]{min, rs.getObject(2)} : null;
+          }
+        });
+    } catch (SQLException e) {
+      throw new ScanException(e);
+    } finally {
+      close(c);
+    }
+  }
+
+  private long scan(int segment, String sql, Object lower, Object upper, final SelectHandler handler)
+  throws SQLException {
+    if (listener != null) {
+      listener.started(segment, lower, upper);
+    }
+
+    final long[] rows = new long[1];
+    Connection c = dataSource.getConnection();
+    try {
+      Object[] values = copyOf(params, params.length + 2);
+      values[params.length] = lower;
+      values[params.length + 1] = upper;
+      new Select(c, sql).with(values).fetchSize(fetchSize).stream(new SelectHandler() {
+        public void row(ResultSet rs) throws SQLException {
+          handler.row(rs);
+          rows[0]++;
+        }
+
+        void handle(ResultSet rs, Row row) throws SQLException {
+          handler.handle(rs, row);
+          rows[0]++;
+        }
+
+        public void exception(SQLException e) {
+          handler.exception(e);
+        }
+      });
+    } finally {
+      close(c);
+    }
+
+    if (listener != null) {
+      listener.finished(segment, rows[0]);
+    }
+
+    return rows[0];
+  }
+
+  private void close(Connection c) {
+    if (c != null) {
+      try {
+        c.close();
+      } catch (SQLException e) {
+        // Ignore since the scan is done with the Connection
+      }
+    }
+  }
+
+  /**
+   * Receives the progress of each segment. The methods are called from the threads that scan the segments.
+   */
+  public static abstract class ScanListener {
+    public void started(int segment, Object lower, Object upper) {
+    }
+
+    public void finished(int segment, long rows) {
+    }
+  }
+
+  /**
+   * The representations of the key. Each one converts to and from an unsigned BigInteger so that the range can be
+   * split the same way for all of them.
+   */
+  private static enum KeyType {
+    NUMBER {
+      BigInteger toBigInteger(Object value) {
+        return BigInteger.valueOf(((Number) value).longValue());
+      }
+
+      Object fromBigInteger(BigInteger value) {
+        return value.longValue();
+      }
+    },
+    UUID {
+      BigInteger toBigInteger(Object value) {
+        return fromUUID((java.util.UUID) value);
+      }
+
+      Object fromBigInteger(BigInteger value) {
+        ByteBuffer buffer = ByteBuffer.wrap(toBytes(value));
+        return new java.util.UUID(buffer.getLong(), buffer.getLong());
+      }
+    },
+    BYTES {
+      BigInteger toBigInteger(Object value) {
+        return new BigInteger(1, (byte[]) value);
+      }
+
+      Object fromBigInteger(BigInteger value) {
+        return toBytes(value);
+      }
+    },
+    STRING {
+      BigInteger toBigInteger(Object value) {
+        return fromUUID(java.util.UUID.fromString((String) value));
+      }
+
+      Object fromBigInteger(BigInteger value) {
+        return UUID.fromBigInteger(value).toString();
+      }
+    };
+
+    abstract BigInteger toBigInteger(Object value);
+
+    abstract Object fromBigInteger(BigInteger value);
+
+    static KeyType of(Object value) throws ScanException {
+      if (value instanceof Number) {
+        return NUMBER;
+      } else if (value instanceof java.util.UUID) {
+        return UUID;
+      } else if (value instanceof byte[] && ((byte[]) value).length == 16) {
+        return BYTES;
+      } else if (value instanceof String) {
+        return STRING;
+      }
+
+      throw new ScanException("The key value [" + value + "] is not an integer or a UUID");
+    }
+
+    private static BigInteger fromUUID(java.util.UUID uuid) {
+      return new BigInteger(1, ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).
+        putLong(uuid.getLeastSignificantBits()).array());
+    }
+
+    private static byte[] toBytes(BigInteger value) {
+      byte[] bytes = value.toByteArray();
+      byte[] result = new byte[16];
+      int length = Math.min(bytes.length, 16);
+      System.arraycopy(bytes, bytes.length - length, result, 16 - length, length);
+      return result;
+    }
+  }
+
+  public static class ScanException extends JDBCException {
+    public ScanException() {
+      super();
+    }
+
+    public ScanException(String message) {
+      super(message);
+    }
+
+    public ScanException(String message, Throwable cause) {
+      super(message, cause);
+    }
+
+    public ScanException(Throwable cause) {
+      super(cause);
+    }
+  }
+}
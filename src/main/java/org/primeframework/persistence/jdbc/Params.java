@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+import org.primeframework.persistence.jdbc.convert.TypeConverter.Converters;
+
+/**
+ * This class is the parameter buffer for the builders. Each parameter is tagged with its kind so that ints and longs
+ * are stored without boxing and are bound with the typed setters on the statement. Everything else is stored as an
+ * Object, converted using the registered {@link org.primeframework.persistence.jdbc.convert.TypeConverter}s and bound
+ * using <code>setObject</code>.
+ *
+ * @author Brian Pontarelli
+ */
+final class Params {
+  private static final byte OBJECT = 0;
+  private static final byte INT = 1;
+  private static final byte LONG = 2;
+  private static final byte STRING = 3;
+  private static final byte NULL = 4;
+
+  private byte[] kinds;
+  private long[] longs;
+  private Object[] objects;
+  private int size;
+
+  Params() {
+    this(16);
+  }
+
+  private Params(int capacity) {
+    kinds = new byte[capacity];
+    longs = new long[capacity];
+    objects = new Object[capacity];
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  void clear() {
+    Arrays.fill(objects, 0, size, null);
+    size = 0;
+  }
+
+  void add(Object value) {
+    ensure(size + 1);
+    kinds[size] = OBJECT;
+    objects[size++] = value;
+  }
+
+  void addAll(Object[] values) {
+    ensure(size + values.length);
+    for (Object value : values) {
+      kinds[size] = OBJECT;
+      objects[size++] = value;
+    }
+  }
+
+  void addAll(Params other) {
+    ensure(size + other.size);
+    System.arraycopy(other.kinds, 0, kinds, size, other.size);
+    System.arraycopy(other.longs, 0, longs, size, other.size);
+    System.arraycopy(other.objects, 0, objects, size, other.size);
+    size += other.size;
+  }
+
+  void addInt(int value) {
+    ensure(size + 1);
+    kinds[size] = INT;
+    longs[size++] = value;
+  }
+
+  void addLong(long value) {
+    ensure(size + 1);
+    kinds[size] = LONG;
+    longs[size++] = value;
+  }
+
+  void addString(String value) {
+    ensure(size + 1);
+    kinds[size] = STRING;
+    objects[size++] = value;
+  }
+
+  void addNull(int sqlType) {
+    ensure(size + 1);
+    kinds[size] = NULL;
+    longs[size++] = sqlType;
+  }
+
+  /**
+   * Returns a parameter as an Object. This boxes ints and longs, so it is only for code that isn't on the hot path.
+   *
+   * @param index The index.
+   * @return The value.
+   */
+  Object get(int index) {
+    switch (kinds[index]) {
+      case INT:
+        return (int) longs[index];
+      case LONG:
+        return longs[index];
+      case NULL:
+        return null;
+      default:
+        return objects[index];
+    }
+  }
+
+  /**
+   * @return A copy of this buffer sized to fit.
+   */
+  Params copy() {
+    Params copy = new Params(Math.max(size, 1));
+    System.arraycopy(kinds, 0, copy.kinds, 0, size);
+    System.arraycopy(longs, 0, copy.longs, 0, size);
+    System.arraycopy(objects, 0, copy.objects, 0, size);
+    copy.size = size;
+    return copy;
+  }
+
+  /**
+   * Binds a range of the parameters to the statement starting at the first parameter of the statement.
+   *
+   * @param ps            The statement.
+   * @param start         The index of the first parameter to bind (inclusive).
+   * @param end           The index of the last parameter to bind (exclusive).
+   * @param setNullParams Whether or not untyped null values are bound. If this is false, they are skipped.
+   * @throws SQLException If a parameter couldn't be bound.
+   */
+  void bind(PreparedStatement ps, int start, int end, boolean setNullParams) throws SQLException {
+    for (int i = start; i < end; i++) {
+      int index = i - start + 1;
+      switch (kinds[i]) {
+        case INT:
+          ps.setInt(index, (int) longs[i]);
+          break;
+        case LONG:
+          ps.setLong(index, longs[i]);
+          break;
+        case STRING:
+          if (objects[i] == null) {
+            ps.setNull(index, Types.VARCHAR);
+          } else {
+            ps.setString(index, (String) objects[i]);
+          }
+          break;
+        case NULL:
+          ps.setNull(index, (int) longs[i]);
+          break;
+        default:
+          Object value = Converters.toSQL(objects[i]);
+          if (value != null || setNullParams) {
+            ps.setObject(index, value);
+          }
+      }
+    }
+  }
+
+  /**
+   * Estimates the number of bytes that a range of parameters adds to a statement. Strings are counted at two bytes per
+   * character to leave room for multi-byte characters and escaping.
+   *
+   * @param start The index of the first parameter.
+   * @param count The number of parameters.
+   * @return The estimate.
+   */
+  int estimate(int start, int count) {
+    int bytes = 0;
+    for (int i = start; i < start + count; i++) {
+      Object param = objects[i];
+      if (kinds[i] == INT || kinds[i] == LONG) {
+        bytes += 8;
+      } else if (param == null) {
+        bytes += 4;
+      } else if (param instanceof CharSequence) {
+        bytes += ((CharSequence) param).length() * 2 + 2;
+      } else if (param instanceof byte[]) {
+        bytes += ((byte[]) param).length * 2 + 3;
+      } else {
+        bytes += 24;
+      }
+    }
+
+    return bytes;
+  }
+
+  private void ensure(int capacity) {
+    if (capacity > kinds.length) {
+      int length = Math.max(capacity, kinds.length * 2);
+      kinds = Arrays.copyOf(kinds, length);
+      longs = Arrays.copyOf(longs, length);
+      objects = Arrays.copyOf(objects, length);
+    }
+  }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.primeframework.persistence.jdbc.Select.RowHandler;
+import org.primeframework.persistence.jdbc.Select.SelectException;
+import org.primeframework.persistence.jdbc.Select.SelectHandler;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
+
+/**
+ * This class runs a number of independent selects in a single roundtrip to the database. The selects are joined into
+ * a single multi-statement PreparedStatement and each ResultSet is handed to the handler of its select:
+ * <p/>
+ * <pre>
+ * Pipeline pipeline = new Pipeline(c);
+ * Pipeline.Result&lt;User> user = pipeline.singleResult(new Select(c, "select * from users where id = ?").with(id), Select.as(User.class));
+ * Pipeline.Result&lt;List&lt;Order>> orders = pipeline.multipleResults(new Select(c, "select * from orders where user_id = ?").with(id), Select.as(Order.class));
+ * pipeline.go();
+ * </pre>
+ * <p/>
+ * PostgreSQL always supports this and the driver sends all of the selects before waiting for any results. MySQL only
+ * supports it if the Connection was opened with <code>allowMultiQueries=true</code>. For any other database (or if the
+ * database type isn't known), the selects are run one at a time on the same Connection unless
+ * {@link #multiStatement(boolean)} turns the pipeline on.
+ * <p/>
+ * Every select must be created with the Connection of the pipeline, since the combined statement and any temp tables
+ * of the selects' in-clauses are created on that Connection.
+ *
+ * @author Brian Pontarelli
+ */
+public class Pipeline {
+  private final Connection c;
+  private final List<Select> selects = new ArrayList<Select>();
+  private final List<SelectHandler> handlers = new ArrayList<SelectHandler>();
+  private final List<Result<?>> results = new ArrayList<Result<?>>();
+  private Boolean multiStatement;
+
+  public Pipeline(Connection c) {
+    this.c = c;
+  }
+
+  /**
+   * Sets whether or not the selects are sent as a single multi-statement request. If this isn't set, only PostgreSQL
+   * and MySQL with <code>allowMultiQueries=true</code> in the JDBC URL are pipelined.
+   *
+   * @param multiStatement True to send the selects together, false to run them one at a time.
+   * @return This pipeline.
+   */
+  public Pipeline multiStatement(boolean multiStatement) {
+    this.multiStatement = multiStatement;
+    return this;
+  }
+
+  /**
+   * Adds a select whose rows are handed to the given handler.
+   *
+   * @param select  The select.
+   * @param handler The handler.
+   * @return This pipeline.
+   * @throws SelectException If the select doesn't use the Connection of the pipeline.
+   */
+  public Pipeline add(Select select, SelectHandler handler) {
+    return add(select, handler, null);
+  }
+
+  /**
+   * Adds a select whose rows are collected into a list, like {@link Select#multipleResults(RowHandler)}.
+   *
+   * @param select  The select.
+   * @param handler The handler.
+   * @return The result, which is available once the pipeline has been run.
+   */
+  public <T> Result<List<T>> multipleResults(Select select, final RowHandler<T> handler) {
+    final Result<List<T>> result = new Result<List<T>>();
+    final List<T> list = new ArrayList<T>();
+    result.pending = list;
+    add(select, new SelectHandler() {
+      public void row(ResultSet rs) throws SQLException {
+        handle(rs, new Row(rs));
+      }
+
+      void handle(ResultSet rs, Row row) throws SQLException {
+        T t = handler.handle(rs, row);
+        if (t != null) {
+          list.add(t);
+        }
+      }
+
+      public void exception(SQLException e) {
+        result.exception = e;
+        handler.exception(e);
+      }
+    }, result);
+    return result;
+  }
+
+  /**
+   * Adds a select whose first row is the result, like {@link Select#singleResult(RowHandler)}.
+   *
+   * @param select  The select.
+   * @param handler The handler.
+   * @return The result, which is available once the pipeline has been run.
+   */
+  public <T> Result<T> singleResult(Select select, final RowHandler<T> handler) {
+    final Result<T> result = new Result<T>();
+    add(select, new SelectHandler() {
+      private boolean first = true;
+
+      public void row(ResultSet rs) throws SQLException {
+        handle(rs, new Row(rs));
+      }
+
+      void handle(ResultSet rs, Row row) throws SQLException {
+        if (first) {
+          result.pending = handler.handle(rs, row);
+          first = false;
+        }
+      }
+
+      public void exception(SQLException e) {
+        result.exception = e;
+        handler.exception(e);
+      }
+    }, result);
+    return result;
+  }
+
+  /**
+   * Runs all of the selects.
+   */
+  public void go() {
+    try {
+      if (selects.size() > 1 && multiStatement()) {
+        pipelined();
+      } else {
+        for (int i = 0; i < selects.size(); i++) {
+          selects.get(i).go(handlers.get(i));
+          read(i);
+        }
+      }
+    } finally {
+      for (Result<?> result : results) {
+        if (result != null) {
+          result.done = true;
+        }
+      }
+    }
+  }
+
+  private Pipeline add(Select select, SelectHandler handler, Result<?> result) {
+    if (select.c != c) {
+      throw new SelectException("The select must use the same Connection as the pipeline");
+    }
+
+    selects.add(select);
+    handlers.add(handler);
+    results.add(result);
+    return this;
+  }
+
+  /**
+   * Marks the result of the select at the given index as read, unless the select failed.
+   *
+   * @param index The index of the select.
+   */
+  private void read(int index) {
+    Result<?> result = results.get(index);
+    if (result != null && result.exception == null) {
+      result.read();
+    }
+  }
+
+  private void pipelined() {
+    // The combined statement is run by its own operation so that it has its own parameters and timing
+    Execute op = new Execute(c);
+    StringBuilder sql = new StringBuilder();
+    Params params = op.params();
+    for (int i = 0; i < selects.size(); i++) {
+      String select = selects.get(i).sql().trim();
+      if (select.endsWith(";")) {
+        select = select.substring(0, select.length() - 1);
+      }
+
+      if (i > 0) {
+        sql.append("; ");
+      }
+
+      sql.append(select);
+      params.addAll(selects.get(i).params());
+    }
+
+    PreparedStatement ps = null;
+    int current = 0;
+    try {
+      for (Select select : selects) {
+        select.createTempTables();
+      }
+
+      ps = op.prepare(sql.toString());
+      op.setParams(ps);
+
+      boolean hasResults = op.execute(ps);
+      for (; current < selects.size(); current++) {
+        if (current > 0) {
+          hasResults = ps.getMoreResults();
+        }
+
+        if (!hasResults) {
+          throw new SQLException("Statement [" + (current + 1) + "] of the pipeline didn't return a ResultSet");
+        }
+
+        ResultSet rs = ps.getResultSet();
+        Row row = new Row(rs);
+        SelectHandler handler = handlers.get(current);
+        while (op.nextRow(rs)) {
+          handler.handle(rs, row);
+        }
+
+        read(current);
+      }
+    } catch (SQLException e) {
+      // The failed select and all of the selects after it never finished, so they all get the exception. The results
+      // are failed first in case one of the handlers throws
+      for (int i = current; i < results.size(); i++) {
+        if (results.get(i) != null) {
+          results.get(i).exception = e;
+        }
+      }
+
+      for (int i = current; i < handlers.size(); i++) {
+        handlers.get(i).exception(e);
+      }
+    } finally {
+      op.close(ps);
+
+      // Drops any temp tables that the selects created for their in-clauses
+      for (Select select : selects) {
+        select.close(null);
+      }
+    }
+  }
+
+  private boolean multiStatement() {
+    if (multiStatement != null) {
+      return multiStatement;
+    }
+
+    if (DatabaseType.database == Database.POSTGRESQL) {
+      return true;
+    }
+
+    if (DatabaseType.database != Database.MYSQL) {
+      return false;
+    }
+
+    try {
+      String url = c.getMetaData().getURL();
+      return url != null && url.toLowerCase().contains("allowmultiqueries=true");
+    } catch (SQLException e) {
+      throw new SelectException(e);
+    }
+  }
+
+  /**
+   * The result of a select in the pipeline.
+   *
+   * @param <T> The type of the result.
+   */
+  public static class Result<T> {
+    private T pending;
+    private T value;
+    private boolean read;
+    private boolean done;
+    private SQLException exception;
+
+    /**
+     * @return The result.
+     * @throws IllegalStateException If the pipeline hasn't been run yet or the select never finished.
+     * @throws SelectException       If the select, or an earlier select in the same roundtrip, failed.
+     */
+    public T get() {
+      if (!done) {
+        throw new IllegalStateException("The pipeline hasn't been run yet");
+      }
+
+      if (exception != null) {
+        throw new SelectException(exception);
+      }
+
+      if (!read) {
+        throw new IllegalStateException("The select never finished because the pipeline failed");
+      }
+
+      return value;
+    }
+
+    private void read() {
+      value = pending;
+      read = true;
+    }
+  }
+}
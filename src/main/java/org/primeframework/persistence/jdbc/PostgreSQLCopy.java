@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * This class streams rows to PostgreSQL using <code>COPY ... FROM STDIN</code> in the text format. Rows are encoded
+ * into a buffer that is written to the server each time it fills up, so memory stays flat regardless of the number of
+ * rows.
+ * <p/>
+ * This is the only class that uses the PostgreSQL driver directly and it is only loaded when the database is
+ * PostgreSQL.
+ *
+ * @author Brian Pontarelli
+ */
+class PostgreSQLCopy {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final CopyIn copyIn;
+  private final StringBuilder build = new StringBuilder(BUFFER_SIZE + 1024);
+
+  private PostgreSQLCopy(CopyIn copyIn) {
+    this.copyIn = copyIn;
+  }
+
+  /**
+   * Starts the COPY.
+   *
+   * @param c       The Connection, which must be or wrap a PostgreSQL connection.
+   * @param table   The table.
+   * @param columns The comma separated list of columns.
+   * @return The copy.
+   * @throws SQLException If the COPY couldn't be started.
+   */
+  static PostgreSQLCopy start(Connection c, String table, String columns) throws SQLException {
+    PGConnection pg = c instanceof PGConnection ? (PGConnection) c : c.unwrap(PGConnection.class);
+    return new PostgreSQLCopy(pg.getCopyAPI().copyIn("COPY " + table + " (" + columns + ") FROM STDIN"));
+  }
+
+  /**
+   * Adds a row to the COPY.
+   *
+   * @param values The values of the row, which must already be converted to SQL values.
+   * @throws SQLException If the buffer couldn't be written to the server.
+   */
+  void row(Object[] values) throws SQLException {
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        build.append('\t');
+      }
+
+      append(build, values[i]);
+    }
+
+    build.append('\n');
+    if (build.length() >= BUFFER_SIZE) {
+      flush();
+    }
+  }
+
+  /**
+   * Writes the rest of the buffer and ends the COPY.
+   *
+   * @return The number of rows copied.
+   * @throws SQLException If the COPY failed.
+   */
+  long end() throws SQLException {
+    flush();
+    return copyIn.endCopy();
+  }
+
+  /**
+   * Cancels the COPY after a failure. This never throws so that the original failure isn't hidden.
+   */
+  void cancel() {
+    try {
+      if (copyIn.isActive()) {
+        copyIn.cancelCopy();
+      }
+    } catch (SQLException e) {
+      // Nothing we can do, the original exception is more important
+    }
+  }
+
+  private void flush() throws SQLException {
+    if (build.length() > 0) {
+      byte[] bytes = build.toString().getBytes(UTF8);
+      copyIn.writeToCopy(bytes, 0, bytes.length);
+      build.setLength(0);
+    }
+  }
+
+  /**
+   * Appends a single value in the COPY text format. Nulls are written as \N and backslashes, tabs, newlines and
+   * carriage returns are escaped.
+   *
+   * @param build The buffer.
+   * @param value The value.
+   */
+  static void append(StringBuilder build, Object value) {
+    if (value == null) {
+      build.append("\\N");
+    } else if (value instanceof Boolean) {
+      build.append((Boolean) value ? 't' : 'f');
+    } else if (value instanceof Number) {
+      build.append(value.toString());
+    } else if (value instanceof byte[]) {
+      byte[] bytes = (byte[]) value;
+      build.append("\\\\x");
+      for (byte b : bytes) {
+        build.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+      }
+    } else {
+      // java.util.Date's toString isn't a format that PostgreSQL can parse, but the JDBC sub-classes are fine
+      String str = value.getClass() == Date.class ? new Timestamp(((Date) value).getTime()).toString() : value.toString();
+      for (int i = 0; i < str.length(); i++) {
+        char c = str.charAt(i);
+        switch (c) {
+          case '\\':
+            build.append("\\\\");
+            break;
+          case '\t':
+            build.append("\\t");
+            break;
+          case '\n':
+            build.append("\\n");
+            break;
+          case '\r':
+            build.append("\\r");
+            break;
+          default:
+            build.append(c);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.sql.Connection;
+
+/**
+ * This class is an immutable, compiled SQL statement. The SQL is built once and the number of parameters is counted
+ * when the query is compiled, so queries are usually stored in static fields and shared between threads:
+ * <p/>
+ * <pre>
+ * private static final Query FIND = Query.compile("select name from users where id = ?");
+ *
+ * String name = FIND.select(c, id).singleResult(handler);
+ * </pre>
+ * <p/>
+ * Each execution creates a new builder that uses the compiled SQL as is, so there is no string building. The builder
+ * can still be changed (for example, by adding an in-clause), in which case the SQL is copied first.
+ *
+ * @author Brian Pontarelli
+ */
+public final class Query {
+  public final String sql;
+  public final int parameters;
+
+  private Query(String sql, int parameters) {
+    this.sql = sql;
+    this.parameters = parameters;
+  }
+
+  /**
+   * Compiles the SQL.
+   *
+   * @param sql The SQL.
+   * @return The query.
+   */
+  public static Query compile(String sql) {
+    if (sql == null || sql.trim().length() == 0) {
+      throw new IllegalArgumentException("The SQL is required");
+    }
+
+    return new Query(sql, count(sql));
+  }
+
+  /**
+   * Creates a select for this query on the given Connection.
+   *
+   * @param c      The Connection.
+   * @param params The parameters. If there are any, there must be one for each parameter in the query. Otherwise, the
+   *               parameters can be added to the select builder.
+   * @return The select builder.
+   */
+  public Select select(Connection c, Object... params) {
+    check(params);
+    return new Select(c, this).add(params);
+  }
+
+  /**
+   * Creates an update for this query on the given Connection. This is used for any statement that returns an update
+   * count, including deletes.
+   *
+   * @param c      The Connection.
+   * @param params The parameters. If there are any, there must be one for each parameter in the query. Otherwise, the
+   *               parameters can be added to the update builder.
+   * @return The update builder.
+   */
+  public Update update(Connection c, Object... params) {
+    check(params);
+    return new Update(c, this).add(params);
+  }
+
+  public String toString() {
+    return sql;
+  }
+
+  private void check(Object[] params) {
+    if (params.length > 0 && params.length != parameters) {
+      throw new IllegalArgumentException("The query [" + sql + "] takes [" + parameters + "] parameters but [" +
+        params.length + "] were given");
+    }
+  }
+
+  /**
+   * Counts the parameters in the SQL, skipping anything in quotes or comments.
+   */
+  private static int count(String sql) {
+    int count = 0;
+    char quote = 0;
+    for (int i = 0; i < sql.length(); i++) {
+      char ch = sql.charAt(i);
+      if (quote != 0) {
+        if (ch == quote) {
+          quote = 0;
+        }
+      } else if (ch == '\'' || ch == '"' || ch == '`') {
+        quote = ch;
+      } else if (ch == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-') {
+        int end = sql.indexOf('\n', i);
+        i = end == -1 ? sql.length() : end;
+      } else if (ch == '/' && i + 1 < sql.length() && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end == -1 ? sql.length() : end + 1;
+      } else if (ch == '?') {
+        count++;
+      }
+    }
+
+    return count;
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class is a view of the current row of a ResultSet that is handed to {@link Select.RowMapper}s and {@link
+ * Select.RowCallback}s. The select creates one for each ResultSet it reads and reuses it for every row, so it must not
+ * be kept.
+ * <p/>
+ * Columns can be read by label or by index. Labels are resolved to indexes using the ResultSet meta data the first
+ * time each label is used, and after that a label costs a single hash lookup rather than the case-insensitive search
+ * that most drivers do on every call. Labels are case-insensitive and if more than one column has the same label,
+ * the first one wins, like {@link ResultSet#findColumn(String)}.
+ * <p/>
+ * The primitive getters don't box. Nulls are read as zero or false unless the <code>OrNull</code> getters or the
+ * getters that take a value for null are used.
+ *
+ * @author Brian Pontarelli
+ */
+public final class Row {
+  private final ResultSet rs;
+  private Map<String, Integer> labels;
+  private Map<String, Integer> columns;
+
+  Row(ResultSet rs) {
+    this.rs = rs;
+  }
+
+  /**
+   * @return The ResultSet, for anything that this class doesn't handle.
+   */
+  public ResultSet resultSet() {
+    return rs;
+  }
+
+  /**
+   * Determines the index of the column with the given label.
+   *
+   * @param label The column label.
+   * @return The index.
+   * @throws SQLException If there isn't a column with the label.
+   */
+  public int index(String label) throws SQLException {
+    if (labels == null) {
+      labels = new HashMap<String, Integer>();
+    }
+
+    Integer index = labels.get(label);
+    if (index == null) {
+      index = resolve(label);
+      labels.put(label, index);
+    }
+
+    return index;
+  }
+
+  public boolean wasNull() throws SQLException {
+    return rs.wasNull();
+  }
+
+  /**
+   * Determines if the column is null. This reads the column, so it is better to use one of the <code>OrNull</code>
+   * getters or {@link #wasNull()} if the value is needed as well.
+   *
+   * @param column The index of the column.
+   * @return True if the column is null.
+   * @throws SQLException If the column couldn't be read.
+   */
+  public boolean isNull(int column) throws SQLException {
+    return rs.getObject(column) == null;
+  }
+
+  public boolean isNull(String label) throws SQLException {
+    return isNull(index(label));
+  }
+
+  public int getInt(int column) throws SQLException {
+    return rs.getInt(column);
+  }
+
+  public int getInt(String label) throws SQLException {
+    return rs.getInt(index(label));
+  }
+
+  /**
+   * @param column The index of the column.
+   * @param ifNull The value to return if the column is null.
+   * @return The value.
+   * @throws SQLException If the column couldn't be read.
+   */
+  public int getInt(int column, int ifNull) throws SQLException {
+    int value = rs.getInt(column);
+    return rs.wasNull() ? ifNull : value;
+  }
+
+  public int getInt(String label, int ifNull) throws SQLException {
+    return getInt(index(label), ifNull);
+  }
+
+  public Integer getIntOrNull(int column) throws SQLException {
+    int value = rs.getInt(column);
+    return rs.wasNull() ? null : value;
+  }
+
+  public Integer getIntOrNull(String label) throws SQLException {
+    return getIntOrNull(index(label));
+  }
+
+  public long getLong(int column) throws SQLException {
+    return rs.getLong(column);
+  }
+
+  public long getLong(String label) throws SQLException {
+    return rs.getLong(index(label));
+  }
+
+  public long getLong(int column, long ifNull) throws SQLException {
+    long value = rs.getLong(column);
+    return rs.wasNull() ? ifNull : value;
+  }
+
+  public long getLong(String label, long ifNull) throws SQLException {
+    return getLong(index(label), ifNull);
+  }
+
+  public Long getLongOrNull(int column) throws SQLException {
+    long value = rs.getLong(column);
+    return rs.wasNull() ? null : value;
+  }
+
+  public Long getLongOrNull(String label) throws SQLException {
+    return getLongOrNull(index(label));
+  }
+
+  public double getDouble(int column) throws SQLException {
+    return rs.getDouble(column);
+  }
+
+  public double getDouble(String label) throws SQLException {
+    return rs.getDouble(index(label));
+  }
+
+  public Double getDoubleOrNull(int column) throws SQLException {
+    double value = rs.getDouble(column);
+    return rs.wasNull() ? null : value;
+  }
+
+  public Double getDoubleOrNull(String label) throws SQLException {
+    return getDoubleOrNull(index(label));
+  }
+
+  public boolean getBoolean(int column) throws SQLException {
+    return rs.getBoolean(column);
+  }
+
+  public boolean getBoolean(String label) throws SQLException {
+    return rs.getBoolean(index(label));
+  }
+
+  public Boolean getBooleanOrNull(int column) throws SQLException {
+    boolean value = rs.getBoolean(column);
+    return rs.wasNull() ? null : value;
+  }
+
+  public Boolean getBooleanOrNull(String label) throws SQLException {
+    return getBooleanOrNull(index(label));
+  }
+
+  public String getString(int column) throws SQLException {
+    return rs.getString(column);
+  }
+
+  public String getString(String label) throws SQLException {
+    return rs.getString(index(label));
+  }
+
+  public BigDecimal getBigDecimal(int column) throws SQLException {
+    return rs.getBigDecimal(column);
+  }
+
+  public BigDecimal getBigDecimal(String label) throws SQLException {
+    return rs.getBigDecimal(index(label));
+  }
+
+  public Timestamp getTimestamp(int column) throws SQLException {
+    return rs.getTimestamp(column);
+  }
+
+  public Timestamp getTimestamp(String label) throws SQLException {
+    return rs.getTimestamp(index(label));
+  }
+
+  public byte[] getBytes(int column) throws SQLException {
+    return rs.getBytes(column);
+  }
+
+  public byte[] getBytes(String label) throws SQLException {
+    return rs.getBytes(index(label));
+  }
+
+  public Object getObject(int column) throws SQLException {
+    return rs.getObject(column);
+  }
+
+  public Object getObject(String label) throws SQLException {
+    return rs.getObject(index(label));
+  }
+
+  private int resolve(String label) throws SQLException {
+    if (columns == null) {
+      ResultSetMetaData md = rs.getMetaData();
+      int count = md.getColumnCount();
+      columns = new HashMap<String, Integer>(count * 2);
+      for (int i = count; i >= 1; i--) {
+        // Backwards so that the first column with a label wins
+        columns.put(md.getColumnLabel(i).toLowerCase(), i);
+      }
+    }
+
+    Integer index = columns.get(label.toLowerCase());
+    if (index == null) {
+      throw new SQLException("The ResultSet doesn't have a column with the label [" + label + "]");
+    }
+
+    return index;
+  }
+}
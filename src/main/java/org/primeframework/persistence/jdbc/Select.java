@@ -15,12 +15,23 @@
  */
 package org.primeframework.persistence.jdbc;
 
+import java.io.Closeable;
+import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import org.primeframework.persistence.jdbc.convert.TypeConverter;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
 
 /**
  * This class is a builder for selecting.
@@ -28,79 +39,133 @@ import java.util.List;
  * @author Brian Pontarelli
  */
 public class Select extends BaseOperation<Select> {
-  private final Connection c;
+  public static final int DEFAULT_FETCH_SIZE = 1000;
+
   private StringBuilder sql = new StringBuilder();
-  private boolean in;
-  private boolean firstIn;
+  private String compiled;
+  private InList inList;
+  private InList.Strategy inStrategy;
+  private int inTempTableThreshold;
+  private int fetchSize = DEFAULT_FETCH_SIZE;
 
   public Select(Connection c) {
-    super(false);
-    this.c = c;
+    super(c, true);
   }
 
   public Select(Connection c, String sql) {
-    super(false);
+    super(c, true);
     this.sql.append(sql);
-    this.c = c;
+  }
+
+  Select(Connection c, Query query) {
+    super(c, true);
+    this.compiled = query.sql;
   }
 
   public Select in(String sql) {
+    this.compiled = null;
     this.sql = new StringBuilder();
     this.sql.append(sql);
     return this;
   }
 
+  /**
+   * Sets how in-clauses are written out. See {@link InList} for the strategies. If this isn't set, the {@link
+   * InList#defaultStrategy(InList.Strategy) default strategy} is used, which gives each value its own parameter unless
+   * it was changed.
+   *
+   * @param strategy The strategy.
+   * @return This select builder.
+   */
+  public Select inStrategy(InList.Strategy strategy) {
+    this.inStrategy = strategy;
+    return this;
+  }
+
+  /**
+   * Sets the number of values past which an in-clause is loaded into a temp table rather than passed as parameters.
+   *
+   * @param threshold The threshold or 0 (the default) to never use a temp table.
+   * @return This select builder.
+   */
+  public Select inTempTableThreshold(int threshold) {
+    this.inTempTableThreshold = threshold;
+    return this;
+  }
+
   public Select startIn() {
-    this.sql.append(" in (");
-    this.in = true;
-    this.firstIn = true;
+    this.inList = new InList();
     return this;
   }
 
   public Select endIn() {
-    this.sql.append(")");
-    this.in = true;
-    this.firstIn = true;
+    if (inList == null) {
+      throw new SelectException("You must startIn before ending the in-clause");
+    }
+
+    thaw();
+    try {
+      inList.build(sql, this, inStrategy, inTempTableThreshold);
+    } catch (SQLException e) {
+      throw new SelectException(e);
+    } finally {
+      inList = null;
+    }
+
     return this;
   }
 
   /**
-   * Adds a parameter to an in block in the where clause.
+   * Adds a parameter to an in block in the where clause. The SQL for the in block is written out by {@link #endIn()}.
    *
    * @param params The value parameters.
    * @return This select builder.
    */
   public Select addToIn(Object... params) {
-    if (!in) {
+    if (inList == null) {
       throw new SelectException("You must startIn before adding parameters to the in-clause");
     }
 
-    if (!firstIn) {
-      this.sql.append(",");
-    } else {
-      firstIn = false;
-    }
+    inList.add(params);
+    return this;
+  }
 
-    for (int i = 0; i < params.length; i++) {
-      if (i > 0) {
-        sql.append(",");
-      }
-      sql.append("?");
-      add(params[i]);
-    }
+  /**
+   * Creates a RowHandler that maps the columns of each row onto the public fields of a new instance of the given class.
+   * This uses the same JPA annotation and de-camel-case rules as {@link Insert#into(Class)}. Columns that aren't mapped
+   * to a field are ignored. The class must have a no-argument constructor.
+   *
+   * @param type The class.
+   * @param <T>  The type.
+   * @return The RowHandler, which can be used with any of the select methods.
+   */
+  public static <T> ObjectRowHandler<T> as(Class<T> type) {
+    return new ObjectRowHandler<T>(type);
+  }
 
+  /**
+   * Sets the number of rows that are fetched from the database at a time when streaming results via the {@link
+   * #stream(SelectHandler)} and {@link #cursor(RowHandler)} methods. This is ignored for MySQL, which can only stream
+   * rows one at a time.
+   *
+   * @param fetchSize The fetch size.
+   * @return This select builder.
+   */
+  public Select fetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
     return this;
   }
 
   public void go(SelectHandler handler) {
     PreparedStatement ps = null;
     try {
-      ps = c.prepareStatement(sql.toString());
+      ps = prepare(sql());
       setParams(ps);
 
-      ResultSet rs = ps.executeQuery();
-      while (rs.next()) {
-        handler.row(rs);
+      ResultSet rs = executeQuery(ps);
+      Row row = new Row(rs);
+      while (nextRow(rs)) {
+        handler.handle(rs, row);
       }
     } catch (SQLException e) {
       handler.exception(e);
@@ -109,16 +174,74 @@ public class Select extends BaseOperation<Select> {
     }
   }
 
+  /**
+   * Performs the select and streams the rows to the given handler without buffering the entire result set in memory.
+   * This sets up the fetch size and auto-commit state that the current {@link DatabaseType#database} requires to
+   * stream results and restores the auto-commit state when the select is finished.
+   * <p/>
+   * For MySQL, no other statements can be executed on the Connection while the rows are being streamed.
+   *
+   * @param handler The handler that is called for each row.
+   */
+  public void stream(SelectHandler handler) {
+    boolean autoCommitChanged = false;
+    PreparedStatement ps = null;
+    try {
+      autoCommitChanged = startStreaming();
+      ps = prepareStreaming();
+      setParams(ps);
+
+      ResultSet rs = executeQuery(ps);
+      Row row = new Row(rs);
+      while (nextRow(rs)) {
+        handler.handle(rs, row);
+      }
+    } catch (SQLException e) {
+      handler.exception(e);
+    } finally {
+      close(ps);
+      endStreaming(autoCommitChanged);
+    }
+  }
+
+  /**
+   * Performs the select and returns a cursor over the results that converts each row using the given handler. The rows
+   * are streamed from the database in the same manner as the {@link #stream(SelectHandler)} method. The cursor closes
+   * itself once the last row has been read, but it must be closed by the caller if it isn't fully iterated over.
+   *
+   * @param handler The handler that converts each row.
+   * @param <T>     The type of objects returned by the cursor.
+   * @return The cursor.
+   */
+  public <T> Cursor<T> cursor(RowHandler<T> handler) {
+    boolean autoCommitChanged = false;
+    PreparedStatement ps = null;
+    try {
+      autoCommitChanged = startStreaming();
+      ps = prepareStreaming();
+      setParams(ps);
+
+      ResultSet rs = executeQuery(ps);
+      return new Cursor<T>(ps, rs, handler, autoCommitChanged);
+    } catch (SQLException e) {
+      close(ps);
+      endStreaming(autoCommitChanged);
+      handler.exception(e);
+      return null;
+    }
+  }
+
   public <T> List<T> multipleResults(RowHandler<T> handler) {
     List<T> list = new ArrayList<T>();
     PreparedStatement ps = null;
     try {
-      ps = c.prepareStatement(sql.toString());
+      ps = prepare(sql());
       setParams(ps);
 
-      ResultSet rs = ps.executeQuery();
-      while (rs.next()) {
-        T t = handler.row(rs);
+      ResultSet rs = executeQuery(ps);
+      Row row = new Row(rs);
+      while (nextRow(rs)) {
+        T t = handler.handle(rs, row);
         if (t != null) {
           list.add(t);
         }
@@ -136,12 +259,12 @@ public class Select extends BaseOperation<Select> {
   public <T> T singleResult(RowHandler<T> handler) {
     PreparedStatement ps = null;
     try {
-      ps = c.prepareStatement(sql.toString());
+      ps = prepare(sql());
       setParams(ps);
 
-      ResultSet rs = ps.executeQuery();
-      if (rs.next()) {
-        return handler.row(rs);
+      ResultSet rs = executeQuery(ps);
+      if (nextRow(rs)) {
+        return handler.handle(rs, new Row(rs));
       }
 
       return null;
@@ -156,11 +279,11 @@ public class Select extends BaseOperation<Select> {
   public Integer id() {
     PreparedStatement ps = null;
     try {
-      ps = c.prepareStatement(sql.toString());
+      ps = prepare(sql());
       setParams(ps);
 
-      ResultSet rs = ps.executeQuery();
-      if (rs.next()) {
+      ResultSet rs = executeQuery(ps);
+      if (nextRow(rs)) {
         return rs.getInt(1);
       }
 
@@ -172,13 +295,295 @@ public class Select extends BaseOperation<Select> {
     }
   }
 
-  public int count() {
-    return id();
+  /**
+   * Executes a count query and returns the value of the first column of the first row.
+   *
+   * @return The count or 0 if the query returned no rows.
+   * @throws SelectException If the select fails.
+   */
+  public long count() {
+    PreparedStatement ps = null;
+    try {
+      ps = prepare(sql());
+      setParams(ps);
+
+      ResultSet rs = executeQuery(ps);
+      if (nextRow(rs)) {
+        return rs.getLong(1);
+      }
+
+      return 0;
+    } catch (SQLException e) {
+      throw new SelectException(e);
+    } finally {
+      close(ps);
+    }
+  }
+
+  /**
+   * Reads the first column of every row into an int array without boxing. Null values are skipped.
+   *
+   * @return The values.
+   * @throws SelectException If the select fails.
+   */
+  public int[] ints() {
+    PreparedStatement ps = null;
+    try {
+      ps = prepare(sql());
+      setParams(ps);
+
+      ResultSet rs = executeQuery(ps);
+      int[] values = new int[64];
+      int size = 0;
+      while (nextRow(rs)) {
+        int value = rs.getInt(1);
+        if (rs.wasNull()) {
+          continue;
+        }
+
+        if (size == values.length) {
+          values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+      }
+
+      return Arrays.copyOf(values, size);
+    } catch (SQLException e) {
+      throw new SelectException(e);
+    } finally {
+      close(ps);
+    }
+  }
+
+  /**
+   * Reads the first column of every row into a long array without boxing. Null values are skipped.
+   *
+   * @return The values.
+   * @throws SelectException If the select fails.
+   */
+  public long[] longs() {
+    PreparedStatement ps = null;
+    try {
+      ps = prepare(sql());
+      setParams(ps);
+
+      ResultSet rs = executeQuery(ps);
+      long[] values = new long[64];
+      int size = 0;
+      while (nextRow(rs)) {
+        long value = rs.getLong(1);
+        if (rs.wasNull()) {
+          continue;
+        }
+
+        if (size == values.length) {
+          values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+      }
+
+      return Arrays.copyOf(values, size);
+    } catch (SQLException e) {
+      throw new SelectException(e);
+    } finally {
+      close(ps);
+    }
+  }
+
+  /**
+   * Reads the UUIDs in the first column of every row into a long array without creating a UUID object for each row.
+   * Each UUID takes two elements, the most significant bits followed by the least significant bits, so the UUID at
+   * index <code>i</code> is <code>new UUID(values[i * 2], values[i * 2 + 1])</code>. The column can be a native UUID
+   * column, a 16 byte binary column or a String column. Null values are skipped.
+   *
+   * @return The values.
+   * @throws SelectException If the select fails or a value isn't a UUID.
+   */
+  public long[] uuids() {
+    PreparedStatement ps = null;
+    try {
+      ps = prepare(sql());
+      setParams(ps);
+
+      ResultSet rs = executeQuery(ps);
+      long[] values = new long[128];
+      int size = 0;
+      while (nextRow(rs)) {
+        Object value = rs.getObject(1);
+        if (value == null) {
+          continue;
+        }
+
+        if (size == values.length) {
+          values = Arrays.copyOf(values, size * 2);
+        }
+
+        if (value instanceof UUID) {
+          values[size++] = ((UUID) value).getMostSignificantBits();
+          values[size++] = ((UUID) value).getLeastSignificantBits();
+        } else if (value instanceof byte[] && ((byte[]) value).length == 16) {
+          ByteBuffer buffer = ByteBuffer.wrap((byte[]) value);
+          values[size++] = buffer.getLong();
+          values[size++] = buffer.getLong();
+        } else if (value instanceof String) {
+          UUID uuid = UUID.fromString((String) value);
+          values[size++] = uuid.getMostSignificantBits();
+          values[size++] = uuid.getLeastSignificantBits();
+        } else {
+          throw new SelectException("The value [" + value + "] is not a UUID");
+        }
+      }
+
+      return Arrays.copyOf(values, size);
+    } catch (SQLException e) {
+      throw new SelectException(e);
+    } catch (IllegalArgumentException e) {
+      throw new SelectException(e);
+    } finally {
+      close(ps);
+    }
+  }
+
+  /**
+   * PostgreSQL only uses a cursor for the fetch size if auto-commit is turned off. This turns it off if necessary.
+   *
+   * @return True if auto-commit was turned off and needs to be turned back on after the select.
+   * @throws SQLException If the auto-commit state couldn't be changed.
+   */
+  private boolean startStreaming() throws SQLException {
+    if (DatabaseType.database == Database.POSTGRESQL && c.getAutoCommit()) {
+      c.setAutoCommit(false);
+      return true;
+    }
+
+    return false;
+  }
+
+  private PreparedStatement prepareStreaming() throws SQLException {
+    PreparedStatement ps = prepare(sql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    if (DatabaseType.database == Database.MYSQL) {
+      // This is the magic value that tells Connector/J to stream the rows rather than reading them all into memory
+      ps.setFetchSize(Integer.MIN_VALUE);
+    } else {
+      ps.setFetchSize(fetchSize);
+    }
+
+    return ps;
+  }
+
+  private void endStreaming(boolean autoCommitChanged) {
+    if (autoCommitChanged) {
+      try {
+        c.setAutoCommit(true);
+      } catch (SQLException e) {
+        throw new SelectException("Unable to restore auto-commit after streaming the results", e);
+      }
+    }
+  }
+
+  /**
+   * A cursor over a streaming result set. This closes the ResultSet and PreparedStatement once the last row has been
+   * read or the {@link #close()} method is called.
+   *
+   * @param <T> The type of objects returned by the cursor.
+   */
+  public class Cursor<T> implements Iterator<T>, Closeable {
+    private final PreparedStatement ps;
+    private final ResultSet rs;
+    private final Row row;
+    private final RowHandler<T> handler;
+    private final boolean autoCommitChanged;
+    private boolean advanced;
+    private boolean hasRow;
+    private boolean closed;
+
+    private Cursor(PreparedStatement ps, ResultSet rs, RowHandler<T> handler, boolean autoCommitChanged) {
+      this.ps = ps;
+      this.rs = rs;
+      this.row = new Row(rs);
+      this.handler = handler;
+      this.autoCommitChanged = autoCommitChanged;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (closed) {
+        return false;
+      }
+
+      if (!advanced) {
+        try {
+          hasRow = nextRow(rs);
+          advanced = true;
+        } catch (SQLException e) {
+          close();
+          handler.exception(e);
+          return false;
+        }
+
+        if (!hasRow) {
+          close();
+        }
+      }
+
+      return hasRow;
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      advanced = false;
+      try {
+        return handler.handle(rs, row);
+      } catch (SQLException e) {
+        close();
+        handler.exception(e);
+        return null;
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Cursors are read-only");
+    }
+
+    /**
+     * Closes the ResultSet and PreparedStatement and restores the auto-commit state of the Connection. This can be
+     * called multiple times.
+     */
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+      hasRow = false;
+      try {
+        rs.close();
+      } catch (SQLException e) {
+        // Closing the statement below will also close the result set
+      } finally {
+        Select.this.close(ps);
+        endStreaming(autoCommitChanged);
+      }
+    }
   }
 
   public static abstract class SelectHandler {
     public abstract void row(ResultSet rs) throws SQLException;
 
+    /**
+     * Handles a row using the Row that the select created for the ResultSet. This calls {@link #row(ResultSet)} unless
+     * the handler reads rows using the Row.
+     */
+    void handle(ResultSet rs, Row row) throws SQLException {
+      row(rs);
+    }
+
     public void exception(SQLException e) {
       throw new SelectException(e);
     }
@@ -187,11 +592,133 @@ public class Select extends BaseOperation<Select> {
   public static abstract class RowHandler<T> {
     public abstract T row(ResultSet rs) throws SQLException;
 
+    /**
+     * Handles a row using the Row that the select created for the ResultSet. This calls {@link #row(ResultSet)} unless
+     * the handler reads rows using the Row.
+     */
+    T handle(ResultSet rs, Row row) throws SQLException {
+      return row(rs);
+    }
+
     public void exception(SQLException e) {
       throw new SelectException(e);
     }
   }
 
+  /**
+   * A RowHandler that reads each row using a {@link Row} rather than the ResultSet, so that column labels are only
+   * resolved once for each ResultSet. The select creates the Row and passes the same one for every row, so it must not
+   * be kept. The mapper itself doesn't hold any state, so it can be shared like any other RowHandler.
+   *
+   * @param <T> The type.
+   */
+  public static abstract class RowMapper<T> extends RowHandler<T> {
+    /**
+     * Reads the row using a new Row. This only happens when the mapper is called directly rather than by a select.
+     */
+    @Override
+    public final T row(ResultSet rs) throws SQLException {
+      return row(new Row(rs));
+    }
+
+    @Override
+    final T handle(ResultSet rs, Row row) throws SQLException {
+      return row(row);
+    }
+
+    public abstract T row(Row row) throws SQLException;
+  }
+
+  /**
+   * A SelectHandler that reads each row using a {@link Row}. See {@link RowMapper}.
+   */
+  public static abstract class RowCallback extends SelectHandler {
+    /**
+     * Reads the row using a new Row. This only happens when the callback is called directly rather than by a select.
+     */
+    @Override
+    public final void row(ResultSet rs) throws SQLException {
+      row(new Row(rs));
+    }
+
+    @Override
+    final void handle(ResultSet rs, Row row) throws SQLException {
+      row(row);
+    }
+
+    public abstract void row(Row row) throws SQLException;
+  }
+
+  /**
+   * A RowHandler that maps rows to objects using a {@link ClassMapping}. The column indexes are resolved once for each
+   * ResultSet, so each row is read by index rather than by name.
+   *
+   * @param <T> The type.
+   */
+  public static class ObjectRowHandler<T> extends RowHandler<T> {
+    private final Class<T> type;
+    private final ClassMapping mapping;
+    private ResultSet resolved;
+    private int[] columns;
+    private int[] fields;
+
+    public ObjectRowHandler(Class<T> type) {
+      this.type = type;
+      this.mapping = ClassMapping.of(type);
+    }
+
+    @Override
+    public T row(ResultSet rs) throws SQLException {
+      if (rs != resolved) {
+        resolve(rs);
+      }
+
+      TypeConverter[] converters = mapping.converters();
+      T t = type.cast(mapping.newInstance());
+      for (int i = 0; i < columns.length; i++) {
+        mapping.read(fields[i], t, rs, columns[i], converters);
+      }
+
+      return t;
+    }
+
+    private void resolve(ResultSet rs) throws SQLException {
+      ResultSetMetaData md = rs.getMetaData();
+      int count = md.getColumnCount();
+      int[] columns = new int[count];
+      int[] fields = new int[count];
+      int mapped = 0;
+      for (int i = 1; i <= count; i++) {
+        int index = mapping.indexOf(md.getColumnLabel(i));
+        if (index >= 0) {
+          columns[mapped] = i;
+          fields[mapped] = index;
+          mapped++;
+        }
+      }
+
+      this.columns = new int[mapped];
+      this.fields = new int[mapped];
+      System.arraycopy(columns, 0, this.columns, 0, mapped);
+      System.arraycopy(fields, 0, this.fields, 0, mapped);
+      this.resolved = rs;
+    }
+  }
+
+  String sql() {
+    return compiled != null ? compiled : sql.toString();
+  }
+
+  /**
+   * Copies the compiled SQL (if any) into the builder so that it can be changed.
+   */
+  private void thaw() {
+    if (compiled != null) {
+      sql.append(compiled);
+      compiled = null;
+    }
+  }
+
   public static class SelectException extends JDBCException {
     public SelectException() {
       super();
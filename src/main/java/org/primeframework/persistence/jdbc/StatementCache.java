@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a least recently used cache of PreparedStatements for a single Connection. Statements are keyed by the
+ * SQL text and the generated keys mode. A statement is removed from the cache while it is in use, so that nested
+ * operations using the same SQL each get their own statement, and it is put back when it is released.
+ * <p/>
+ * Since Connections are not shared between threads, this class is not thread safe.
+ *
+ * @author Brian Pontarelli
+ */
+public class StatementCache {
+  private final Map<Key, PreparedStatement> idle;
+  private final Map<PreparedStatement, Key> inUse = new IdentityHashMap<PreparedStatement, Key>();
+  private long hits;
+  private long misses;
+
+  public StatementCache(final int maxSize) {
+    this.idle = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+        if (size() > maxSize) {
+          closeQuietly(eldest.getValue());
+          return true;
+        }
+
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Checks out a statement from the cache.
+   *
+   * @param sql               The SQL.
+   * @param autoGeneratedKeys The generated keys mode.
+   * @return The statement or null if there isn't an idle statement in the cache for the SQL.
+   * @throws SQLException If the cached statement couldn't be checked.
+   */
+  public PreparedStatement checkout(String sql, int autoGeneratedKeys) throws SQLException {
+    Key key = new Key(sql, autoGeneratedKeys);
+    PreparedStatement ps = idle.remove(key);
+    if (ps != null && ps.isClosed()) {
+      ps = null;
+    }
+
+    if (ps == null) {
+      misses++;
+      return null;
+    }
+
+    hits++;
+    inUse.put(ps, key);
+    return ps;
+  }
+
+  /**
+   * Tracks a newly prepared statement so that it is cached when it is released.
+   *
+   * @param sql               The SQL.
+   * @param autoGeneratedKeys The generated keys mode.
+   * @param ps                The statement.
+   */
+  public void track(String sql, int autoGeneratedKeys, PreparedStatement ps) {
+    inUse.put(ps, new Key(sql, autoGeneratedKeys));
+  }
+
+  /**
+   * Puts the statement back into the cache. If the statement isn't tracked by this cache or there is already an idle
+   * statement for the same SQL, the statement is closed.
+   *
+   * @param ps The statement.
+   * @throws SQLException If the statement couldn't be reset or closed.
+   */
+  public void release(PreparedStatement ps) throws SQLException {
+    Key key = inUse.remove(ps);
+    if (key == null || idle.containsKey(key) || ps.isClosed()) {
+      ps.close();
+      return;
+    }
+
+    ps.clearParameters();
+    ps.clearBatch();
+    idle.put(key, ps);
+  }
+
+  /**
+   * Closes all of the idle statements and forgets about the statements that are in use.
+   */
+  public void close() {
+    List<PreparedStatement> statements = new ArrayList<PreparedStatement>(idle.values());
+    idle.clear();
+    inUse.clear();
+    for (PreparedStatement ps : statements) {
+      closeQuietly(ps);
+    }
+  }
+
+  /**
+   * @return The number of times an idle statement was found in the cache.
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return The number of times a statement had to be prepared because it wasn't in the cache.
+   */
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * @return The number of idle statements in the cache.
+   */
+  public int size() {
+    return idle.size();
+  }
+
+  private static void closeQuietly(PreparedStatement ps) {
+    try {
+      ps.close();
+    } catch (SQLException e) {
+      // Nothing we can do and the statement will be closed with the Connection anyways
+    }
+  }
+
+  private static class Key {
+    private final String sql;
+    private final int autoGeneratedKeys;
+
+    private Key(String sql, int autoGeneratedKeys) {
+      this.sql = sql;
+      this.autoGeneratedKeys = autoGeneratedKeys;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+
+      Key key = (Key) o;
+      return autoGeneratedKeys == key.autoGeneratedKeys && sql.equals(key.sql);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * sql.hashCode() + autoGeneratedKeys;
+    }
+  }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.primeframework.persistence.jdbc.convert.TypeConverter.Converters;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class is the slow statement log for the JDBC builders. Each statement that the builders run is timed in three
+ * phases (prepare, execute and fetch) and statements that take longer than the threshold are handed to the {@link
+ * Listener}. The default listener logs them using SLF4J at the WARN level, including the bound parameters unless the
+ * parameters are redacted.
+ * <p/>
+ * If an explain DataSource is set, slow statements are also explained on a separate Connection in the background and
+ * the plan is handed to the listener. On PostgreSQL, <code>EXPLAIN (ANALYZE, BUFFERS)</code> can be turned on for
+ * selects. This runs the select again, so it is off by default.
+ * <p/>
+ * Like the {@link org.primeframework.persistence.jdbc.convert.TypeConverter.Converters}, the configuration is static
+ * and applies to all of the builders.
+ *
+ * @author Brian Pontarelli
+ */
+public final class StatementLog {
+  public static final long DEFAULT_THRESHOLD = TimeUnit.SECONDS.toNanos(1);
+
+  private static final Logger logger = LoggerFactory.getLogger(StatementLog.class);
+  private static final Listener LOGGING = new LoggingListener();
+
+  private static volatile long threshold = DEFAULT_THRESHOLD;
+  private static volatile boolean redactParameters;
+  private static volatile Listener listener = LOGGING;
+  private static volatile DataSource explainDataSource;
+  private static volatile boolean explainAnalyze;
+  private static Executor explainExecutor;
+
+  private StatementLog() {
+  }
+
+  /**
+   * Sets the time after which a statement is slow. This defaults to one second.
+   *
+   * @param time The time or a negative number to turn off the slow statement log.
+   * @param unit The unit of the time.
+   */
+  public static void threshold(long time, TimeUnit unit) {
+    threshold = time < 0 ? -1 : unit.toNanos(time);
+  }
+
+  /**
+   * Sets whether or not the parameters of slow statements are hidden. If they are, only the type of each parameter is
+   * given to the listener.
+   *
+   * @param redact True to hide the parameters.
+   */
+  public static void redactParameters(boolean redact) {
+    redactParameters = redact;
+  }
+
+  /**
+   * Sets the listener that is told about slow statements.
+   *
+   * @param listener The listener or null to go back to the logging listener.
+   */
+  public static void listener(Listener listener) {
+    StatementLog.listener = listener != null ? listener : LOGGING;
+  }
+
+  /**
+   * Turns on EXPLAIN for slow statements. The statements are explained one at a time on a background thread, and if
+   * the statements are slow faster than they can be explained, the extra ones aren't explained.
+   *
+   * @param dataSource The DataSource that the Connections for the EXPLAIN statements come from, or null to turn off
+   *                   EXPLAIN.
+   * @param analyze    True to use <code>EXPLAIN (ANALYZE, BUFFERS)</code> for selects on PostgreSQL.
+   */
+  public static void explain(DataSource dataSource, boolean analyze) {
+    explainDataSource = dataSource;
+    explainAnalyze = analyze;
+  }
+
+  /**
+   * @return True if statements should be timed.
+   */
+  static boolean enabled() {
+    return threshold >= 0;
+  }
+
+  /**
+   * Called by the builders after each statement is done.
+   *
+   * @param sql     The SQL.
+   * @param params  The parameters of the builder.
+   * @param start   The index of the first parameter that was bound.
+   * @param end     The index after the last parameter that was bound.
+   * @param extra   Values that were bound after the parameters or null.
+   * @param prepare The nanoseconds spent preparing the statement.
+   * @param execute The nanoseconds spent executing the statement.
+   * @param fetch   The nanoseconds spent fetching the results.
+   */
+  static void statement(String sql, Params params, int start, int end, Object[] extra, long prepare, long execute,
+                        long fetch) {
+    long threshold = StatementLog.threshold;
+    if (threshold < 0 || prepare + execute + fetch < threshold) {
+      return;
+    }
+
+    int count = end - start + (extra != null ? extra.length : 0);
+    Object[] values = new Object[count];
+    for (int i = start; i < end; i++) {
+      values[i - start] = params.get(i);
+    }
+
+    if (extra != null) {
+      System.arraycopy(extra, 0, values, end - start, extra.length);
+    }
+
+    Object[] logged = values;
+    if (redactParameters) {
+      logged = new Object[count];
+      for (int i = 0; i < count; i++) {
+        logged[i] = values[i] != null ? "<" + values[i].getClass().getSimpleName() + ">" : null;
+      }
+    }
+
+    SlowStatement slow = new SlowStatement(sql, logged, prepare, execute, fetch);
+    Listener listener = StatementLog.listener;
+    try {
+      listener.slow(slow);
+    } catch (RuntimeException e) {
+      logger.error("The slow statement listener failed", e);
+    }
+
+    DataSource dataSource = explainDataSource;
+    String explain = explainSQL(sql);
+    if (dataSource != null && explain != null) {
+      executor().execute(new Explain(dataSource, explain, values, slow, listener));
+    }
+  }
+
+  /**
+   * Determines the EXPLAIN statement for the SQL, or null if the statement can't be explained.
+   */
+  static String explainSQL(String sql) {
+    String trimmed = sql.trim();
+    int space = 0;
+    while (space < trimmed.length() && !Character.isWhitespace(trimmed.charAt(space)) && trimmed.charAt(space) != '(') {
+      space++;
+    }
+
+    String verb = trimmed.substring(0, space).toLowerCase();
+    boolean select = verb.equals("select");
+    if (!select && !verb.equals("insert") && !verb.equals("update") && !verb.equals("delete")) {
+      return null;
+    }
+
+    if (select && explainAnalyze && DatabaseType.database == Database.POSTGRESQL) {
+      return "explain (analyze, buffers) " + trimmed;
+    }
+
+    return "explain " + trimmed;
+  }
+
+  private static synchronized Executor executor() {
+    if (explainExecutor == null) {
+      explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(16),
+        new ThreadFactory() {
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "prime-statement-explain");
+            thread.setDaemon(true);
+            return thread;
+          }
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    return explainExecutor;
+  }
+
+  /**
+   * A statement that was slower than the threshold. The parameters are the values that were given to the builder,
+   * before any {@link org.primeframework.persistence.jdbc.convert.TypeConverter} is applied. For a batch, they are the
+   * parameters of the last parameter set.
+   */
+  public static class SlowStatement {
+    public final String sql;
+    public final Object[] parameters;
+    public final long prepareNanos;
+    public final long executeNanos;
+    public final long fetchNanos;
+
+    public SlowStatement(String sql, Object[] parameters, long prepareNanos, long executeNanos, long fetchNanos) {
+      this.sql = sql;
+      this.parameters = parameters;
+      this.prepareNanos = prepareNanos;
+      this.executeNanos = executeNanos;
+      this.fetchNanos = fetchNanos;
+    }
+
+    public long totalNanos() {
+      return prepareNanos + executeNanos + fetchNanos;
+    }
+
+    public String toString() {
+      return "[" + millis(totalNanos()) + "ms] (prepare [" + millis(prepareNanos) + "ms] execute [" +
+        millis(executeNanos) + "ms] fetch [" + millis(fetchNanos) + "ms]) [" + sql + "] with parameters " +
+        Arrays.toString(parameters);
+    }
+
+    private static String millis(long nanos) {
+      return String.format("%.3f", nanos / 1000000.0);
+    }
+  }
+
+  /**
+   * Is told about slow statements. The methods can be called from any thread.
+   */
+  public interface Listener {
+    /**
+     * Called on the thread that ran the statement.
+     *
+     * @param statement The statement.
+     */
+    void slow(SlowStatement statement);
+
+    /**
+     * Called on the explain thread once the statement has been explained.
+     *
+     * @param statement The statement.
+     * @param plan      The plan, one line per row of the EXPLAIN result.
+     */
+    void explained(SlowStatement statement, String plan);
+  }
+
+  private static class LoggingListener implements Listener {
+    public void slow(SlowStatement statement) {
+      logger.warn("Slow statement " + statement);
+    }
+
+    public void explained(SlowStatement statement, String plan) {
+      logger.warn("Plan for slow statement [" + statement.sql + "]\n" + plan);
+    }
+  }
+
+  private static class Explain implements Runnable {
+    private final DataSource dataSource;
+    private final String sql;
+    private final Object[] values;
+    private final SlowStatement statement;
+    private final Listener listener;
+
+    private Explain(DataSource dataSource, String sql, Object[] values, SlowStatement statement, Listener listener) {
+      this.dataSource = dataSource;
+      this.sql = sql;
+      this.values = values;
+      this.statement = statement;
+      this.listener = listener;
+    }
+
+    public void run() {
+      String plan;
+      try {
+        Connection c = dataSource.getConnection();
+        try {
+          PreparedStatement ps = c.prepareStatement(sql);
+          try {
+            // Bind the values the same way the builders do so that converted types can be explained
+            for (int i = 0; i < values.length; i++) {
+              ps.setObject(i + 1, Converters.toSQL(values[i]));
+            }
+
+            plan = plan(ps.executeQuery());
+          } finally {
+            ps.close();
+          }
+        } finally {
+          c.close();
+        }
+      } catch (SQLException e) {
+        // Statements that use temp tables or other Connection state can't be explained on another Connection
+        logger.debug("Unable to explain the slow statement [" + statement.sql + "]", e);
+        return;
+      }
+
+      try {
+        listener.explained(statement, plan);
+      } catch (RuntimeException e) {
+        logger.error("The slow statement listener failed", e);
+      }
+    }
+
+    private String plan(ResultSet rs) throws SQLException {
+      ResultSetMetaData meta = rs.getMetaData();
+      int columns = meta.getColumnCount();
+      StringBuilder build = new StringBuilder();
+      if (columns > 1) {
+        for (int i = 1; i <= columns; i++) {
+          build.append(i > 1 ? "\t" : "").append(meta.getColumnLabel(i));
+        }
+      }
+
+      while (rs.next()) {
+        if (build.length() > 0) {
+          build.append("\n");
+        }
+
+        for (int i = 1; i <= columns; i++) {
+          build.append(i > 1 ? "\t" : "").append(rs.getString(i));
+        }
+      }
+
+      return build.toString();
+    }
+  }
+}
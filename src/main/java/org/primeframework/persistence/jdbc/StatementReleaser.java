@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * This interface is implemented by Connections that cache PreparedStatements. The JDBC builders hand their statements
+ * back to the Connection via this interface rather than closing them.
+ *
+ * @author Brian Pontarelli
+ */
+public interface StatementReleaser {
+  /**
+   * Releases the statement back to the Connection. If the statement wasn't handed out from the Connection's cache, it
+   * is closed.
+   *
+   * @param ps The statement to release.
+   * @throws SQLException If the statement couldn't be reset or closed.
+   */
+  void release(PreparedStatement ps) throws SQLException;
+}
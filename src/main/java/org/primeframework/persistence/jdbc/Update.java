@@ -19,72 +19,99 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
+
 /**
  * This class is a builder for updating.
  *
  * @author Brian Pontarelli
  */
 public class Update extends BaseOperation<Update> {
-  private final Connection c;
   private StringBuilder sql = new StringBuilder();
-  private boolean in;
-  private boolean firstIn;
+  private String compiled;
+  private InList inList;
+  private InList.Strategy inStrategy;
+  private int inTempTableThreshold;
 
   public Update(Connection c) {
-    super(true);
-    this.c = c;
+    super(c, true);
   }
 
   public Update(Connection c, String sql) {
-    super(true);
-    this.c = c;
+    super(c, true);
     this.sql.append(sql);
   }
 
+  Update(Connection c, Query query) {
+    super(c, true);
+    this.compiled = query.sql;
+  }
+
   public Update in(String sql) {
+    thaw();
     this.sql.append(sql);
     return this;
   }
 
+  /**
+   * Sets how in-clauses are written out. See {@link InList} for the strategies. If this isn't set, the {@link
+   * InList#defaultStrategy(InList.Strategy) default strategy} is used, which gives each value its own parameter unless
+   * it was changed.
+   *
+   * @param strategy The strategy.
+   * @return This update builder.
+   */
+  public Update inStrategy(InList.Strategy strategy) {
+    this.inStrategy = strategy;
+    return this;
+  }
+
+  /**
+   * Sets the number of values past which an in-clause is loaded into a temp table rather than passed as parameters.
+   *
+   * @param threshold The threshold or 0 (the default) to never use a temp table.
+   * @return This update builder.
+   */
+  public Update inTempTableThreshold(int threshold) {
+    this.inTempTableThreshold = threshold;
+    return this;
+  }
+
   public Update startIn() {
-    this.sql.append(" in (");
-    this.in = true;
-    this.firstIn = true;
+    this.inList = new InList();
     return this;
   }
 
   public Update endIn() {
-    this.sql.append(")");
-    this.in = true;
-    this.firstIn = true;
+    if (inList == null) {
+      throw new UpdateException("You must startIn before ending the in-clause");
+    }
+
+    thaw();
+    try {
+      inList.build(sql, this, inStrategy, inTempTableThreshold);
+    } catch (SQLException e) {
+      throw new UpdateException(e);
+    } finally {
+      inList = null;
+    }
+
     return this;
   }
 
   /**
-   * Adds a parameter to an in block in the where clause.
+   * Adds a parameter to an in block in the where clause. The SQL for the in block is written out by {@link #endIn()}.
    *
    * @param params The value parameters.
    * @return This update builder.
    */
   public Update addToIn(Object... params) {
-    if (!in) {
+    if (inList == null) {
       throw new UpdateException("You must startIn before adding parameters to the in-clause");
     }
 
-    if (!firstIn) {
-      this.sql.append(",");
-    } else {
-      firstIn = false;
-    }
-
-    for (int i = 0; i < params.length; i++) {
-      if (i > 0) {
-        sql.append(",");
-      }
-      sql.append("?");
-      add(params[i]);
-    }
-
+    inList.add(params);
     return this;
   }
 
@@ -97,10 +124,10 @@ public class Update extends BaseOperation<Update> {
   public int go() throws UpdateException {
     PreparedStatement ps = null;
     try {
-      ps = c.prepareStatement(sql.toString());
+      ps = prepare(sql());
       setParams(ps);
 
-      return ps.executeUpdate();
+      return executeUpdate(ps);
     } catch (SQLException e) {
       throw new UpdateException(e);
     } finally {
@@ -108,6 +135,267 @@ public class Update extends BaseOperation<Update> {
     }
   }
 
+  /**
+   * Performs the update once for each parameter set that was added via {@link #addBatch()}.
+   *
+   * @return The number of rows updated for each parameter set.
+   * @throws UpdateException If the update fails.
+   * @throws BatchException If the batch fails.
+   */
+  public int[] goBatch() throws UpdateException, BatchException {
+    PreparedStatement ps = null;
+    try {
+      ps = prepare(sql());
+      return executeBatch(ps);
+    } catch (SQLException e) {
+      throw new UpdateException(e);
+    } finally {
+      close(ps);
+    }
+  }
+
+  /**
+   * Starts a bulk update, which updates many rows to different values using a single statement for each chunk of rows
+   * rather than a statement for each row. See {@link Bulk}.
+   *
+   * @param table   The table.
+   * @param key     The key column that identifies the rows.
+   * @param columns The columns that are updated.
+   * @return The builder that is used to add the rows.
+   */
+  public Bulk bulk(String table, String key, String... columns) {
+    if (columns.length == 0) {
+      throw new UpdateException("A bulk update must update at least one column");
+    }
+
+    return new Bulk(table, key, columns);
+  }
+
+  private String sql() {
+    return compiled != null ? compiled : sql.toString();
+  }
+
+  /**
+   * Copies the compiled SQL (if any) into the builder so that it can be changed.
+   */
+  private void thaw() {
+    if (compiled != null) {
+      sql.append(compiled);
+      compiled = null;
+    }
+  }
+
+  /**
+   * This class is a builder for updating many rows, each with its own values. The rows are joined to the table as a
+   * derived table of values:
+   * <p/>
+   * <pre>
+   * PostgreSQL: update users as t set name = v.name from (values (?,?),(?,?)) as v (id,name) where t.id = v.id
+   * MySQL:      update users t join (select ? as id,? as name union all select ?,?) v on t.id = v.id set t.name = v.name
+   * </pre>
+   * <p/>
+   * The rows are split into multiple statements using the same parameter and size limits as bulk inserts (see {@link
+   * Insert#maxBulkParameters(int)}). The types of the derived table come from the first row, so if the database can't
+   * tell the types from the parameters (for example, nulls or dates on PostgreSQL), set them using {@link
+   * #types(String...)}.
+   */
+  public class Bulk {
+    private final String table;
+    private final String key;
+    private final String[] columns;
+    private String[] types;
+    private int maxParameters;
+    private int maxBytes = Insert.DEFAULT_MAX_BULK_BYTES;
+    private int rows;
+
+    private Bulk(String table, String key, String[] columns) {
+      this.table = table;
+      this.key = key;
+      this.columns = columns;
+    }
+
+    /**
+     * Sets the SQL types of the key and the columns, which are added as casts to the first row of each statement. A
+     * null type isn't cast.
+     *
+     * @param types The types of the key followed by the types of the columns.
+     * @return This bulk builder.
+     */
+    public Bulk types(String... types) {
+      if (types.length != columns.length + 1) {
+        throw new UpdateException("There must be a type for the key and each column");
+      }
+
+      this.types = types;
+      return this;
+    }
+
+    public Bulk maxParameters(int maxParameters) {
+      this.maxParameters = maxParameters;
+      return this;
+    }
+
+    public Bulk maxBytes(int maxBytes) {
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * Adds a row.
+     *
+     * @param key    The key of the row to update.
+     * @param values The new values of the columns.
+     * @return This bulk builder.
+     */
+    public Bulk row(Object key, Object... values) {
+      if (values.length != columns.length) {
+        throw new UpdateException("The row has [" + values.length + "] values but there are [" + columns.length +
+          "] columns");
+      }
+
+      add(key);
+      add(values);
+      rows++;
+      return this;
+    }
+
+    /**
+     * Performs the update. If the rows are split into multiple statements and the Connection is in auto-commit mode,
+     * the statements are run in a local transaction so that the update is still all or nothing.
+     *
+     * @return The total number of rows updated.
+     * @throws UpdateException If the update fails.
+     */
+    public int go() throws UpdateException {
+      Params params = params();
+      int width = columns.length + 1;
+      int max = maxParameters > 0 ? maxParameters :
+        DatabaseType.database == Database.MYSQL ? Insert.MYSQL_MAX_PARAMETERS : Insert.POSTGRESQL_MAX_PARAMETERS;
+      max = Math.max(max / width, 1);
+
+      int total = 0;
+      int row = 0;
+      boolean local = false;
+      boolean done = false;
+      try {
+        try {
+          while (row < rows) {
+            int first = row;
+            int bytes = 0;
+            while (row < rows && row - first < max) {
+              int rowBytes = width * 2 + params.estimate(row * width, width);
+              if (row > first && bytes + rowBytes > maxBytes) {
+                break;
+              }
+
+              bytes += rowBytes;
+              row++;
+            }
+
+            // The first chunk doesn't hold all of the rows, so start a local transaction if there isn't one
+            if (first == 0 && row < rows) {
+              local = startLocalTransaction();
+            }
+
+            total += execute(sql(row - first), first * width, row * width);
+          }
+
+          done = true;
+        } finally {
+          if (local) {
+            endLocalTransaction(done);
+          }
+        }
+      } catch (SQLException e) {
+        throw new UpdateException(e);
+      } finally {
+        params.clear();
+        rows = 0;
+      }
+
+      return total;
+    }
+
+    private int execute(String sql, int start, int end) throws SQLException {
+      PreparedStatement ps = null;
+      try {
+        ps = prepare(sql);
+        setParams(ps, start, end);
+        return executeUpdate(ps);
+      } finally {
+        close(ps);
+      }
+    }
+
+    private String sql(int count) {
+      StringBuilder build = new StringBuilder();
+      if (DatabaseType.database == Database.MYSQL) {
+        build.append("update ").append(table).append(" t join (");
+        for (int i = 0; i < count; i++) {
+          build.append(i > 0 ? " union all select " : "select ");
+          for (int j = 0; j <= columns.length; j++) {
+            if (j > 0) {
+              build.append(",");
+            }
+
+            placeholder(build, i, j);
+            if (i == 0) {
+              build.append(" as ").append(j == 0 ? key : columns[j - 1]);
+            }
+          }
+        }
+
+        build.append(") v on t.").append(key).append(" = v.").append(key).append(" set ");
+        for (int j = 0; j < columns.length; j++) {
+          if (j > 0) {
+            build.append(", ");
+          }
+          build.append("t.").append(columns[j]).append(" = v.").append(columns[j]);
+        }
+      } else {
+        build.append("update ").append(table).append(" as t set ");
+        for (int j = 0; j < columns.length; j++) {
+          if (j > 0) {
+            build.append(", ");
+          }
+          build.append(columns[j]).append(" = v.").append(columns[j]);
+        }
+
+        build.append(" from (values ");
+        for (int i = 0; i < count; i++) {
+          if (i > 0) {
+            build.append(",");
+          }
+
+          build.append("(");
+          for (int j = 0; j <= columns.length; j++) {
+            if (j > 0) {
+              build.append(",");
+            }
+            placeholder(build, i, j);
+          }
+          build.append(")");
+        }
+
+        build.append(") as v (").append(key);
+        for (String column : columns) {
+          build.append(",").append(column);
+        }
+        build.append(") where t.").append(key).append(" = v.").append(key);
+      }
+
+      return build.toString();
+    }
+
+    private void placeholder(StringBuilder build, int row, int column) {
+      if (row == 0 && types != null && types[column] != null) {
+        build.append("cast(? as ").append(types[column]).append(")");
+      } else {
+        build.append("?");
+      }
+    }
+  }
+
   public static class UpdateException extends JDBCException {
     public UpdateException() {
       super();
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.primeframework.persistence.jdbc.Insert.InsertException;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
+
+import static java.util.Arrays.*;
+
+/**
+ * This class is a builder for inserting rows or updating them if they already exist, in a single statement. The SQL
+ * is written for the current {@link DatabaseType#database}:
+ * <p/>
+ * <pre>
+ * PostgreSQL: insert into users (id,name) values (?,?),(?,?) on conflict (id) do update set name = excluded.name
+ * MySQL:      insert into users (id,name) values (?,?),(?,?) on duplicate key update name = values(name)
+ * </pre>
+ * <p/>
+ * All of the rows are sent as a multi-row insert, which is split into multiple statements the same way as bulk
+ * inserts are (see {@link Insert#addBulk(Object...)}). MySQL uses whatever unique key conflicts, so the conflict
+ * columns are only used in the SQL on PostgreSQL, but they are always used to collapse rows with the same key into the
+ * last one, since PostgreSQL fails if a single statement affects a row twice. Rows with a null in their key are never
+ * collapsed, since nulls don't conflict.
+ *
+ * @author Brian Pontarelli
+ */
+public class Upsert {
+  private final Connection c;
+  private String table;
+  private List<String> columns;
+  private ClassMapping mapping;
+  private String[] keys;
+  private String[] updates;
+  private int maxBulkParameters;
+  private final List<Object[]> rows = new ArrayList<Object[]>();
+
+  public Upsert(Connection c) {
+    this.c = c;
+  }
+
+  public Upsert(Connection c, String table, String... columns) {
+    this.c = c;
+    into(table, columns);
+  }
+
+  /**
+   * Sets the table and the columns that each row contains values for.
+   *
+   * @param table   The table.
+   * @param columns The columns.
+   * @return This upsert builder.
+   */
+  public Upsert into(String table, String... columns) {
+    this.table = table;
+    this.columns = asList(columns);
+    this.mapping = null;
+    return this;
+  }
+
+  /**
+   * Upserts Objects directly using the same mapping as {@link Insert#into(Class)}.
+   *
+   * @param type The type of objects to upsert.
+   * @param <T>  The type.
+   * @return The builder that is used to upsert the objects with.
+   */
+  public <T> UpsertObject<T> into(Class<T> type) {
+    this.mapping = ClassMapping.of(type);
+    this.table = mapping.tableName;
+    this.columns = mapping.columns;
+    return new UpsertObject<T>();
+  }
+
+  /**
+   * Sets the columns of the unique key that determines whether a row already exists. This is required.
+   *
+   * @param keys The key columns.
+   * @return This upsert builder.
+   */
+  public Upsert on(String... keys) {
+    this.keys = keys;
+    return this;
+  }
+
+  /**
+   * Sets the columns that are updated when the row already exists. This defaults to all of the columns that aren't key
+   * columns. If there aren't any, existing rows are left as is.
+   *
+   * @param updates The columns to update.
+   * @return This upsert builder.
+   */
+  public Upsert update(String... updates) {
+    this.updates = updates;
+    return this;
+  }
+
+  /**
+   * See {@link Insert#maxBulkParameters(int)}.
+   *
+   * @param maxBulkParameters The maximum number of parameters in a single statement.
+   * @return This upsert builder.
+   */
+  public Upsert maxBulkParameters(int maxBulkParameters) {
+    this.maxBulkParameters = maxBulkParameters;
+    return this;
+  }
+
+  public Upsert row(Object... values) {
+    if (columns == null) {
+      throw new InsertException("You must set the table and columns before adding rows");
+    }
+
+    if (values.length != columns.size()) {
+      throw new InsertException("The row has [" + values.length + "] values but there are [" + columns.size() +
+        "] columns");
+    }
+
+    rows.add(values);
+    return this;
+  }
+
+  public Upsert rows(Collection<Object[]> rows) {
+    for (Object[] row : rows) {
+      row(row);
+    }
+
+    return this;
+  }
+
+  /**
+   * Performs the upsert.
+   *
+   * @return The number of rows affected as reported by the database. PostgreSQL counts each row once, MySQL counts
+   *         inserted rows once and updated rows twice.
+   * @throws InsertException If the upsert fails.
+   */
+  public int go() throws InsertException {
+    if (keys == null || keys.length == 0) {
+      throw new InsertException("You must set the key columns of the upsert using the on method");
+    }
+
+    if (rows.isEmpty()) {
+      return 0;
+    }
+
+    Insert insert = new Insert(c, "insert into " + table + " (" + StringUtils.join(columns, ",") + ") values ");
+    insert.suffix(suffix());
+    if (maxBulkParameters > 0) {
+      insert.maxBulkParameters(maxBulkParameters);
+    }
+
+    String placeholders = mapping != null ? mapping.placeholders : null;
+    for (Object[] row : collapse()) {
+      if (placeholders != null) {
+        insert.addBulkRow(placeholders, row);
+      } else {
+        insert.addBulk(row);
+      }
+    }
+
+    return insert.go();
+  }
+
+  private String suffix() {
+    List<String> updated = new ArrayList<String>();
+    if (updates != null) {
+      updated.addAll(asList(updates));
+    } else {
+      List<String> keyList = asList(keys);
+      for (String column : columns) {
+        if (!keyList.contains(column)) {
+          updated.add(column);
+        }
+      }
+    }
+
+    StringBuilder build = new StringBuilder();
+    if (DatabaseType.database == Database.MYSQL) {
+      build.append(" on duplicate key update ");
+      if (updated.isEmpty()) {
+        // MySQL doesn't have do nothing, so set a key column to itself
+        build.append(keys[0]).append(" = ").append(keys[0]);
+      }
+
+      for (int i = 0; i < updated.size(); i++) {
+        if (i > 0) {
+          build.append(", ");
+        }
+        build.append(updated.get(i)).append(" = values(").append(updated.get(i)).append(")");
+      }
+    } else {
+      build.append(" on conflict (").append(StringUtils.join(keys, ",")).append(") do ");
+      if (updated.isEmpty()) {
+        build.append("nothing");
+      } else {
+        build.append("update set ");
+        for (int i = 0; i < updated.size(); i++) {
+          if (i > 0) {
+            build.append(", ");
+          }
+          build.append(updated.get(i)).append(" = excluded.").append(updated.get(i));
+        }
+      }
+    }
+
+    return build.toString();
+  }
+
+  /**
+   * Collapses the rows that have the same key into the last one, keeping the position of the first one.
+   */
+  private Collection<Object[]> collapse() {
+    int[] indexes = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      indexes[i] = columns.indexOf(keys[i]);
+      if (indexes[i] == -1) {
+        throw new InsertException("The key column [" + keys[i] + "] isn't one of the columns of the upsert");
+      }
+    }
+
+    Map<Object, Object[]> collapsed = new LinkedHashMap<Object, Object[]>();
+    for (Object[] row : rows) {
+      List<Object> key = new ArrayList<Object>(indexes.length);
+      for (int index : indexes) {
+        Object value = row[index];
+        if (value == null) {
+          // Nulls never conflict, so the row is kept as is
+          key = null;
+          break;
+        }
+
+        // Arrays don't implement equals, so binary keys (such as UUIDs) are compared by their contents
+        key.add(value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : value);
+      }
+
+      collapsed.put(key != null ? key : new Object(), row);
+    }
+
+    return collapsed.values();
+  }
+
+  /**
+   * @param <T> The type of objects.
+   */
+  public class UpsertObject<T> {
+    public UpsertObject<T> on(String... keys) {
+      Upsert.this.on(keys);
+      return this;
+    }
+
+    public UpsertObject<T> update(String... updates) {
+      Upsert.this.update(updates);
+      return this;
+    }
+
+    public UpsertObject<T> objects(T... objects) {
+      return objects(asList(objects));
+    }
+
+    public UpsertObject<T> objects(Collection<T> objects) {
+      for (T object : objects) {
+        rows.add(mapping.values(object));
+      }
+
+      return this;
+    }
+
+    public int go() throws InsertException {
+      return Upsert.this.go();
+    }
+  }
+}
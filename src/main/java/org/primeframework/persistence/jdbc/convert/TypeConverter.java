@@ -3,14 +3,22 @@
  */
 package org.primeframework.persistence.jdbc.convert;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This class is a type converter for the thin JDBC wrappers to handle the conversion between Java objects and SQL
  * types. It currently uses a static inner class to store the converters. This means that there is only a single
  * converter per type and you can't have different converters used in different places. This is the most general
  * handling of converters and the fastest.
+ * <p/>
+ * Converters can be registered at any time from any thread. A converter registered for a class is also used for its
+ * subclasses and a converter registered for an interface is used for all the classes that implement it. The closest
+ * match wins: the class itself, then its superclasses, and then the interfaces.
  *
  * @author Brian Pontarelli
  */
@@ -20,15 +28,157 @@ public interface TypeConverter<T> {
   T convertFromSQL(Object object);
 
   class Converters {
-    private static final Map<Class<?>, TypeConverter<?>> converters = new HashMap<Class<?>, TypeConverter<?>>();
+    private static final TypeConverter<Object> NONE = new TypeConverter<Object>() {
+      public Object convertToSQL(Object object) {
+        return object;
+      }
 
-    public static <T> void register(Class<T> type, TypeConverter<T> converter) {
+      public Object convertFromSQL(Object object) {
+        return object;
+      }
+    };
+
+    private static final Set<Class<?>> BUILTIN = new HashSet<Class<?>>();
+    private static final ConcurrentMap<Class<?>, TypeConverter<?>> converters = new ConcurrentHashMap<Class<?>, TypeConverter<?>>();
+    private static final ConcurrentMap<Class<?>, TypeConverter<?>> resolved = new ConcurrentHashMap<Class<?>, TypeConverter<?>>();
+    private static volatile boolean builtinConverters;
+    private static volatile int version;
+
+    static {
+      Class<?>[] types = {String.class, Integer.class, Long.class, Short.class, Byte.class, Double.class, Float.class,
+        Boolean.class, Character.class, int.class, long.class, short.class, byte.class, double.class, float.class,
+        boolean.class, char.class};
+      for (Class<?> type : types) {
+        BUILTIN.add(type);
+      }
+    }
+
+    public static synchronized <T> void register(Class<T> type, TypeConverter<T> converter) {
       converters.put(type, converter);
+      if (BUILTIN.contains(type)) {
+        builtinConverters = true;
+      }
+      version++;
+      resolved.clear();
+    }
+
+    /**
+     * Removes the converter for the given type, if there is one.
+     *
+     * @param type The type.
+     */
+    public static synchronized void unregister(Class<?> type) {
+      if (converters.remove(type) == null) {
+        return;
+      }
+
+      builtinConverters = false;
+      for (Class<?> registered : converters.keySet()) {
+        if (BUILTIN.contains(registered)) {
+          builtinConverters = true;
+        }
+      }
+      version++;
+      resolved.clear();
     }
 
+    /**
+     * @return A number that changes each time a converter is registered or unregistered. This allows converters to be
+     *         resolved once and cached until the next registration.
+     */
+    public static int version() {
+      return version;
+    }
+
+    /**
+     * Returns the converter for the given type. The result of the lookup is cached, including misses, so this only
+     * walks the class hierarchy the first time a type is seen.
+     *
+     * @param type The type.
+     * @return The converter or null if there isn't one.
+     */
     @SuppressWarnings("unchecked")
     public static <T> TypeConverter<T> get(Class<T> type) {
-      return (TypeConverter<T>) converters.get(type);
+      if (converters.isEmpty() || (!builtinConverters && BUILTIN.contains(type))) {
+        return null;
+      }
+
+      TypeConverter<?> converter = resolved.get(type);
+      if (converter == null) {
+        int version = Converters.version;
+        converter = resolve(type);
+        resolved.put(type, converter != null ? converter : NONE);
+
+        // Don't keep the result if a converter was registered while resolving
+        if (version != Converters.version) {
+          resolved.remove(type);
+        }
+      }
+
+      return converter != NONE ? (TypeConverter<T>) converter : null;
+    }
+
+    /**
+     * Converts the value to a SQL value if there is a converter for its type.
+     *
+     * @param value The value.
+     * @return The converted value or the value itself.
+     */
+    @SuppressWarnings("unchecked")
+    public static Object toSQL(Object value) {
+      if (value == null) {
+        return null;
+      }
+
+      TypeConverter converter = get(value.getClass());
+      return converter != null ? converter.convertToSQL(value) : value;
+    }
+
+    /**
+     * Converts the SQL value to the given type if there is a converter for it.
+     *
+     * @param type  The type.
+     * @param value The SQL value.
+     * @return The converted value or the value itself if there isn't a converter.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T fromSQL(Class<T> type, Object value) {
+      TypeConverter<T> converter = get(type);
+      return converter != null ? converter.convertFromSQL(value) : (T) value;
+    }
+
+    private static TypeConverter<?> resolve(Class<?> type) {
+      for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+        TypeConverter<?> converter = converters.get(c);
+        if (converter != null) {
+          return converter;
+        }
+      }
+
+      // Breadth first so that the interfaces closest to the type win
+      List<Class<?>> interfaces = new ArrayList<Class<?>>();
+      for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+        addAll(interfaces, c.getInterfaces());
+      }
+
+      for (int i = 0; i < interfaces.size(); i++) {
+        TypeConverter<?> converter = converters.get(interfaces.get(i));
+        if (converter != null) {
+          return converter;
+        }
+
+        addAll(interfaces, interfaces.get(i).getInterfaces());
+      }
+
+      return null;
+    }
+
+    private static void addAll(List<Class<?>> list, Class<?>[] classes) {
+      for (Class<?> c : classes) {
+        if (!list.contains(c)) {
+          list.add(c);
+        }
+      }
     }
   }
 }
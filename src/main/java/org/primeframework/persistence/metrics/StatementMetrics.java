@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * This class is the registry of the statement metrics. Each statement is normalized into a fingerprint by replacing
+ * the literals with <code>?</code> and collapsing parameter lists (in-clauses and multi-row values) of any length into
+ * <code>(?+)</code>, so that the same statement with different values or list sizes is counted together. The JDBC
+ * builders and the JPA persistence service record each statement they run here when the metrics are enabled.
+ * <p/>
+ * The number of fingerprints is bounded. Once the limit is reached, new fingerprints are counted under {@link #OTHER},
+ * so applications that build SQL with inline values can't use up the memory.
+ * <p/>
+ * Like the {@link org.primeframework.persistence.jdbc.StatementLog}, the registry is static. The metrics are off by
+ * default.
+ *
+ * @author Brian Pontarelli
+ */
+public final class StatementMetrics implements StatementMetricsMBean {
+  public static final int DEFAULT_MAX_FINGERPRINTS = 1000;
+  public static final String OTHER = "(other)";
+  public static final String OBJECT_NAME = "org.primeframework.persistence:type=StatementMetrics";
+
+  private static final StatementMetrics INSTANCE = new StatementMetrics();
+  private static final int MAX_CACHED_SQL = 10000;
+  private static final Pattern LIST = Pattern.compile("\\( ?\\?( ?, ?\\?)* ?\\)");
+  private static final Pattern LISTS = Pattern.compile("\\(\\?\\+\\)( ?, ?\\(\\?\\+\\))+");
+  private static final Pattern TEMP_TABLE = Pattern.compile("prime_in_[0-9]+");
+
+  private static final ConcurrentMap<String, StatementStats> stats = new ConcurrentHashMap<String, StatementStats>();
+  private static final ConcurrentMap<String, String> fingerprints = new ConcurrentHashMap<String, String>();
+  private static volatile StatementStats other = new StatementStats(OTHER);
+  private static volatile boolean enabled;
+  private static volatile int maxFingerprints = DEFAULT_MAX_FINGERPRINTS;
+
+  private StatementMetrics() {
+  }
+
+  public static void enabled(boolean enabled) {
+    StatementMetrics.enabled = enabled;
+  }
+
+  public static boolean enabled() {
+    return enabled;
+  }
+
+  /**
+   * @param max The maximum number of fingerprints that are tracked separately.
+   */
+  public static void maxFingerprints(int max) {
+    maxFingerprints = max;
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server as {@link #OBJECT_NAME}. Registering more than once does
+   * nothing.
+   *
+   * @throws JMException If the registration fails.
+   */
+  public static synchronized void registerMBean() throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(OBJECT_NAME);
+    if (!server.isRegistered(name)) {
+      server.registerMBean(INSTANCE, name);
+    }
+  }
+
+  /**
+   * Starts timing a statement.
+   *
+   * @return The start time to pass to {@link #record(String, long, long)} or 0 if the metrics are off.
+   */
+  public static long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Records a statement that was timed using {@link #start()}.
+   *
+   * @param sql   The SQL or query.
+   * @param start The start time. If this is 0, nothing is recorded.
+   * @param rows  The number of rows returned or affected.
+   */
+  public static void record(String sql, long start, long rows) {
+    if (start != 0) {
+      recordNanos(sql, System.nanoTime() - start, rows);
+    }
+  }
+
+  /**
+   * Records a statement that was timed elsewhere.
+   *
+   * @param sql   The SQL or query.
+   * @param nanos The time the statement took.
+   * @param rows  The number of rows returned or affected.
+   */
+  public static void recordNanos(String sql, long nanos, long rows) {
+    if (enabled) {
+      stats(fingerprint(sql)).record(nanos, rows);
+    }
+  }
+
+  /**
+   * @param fingerprint The fingerprint.
+   * @return The stats or null if the fingerprint hasn't been recorded.
+   */
+  public static StatementStats get(String fingerprint) {
+    return OTHER.equals(fingerprint) ? other : stats.get(fingerprint);
+  }
+
+  /**
+   * @return The stats of all of the fingerprints, slowest total time first.
+   */
+  public static List<StatementStats> all() {
+    List<StatementStats> all = new ArrayList<StatementStats>(stats.values());
+    if (other.getCount() > 0) {
+      all.add(other);
+    }
+
+    Collections.sort(all, new Comparator<StatementStats>() {
+      public int compare(StatementStats one, StatementStats two) {
+        long first = one.getTotalMicros();
+        long second = two.getTotalMicros();
+        return first > second ? -1 : first < second ? 1 : 0;
+      }
+    });
+
+    return all;
+  }
+
+  /**
+   * Clears all of the stats.
+   */
+  public static void clear() {
+    stats.clear();
+    fingerprints.clear();
+    other = new StatementStats(OTHER);
+  }
+
+  /**
+   * Normalizes the SQL into its fingerprint. The fingerprints are cached by SQL.
+   *
+   * @param sql The SQL.
+   * @return The fingerprint.
+   */
+  public static String fingerprint(String sql) {
+    String fingerprint = fingerprints.get(sql);
+    if (fingerprint == null) {
+      fingerprint = normalize(sql);
+      if (fingerprints.size() >= MAX_CACHED_SQL) {
+        fingerprints.clear();
+      }
+
+      fingerprints.put(sql, fingerprint);
+    }
+
+    return fingerprint;
+  }
+
+  private static StatementStats stats(String fingerprint) {
+    StatementStats result = stats.get(fingerprint);
+    if (result == null) {
+      if (stats.size() >= maxFingerprints) {
+        return other;
+      }
+
+      result = new StatementStats(fingerprint);
+      StatementStats existing = stats.putIfAbsent(fingerprint, result);
+      if (existing != null) {
+        result = existing;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Replaces the string and number literals with ?, removes the comments, collapses the whitespace and lower cases
+   * everything except quoted identifiers. Then collapses the parameter lists.
+   */
+  static String normalize(String sql) {
+    StringBuilder build = new StringBuilder(sql.length());
+    int length = sql.length();
+    for (int i = 0; i < length; i++) {
+      char ch = sql.charAt(i);
+      if (ch == '\'') {
+        // Skip the string, including doubled quotes
+        i++;
+        while (i < length) {
+          if (sql.charAt(i) == '\'') {
+            if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+              i += 2;
+              continue;
+            }
+            break;
+          }
+          i++;
+        }
+        build.append('?');
+      } else if (ch == '"' || ch == '`') {
+        int end = sql.indexOf(ch, i + 1);
+        end = end == -1 ? length - 1 : end;
+        build.append(sql, i, end + 1);
+        i = end;
+      } else if (ch == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        int end = sql.indexOf('\n', i);
+        i = end == -1 ? length : end - 1;
+      } else if (ch == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end == -1 ? length : end + 1;
+      } else if (Character.isWhitespace(ch)) {
+        if (build.length() > 0 && build.charAt(build.length() - 1) != ' ') {
+          build.append(' ');
+        }
+      } else if (Character.isDigit(ch) && (build.length() == 0 || !isIdentifier(build.charAt(build.length() - 1)))) {
+        while (i + 1 < length && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+          i++;
+        }
+        build.append('?');
+      } else {
+        build.append(Character.toLowerCase(ch));
+      }
+    }
+
+    String result = build.toString().trim();
+    result = TEMP_TABLE.matcher(result).replaceAll("prime_in_?");
+    result = LIST.matcher(result).replaceAll("(?+)");
+    return LISTS.matcher(result).replaceAll("(?+)+");
+  }
+
+  private static boolean isIdentifier(char ch) {
+    return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$';
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    StatementMetrics.enabled = enabled;
+  }
+
+  public int getFingerprintCount() {
+    return stats.size();
+  }
+
+  public String[] getReport() {
+    List<StatementStats> all = all();
+    String[] report = new String[all.size()];
+    for (int i = 0; i < report.length; i++) {
+      report[i] = all.get(i).toString();
+    }
+
+    return report;
+  }
+
+  public long getCount(String fingerprint) {
+    StatementStats stats = get(fingerprint);
+    return stats != null ? stats.getCount() : 0;
+  }
+
+  public long getP50Micros(String fingerprint) {
+    StatementStats stats = get(fingerprint);
+    return stats != null ? stats.getP50Micros() : 0;
+  }
+
+  public long getP99Micros(String fingerprint) {
+    StatementStats stats = get(fingerprint);
+    return stats != null ? stats.getP99Micros() : 0;
+  }
+
+  public long getMaxMicros(String fingerprint) {
+    StatementStats stats = get(fingerprint);
+    return stats != null ? stats.getMaxMicros() : 0;
+  }
+
+  public void reset() {
+    clear();
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.metrics;
+
+/**
+ * The JMX interface of the {@link StatementMetrics}.
+ *
+ * @author Brian Pontarelli
+ */
+public interface StatementMetricsMBean {
+  boolean isEnabled();
+
+  void setEnabled(boolean enabled);
+
+  int getFingerprintCount();
+
+  /**
+   * @return One line for each fingerprint with its count, rows and latencies, slowest total time first.
+   */
+  String[] getReport();
+
+  long getCount(String fingerprint);
+
+  long getP50Micros(String fingerprint);
+
+  long getP99Micros(String fingerprint);
+
+  long getMaxMicros(String fingerprint);
+
+  void reset();
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2001-2011, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class holds the counters and the latency histogram of a single statement fingerprint. All of the updates are
+ * lock-free, so the stats can be recorded from any number of threads.
+ * <p/>
+ * The histogram stores the latencies in microseconds in log-linear buckets: each power of two is split into 16
+ * buckets, so the percentiles are accurate to within about 6% no matter how large the values are. The maximum is
+ * tracked exactly.
+ *
+ * @author Brian Pontarelli
+ */
+public class StatementStats {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 40;
+  private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  public final String fingerprint;
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong rows = new AtomicLong();
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+  public StatementStats(String fingerprint) {
+    this.fingerprint = fingerprint;
+  }
+
+  /**
+   * Records an execution of the statement.
+   *
+   * @param nanos The time the statement took in nanoseconds.
+   * @param rows  The number of rows returned or affected.
+   */
+  public void record(long nanos, long rows) {
+    long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+    count.incrementAndGet();
+    this.rows.addAndGet(rows);
+    totalMicros.addAndGet(micros);
+    buckets.incrementAndGet(bucket(micros));
+
+    long max;
+    do {
+      max = maxMicros.get();
+    } while (micros > max && !maxMicros.compareAndSet(max, micros));
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getRows() {
+    return rows.get();
+  }
+
+  public long getTotalMicros() {
+    return totalMicros.get();
+  }
+
+  public long getMaxMicros() {
+    return maxMicros.get();
+  }
+
+  public long getP50Micros() {
+    return percentile(0.5);
+  }
+
+  public long getP99Micros() {
+    return percentile(0.99);
+  }
+
+  /**
+   * Determines the value that the given fraction of the executions were faster than or equal to. This is the upper
+   * bound of the bucket that the percentile falls into, capped at the maximum.
+   *
+   * @param fraction The fraction between 0 and 1.
+   * @return The value in microseconds.
+   */
+  public long percentile(double fraction) {
+    long total = 0;
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max((long) Math.ceil(total * fraction), 1);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(upperBound(i), maxMicros.get());
+      }
+    }
+
+    return maxMicros.get();
+  }
+
+  public String toString() {
+    return fingerprint + " count=" + getCount() + " rows=" + getRows() + " p50=" + getP50Micros() + "us p99=" +
+      getP99Micros() + "us max=" + getMaxMicros() + "us";
+  }
+
+  static int bucket(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) Math.max(micros, 0);
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKETS - 1;
+    }
+
+    int shift = exponent - SUB_BUCKET_BITS;
+    int sub = (int) (micros >>> shift) - SUB_BUCKETS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+  }
+
+  static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+
+    int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+    return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+  }
+}
@@ -19,12 +19,20 @@ import java.sql.Connection;
 
 /**
  * This class is a context container for the JDBC Connection that might be checked out of the JNDI data source by the
- * provider.
+ * provider. It also holds the replica Connection used for reads (if replicas are configured) and tracks when the
+ * current Thread last wrote, so that reads can stick to the primary until the replicas have caught up.
+ * <p/>
+ * The time of the last write is kept when the Connections are removed, because it spans requests. Applications that
+ * want the stickiness to follow a user rather than a Thread can copy it to and from the session using {@link
+ * #getLastWrite()} and {@link #setLastWrite(long)}.
  *
  * @author Brian Pontarelli
  */
 public class ConnectionContext {
   private static ThreadLocal<Connection> holder = new ThreadLocal<Connection>();
+  private static ThreadLocal<Connection> replicaHolder = new ThreadLocal<Connection>();
+  private static ThreadLocal<Boolean> writtenHolder = new ThreadLocal<Boolean>();
+  private static ThreadLocal<Long> lastWriteHolder = new ThreadLocal<Long>();
 
   /**
    * Sets the Connection for this Thread.
@@ -45,9 +53,59 @@ public class ConnectionContext {
   }
 
   /**
-   * Removes the Connection from the context.
+   * Removes the Connection and the replica Connection from the context and resets the {@link #hasWritten()} flag.
    */
   public static void remove() {
     holder.remove();
+    replicaHolder.remove();
+    writtenHolder.remove();
+  }
+
+  /**
+   * Sets the replica Connection for this Thread.
+   *
+   * @param connection The Connection to set.
+   */
+  public static void setReplica(Connection connection) {
+    replicaHolder.set(connection);
+  }
+
+  /**
+   * @return The replica Connection or null if reads haven't been routed to a replica.
+   */
+  public static Connection getReplica() {
+    return replicaHolder.get();
+  }
+
+  /**
+   * Records that the current Thread wrote to the primary.
+   */
+  public static void wrote() {
+    writtenHolder.set(Boolean.TRUE);
+    lastWriteHolder.set(System.currentTimeMillis());
+  }
+
+  /**
+   * @return True if the current Thread wrote to the primary since the Connections were set up.
+   */
+  public static boolean hasWritten() {
+    return writtenHolder.get() != null;
+  }
+
+  /**
+   * @return The time that the current Thread last wrote to the primary or 0 if it hasn't written.
+   */
+  public static long getLastWrite() {
+    Long lastWrite = lastWriteHolder.get();
+    return lastWrite != null ? lastWrite : 0;
+  }
+
+  /**
+   * Sets the time of the last write, for example from the session at the start of a request.
+   *
+   * @param lastWrite The time in milliseconds.
+   */
+  public static void setLastWrite(long lastWrite) {
+    lastWriteHolder.set(lastWrite);
   }
 }
@@ -30,17 +30,29 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.primeframework.persistence.jdbc.StatementReleaser;
 
 /**
  * Proxies a JDBC connection so that it doesn't grab a connection from the DataSource and add the connection to the
  * transaction context until it is actually used.
+ * <p/>
+ * The proxy also routes the statements. Plain selects are prepared on the connection from {@link
+ * JDBCService#setupReadConnection()} if the service returns one, which is a replica. Everything else runs on the
+ * primary and is recorded as a write in the {@link ConnectionContext}, since the proxy can't tell what a Statement or
+ * call will do.
  *
  * @author Brian Pontarelli
  */
-public class ConnectionProxy implements Connection {
+public class ConnectionProxy implements Connection, StatementReleaser {
+  private static final Pattern WRITE = Pattern.compile("\\bfor\\s+(update|share|no\\s+key\\s+update|key\\s+share)\\b|" +
+    "\\block\\s+in\\s+share\\s+mode\\b|\\binto\\b|\\b(nextval|setval|get_lock)\\s*\\(", Pattern.CASE_INSENSITIVE);
   private final JDBCService service;
+  private final Map<PreparedStatement, Connection> replicaStatements = new IdentityHashMap<PreparedStatement, Connection>();
   private Connection proxy;
 
   public ConnectionProxy(JDBCService service) {
@@ -49,19 +61,23 @@ public class ConnectionProxy implements Connection {
 
   @Override
   public Statement createStatement() throws SQLException {
-    grabProxy();
+    grabForWrite();
     return proxy.createStatement();
   }
 
   @Override
   public PreparedStatement prepareStatement(String sql) throws SQLException {
-    grabProxy();
+    Connection replica = route(sql);
+    if (replica != null) {
+      return track(replica, replica.prepareStatement(sql));
+    }
+
     return proxy.prepareStatement(sql);
   }
 
   @Override
   public CallableStatement prepareCall(String sql) throws SQLException {
-    grabProxy();
+    grabForWrite();
     return proxy.prepareCall(sql);
   }
 
@@ -163,19 +179,23 @@ public class ConnectionProxy implements Connection {
 
   @Override
   public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
-    grabProxy();
+    grabForWrite();
     return proxy.createStatement(resultSetType, resultSetConcurrency);
   }
 
   @Override
   public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-    grabProxy();
+    Connection replica = route(sql);
+    if (replica != null) {
+      return track(replica, replica.prepareStatement(sql, resultSetType, resultSetConcurrency));
+    }
+
     return proxy.prepareStatement(sql, resultSetType, resultSetConcurrency);
   }
 
   @Override
   public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-    grabProxy();
+    grabForWrite();
     return proxy.prepareCall(sql, resultSetType, resultSetConcurrency);
   }
 
@@ -229,37 +249,53 @@ public class ConnectionProxy implements Connection {
 
   @Override
   public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-    grabProxy();
+    grabForWrite();
     return proxy.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
   }
 
   @Override
   public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-    grabProxy();
+    Connection replica = route(sql);
+    if (replica != null) {
+      return track(replica, replica.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
     return proxy.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
   }
 
   @Override
   public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-    grabProxy();
+    grabForWrite();
     return proxy.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
   }
 
   @Override
   public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-    grabProxy();
+    Connection replica = route(sql);
+    if (replica != null) {
+      return track(replica, replica.prepareStatement(sql, autoGeneratedKeys));
+    }
+
     return proxy.prepareStatement(sql, autoGeneratedKeys);
   }
 
   @Override
   public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
-    grabProxy();
+    Connection replica = route(sql);
+    if (replica != null) {
+      return track(replica, replica.prepareStatement(sql, columnIndexes));
+    }
+
     return proxy.prepareStatement(sql, columnIndexes);
   }
 
   @Override
   public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
-    grabProxy();
+    Connection replica = route(sql);
+    if (replica != null) {
+      return track(replica, replica.prepareStatement(sql, columnNames));
+    }
+
     return proxy.prepareStatement(sql, columnNames);
   }
 
@@ -331,7 +367,8 @@ public class ConnectionProxy implements Connection {
 
   @Override
   public <T> T unwrap(Class<T> iface) throws SQLException {
-    grabProxy();
+    // The driver Connection can write without going through this proxy (COPY for example), so this counts as a write
+    grabForWrite();
     return proxy.unwrap(iface);
   }
 
@@ -341,9 +378,81 @@ public class ConnectionProxy implements Connection {
     return proxy.isWrapperFor(iface);
   }
 
+  /**
+   * Releases the statement to the proxied Connection if it caches statements, otherwise this closes it.
+   *
+   * @param ps The statement to release.
+   * @throws SQLException If the release failed.
+   */
+  @Override
+  public void release(PreparedStatement ps) throws SQLException {
+    Connection c = replicaStatements.remove(ps);
+    if (c == null) {
+      c = proxy;
+    }
+
+    if (c instanceof StatementReleaser) {
+      ((StatementReleaser) c).release(ps);
+    } else {
+      ps.close();
+    }
+  }
+
+  /**
+   * Determines if the SQL is a plain select that can run on a replica. Selects that lock rows, select into a table or
+   * touch sequences and locks aren't.
+   *
+   * @param sql The SQL.
+   * @return True if the SQL only reads.
+   */
+  static boolean isRead(String sql) {
+    int i = 0;
+    int length = sql.length();
+    while (i < length && (Character.isWhitespace(sql.charAt(i)) || sql.charAt(i) == '(')) {
+      i++;
+    }
+
+    return sql.regionMatches(true, i, "select", 0, 6) && !WRITE.matcher(sql).find();
+  }
+
+  private PreparedStatement track(Connection replica, PreparedStatement ps) {
+    if (ps != null) {
+      replicaStatements.put(ps, replica);
+    }
+
+    return ps;
+  }
+
   private void grabProxy() {
     if (proxy == null) {
       proxy = service.setupConnection();
     }
   }
+
+  private void grabForWrite() {
+    grabProxy();
+    ConnectionContext.wrote();
+  }
+
+  /**
+   * Routes a statement. If the statement is a read, the service returns a replica and the primary isn't in the middle
+   * of a transaction that was started by hand, this returns the replica. Otherwise, this grabs the primary, records
+   * writes and returns null.
+   */
+  private Connection route(String sql) throws SQLException {
+    boolean read = isRead(sql);
+    if (read) {
+      Connection replica = service.setupReadConnection();
+      if (replica != null && (proxy == null || proxy.getAutoCommit())) {
+        return replica;
+      }
+    }
+
+    grabProxy();
+    if (!read) {
+      ConnectionContext.wrote();
+    }
+
+    return null;
+  }
 }
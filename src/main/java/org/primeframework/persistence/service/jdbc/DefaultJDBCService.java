@@ -18,23 +18,44 @@ package org.primeframework.persistence.service.jdbc;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.primeframework.persistence.jdbc.CachingConnection;
 import org.primeframework.persistence.txn.TransactionContext;
 import org.primeframework.persistence.txn.TransactionContextManager;
 import org.primeframework.persistence.txn.jdbc.JDBCTransactionalResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 /**
  * This is the default implementation of the JDBC service.
+ * <p/>
+ * If replica DataSources are bound under the name <code>jdbc.replicas</code>, reads are run on a replica when the
+ * current Thread isn't in a transaction or is in a read-only transaction (see {@link
+ * org.primeframework.persistence.txn.annotation.Transactional#readOnly()}). Once a Thread has written to the primary,
+ * its reads stay on the primary for the rest of the request and for the stickiness window after that, so that it
+ * doesn't read data that the replicas don't have yet. If a replica Connection can't be opened, the read falls back to
+ * the primary.
  *
  * @author Brian Pontarelli
  */
 @Singleton
 public class DefaultJDBCService implements JDBCService {
+  public static final long DEFAULT_REPLICA_STICKINESS = 1000;
+  private final static Logger logger = LoggerFactory.getLogger(DefaultJDBCService.class);
   private final TransactionContextManager manager;
   private final DataSource dataSource;
+  private final ThreadLocal<Replica> checkedOut = new ThreadLocal<Replica>();
+  private final AtomicInteger next = new AtomicInteger();
+  private Replica[] replicas = new Replica[0];
+  private ReplicaBalancing replicaBalancing = ReplicaBalancing.ROUND_ROBIN;
+  private long replicaStickiness = DEFAULT_REPLICA_STICKINESS;
+  private int statementCacheSize;
 
   @Inject
   public DefaultJDBCService(TransactionContextManager manager, DataSource dataSource) {
@@ -42,6 +63,53 @@ public class DefaultJDBCService implements JDBCService {
     this.dataSource = dataSource;
   }
 
+  /**
+   * Sets the number of PreparedStatements that are cached for each Connection. If this is zero (the default), the
+   * statements aren't cached.
+   *
+   * @param statementCacheSize The cache size.
+   */
+  @Inject(optional = true)
+  public void setStatementCacheSize(@Named("jdbc.statementCacheSize") int statementCacheSize) {
+    this.statementCacheSize = statementCacheSize;
+  }
+
+  /**
+   * Sets the replica DataSources that reads are balanced across.
+   *
+   * @param replicas The replicas.
+   */
+  @Inject(optional = true)
+  public void setReplicas(@Named("jdbc.replicas") List<DataSource> replicas) {
+    Replica[] array = new Replica[replicas.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = new Replica(replicas.get(i));
+    }
+
+    this.replicas = array;
+  }
+
+  /**
+   * Sets how the replica for each Thread is picked. Defaults to {@link ReplicaBalancing#ROUND_ROBIN}.
+   *
+   * @param replicaBalancing The balancing.
+   */
+  @Inject(optional = true)
+  public void setReplicaBalancing(@Named("jdbc.replicaBalancing") ReplicaBalancing replicaBalancing) {
+    this.replicaBalancing = replicaBalancing;
+  }
+
+  /**
+   * Sets how long the reads of a Thread stay on the primary after it writes. This should be longer than the replication
+   * lag. Defaults to {@link #DEFAULT_REPLICA_STICKINESS}.
+   *
+   * @param replicaStickiness The window in milliseconds.
+   */
+  @Inject(optional = true)
+  public void setReplicaStickiness(@Named("jdbc.replicaStickiness") long replicaStickiness) {
+    this.replicaStickiness = replicaStickiness;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -61,14 +129,43 @@ public class DefaultJDBCService implements JDBCService {
     }
 
     try {
-      c = dataSource.getConnection();
+      c = open(dataSource);
       ConnectionContext.set(c);
+      enlist(c);
+      return c;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
 
-      TransactionContext txnContext = manager.getCurrent();
-      if (txnContext != null) {
-        txnContext.add(new JDBCTransactionalResource(c));
-      }
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Connection setupReadConnection() {
+    if (replicas.length == 0 || !canReadFromReplica()) {
+      return null;
+    }
 
+    Connection c = ConnectionContext.getReplica();
+    if (c != null) {
+      return c;
+    }
+
+    Replica replica = pick();
+    try {
+      c = open(replica.dataSource);
+    } catch (SQLException e) {
+      logger.warn("Unable to get a Connection from a replica. Reading from the primary instead.", e);
+      return null;
+    }
+
+    replica.active.incrementAndGet();
+    checkedOut.set(replica);
+    ConnectionContext.setReplica(c);
+
+    try {
+      enlist(c);
       return c;
     } catch (Exception e) {
       throw new RuntimeException(e);
@@ -81,14 +178,89 @@ public class DefaultJDBCService implements JDBCService {
   @Override
   public void tearDownConnection() {
     Connection c = ConnectionContext.get();
-    if (c != null) {
-      ConnectionContext.remove();
-      try {
-        c.setAutoCommit(true);
-        c.close();
-      } catch (SQLException e) {
-        throw new RuntimeException(e);
+    Connection replica = ConnectionContext.getReplica();
+    ConnectionContext.remove();
+
+    try {
+      if (replica != null) {
+        checkedOut.get().active.decrementAndGet();
+        checkedOut.remove();
+        close(replica);
+      }
+    } finally {
+      if (c != null) {
+        close(c);
+      }
+    }
+  }
+
+  private Connection open(DataSource dataSource) throws SQLException {
+    Connection c = dataSource.getConnection();
+    if (statementCacheSize > 0) {
+      c = new CachingConnection(c, statementCacheSize);
+    }
+
+    return c;
+  }
+
+  private void enlist(Connection c) throws Exception {
+    TransactionContext txnContext = manager.getCurrent();
+    if (txnContext != null) {
+      txnContext.add(new JDBCTransactionalResource(c));
+    }
+  }
+
+  private void close(Connection c) {
+    try {
+      c.setAutoCommit(true);
+      c.close();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads can go to a replica outside of transactions and in read-only transactions, unless the Thread wrote during
+   * this request or within the stickiness window.
+   */
+  private boolean canReadFromReplica() {
+    TransactionContext txnContext = manager.getCurrent();
+    if (txnContext != null && !txnContext.isReadOnly()) {
+      return false;
+    }
+
+    if (ConnectionContext.hasWritten()) {
+      return false;
+    }
+
+    long lastWrite = ConnectionContext.getLastWrite();
+    return lastWrite == 0 || System.currentTimeMillis() - lastWrite >= replicaStickiness;
+  }
+
+  private Replica pick() {
+    int start = (next.getAndIncrement() & Integer.MAX_VALUE) % replicas.length;
+    if (replicaBalancing == ReplicaBalancing.ROUND_ROBIN) {
+      return replicas[start];
+    }
+
+    // Start at the next replica in turn so that ties are spread out
+    Replica least = replicas[start];
+    for (int i = 1; i < replicas.length; i++) {
+      Replica replica = replicas[(start + i) % replicas.length];
+      if (replica.active.get() < least.active.get()) {
+        least = replica;
       }
     }
+
+    return least;
+  }
+
+  private static class Replica {
+    private final DataSource dataSource;
+    private final AtomicInteger active = new AtomicInteger();
+
+    private Replica(DataSource dataSource) {
+      this.dataSource = dataSource;
+    }
   }
 }
@@ -38,7 +38,15 @@ public interface JDBCService {
   Connection setupConnection();
 
   /**
-   * Removes the connection (if any) from the current context.
+   * This method determines if the current context can read from a replica and if it can, it checks the current context
+   * for an existing replica connection or creates a new one and puts it in the current context.
+   *
+   * @return The replica connection or null if reads should use the connection from {@link #setupConnection()}.
+   */
+  Connection setupReadConnection();
+
+  /**
+   * Removes the connection and the replica connection (if any) from the current context.
    */
   void tearDownConnection();
 }
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2001-2010, Inversoft Inc., All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.service.jdbc;
+
+/**
+ * The ways that the {@link DefaultJDBCService} picks the replica for a Thread's reads.
+ *
+ * @author Brian Pontarelli
+ */
+public enum ReplicaBalancing {
+  /**
+   * Each Thread gets the next replica in turn.
+   */
+  ROUND_ROBIN,
+
+  /**
+   * Each Thread gets the replica that has the fewest Connections checked out by this service.
+   */
+  LEAST_LOADED
+}
@@ -22,11 +22,14 @@ import javax.persistence.LockModeType;
 import javax.persistence.PersistenceException;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.primeframework.persistence.domain.Identifiable;
 import org.primeframework.persistence.domain.SoftDeletable;
+import org.primeframework.persistence.metrics.StatementMetrics;
 import org.primeframework.persistence.service.Transaction;
 
 import com.google.inject.Inject;
@@ -236,13 +239,78 @@ public class JPAPersistenceService implements PersistenceService {
     return q.getResultList();
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public <T extends Identifiable> List<T> findByTypeAfter(Class<T> type, Object lastId, int number) {
+    return findByTypeAfterInternal(type, lastId, number, true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <T extends Identifiable & SoftDeletable> List<T> findByTypeAfter(Class<T> type, Object lastId, int number,
+                                                                          boolean includeDeleted) {
+    return findByTypeAfterInternal(type, lastId, number, includeDeleted);
+  }
+
+  /**
+   * This is the internal method that handles keyset pagination by type. If the type is {@link
+   * org.primeframework.persistence.domain.SoftDeletable} and the includeDeleted flag is false, this also appends
+   * "eb.deleted = false" to the query.
+   *
+   * @param type           The type to find.
+   * @param lastId         The id of the last Object in the previous page or null for the first page.
+   * @param number         The number to fetch.
+   * @param includeDeleted Determines if this should return all the instances of the Object including those instances
+   *                       that are marked as deleted and are {@link org.primeframework.persistence.domain.SoftDeletable}
+   *                       objects.
+   * @return The list of objects found.
+   */
+  protected <T> List<T> findByTypeAfterInternal(Class<T> type, Object lastId, int number, boolean includeDeleted) {
+    StringBuilder queryString = new StringBuilder("select eb from ").append(stripPackage(type)).append(" eb");
+    String where = " where ";
+    if (SoftDeletable.class.isAssignableFrom(type) && !includeDeleted) {
+      queryString.append(where).append("eb.deleted = false");
+      where = " and ";
+    }
+
+    if (lastId != null) {
+      queryString.append(where).append("eb.id > ?1");
+    }
+
+    queryString.append(" order by eb.id");
+
+    TypedQuery<T> q = entityManager.createQuery(queryString.toString(), type);
+    if (lastId != null) {
+      q.setParameter(1, lastId);
+    }
+    q.setMaxResults(number);
+    return q.getResultList();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <T extends Identifiable> Iterator<T> iterateByType(Class<T> type, int pageSize) {
+    return new KeysetIterator<T>(type, pageSize, true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <T extends Identifiable & SoftDeletable> Iterator<T> iterateByType(Class<T> type, int pageSize,
+                                                                            boolean includeDeleted) {
+    return new KeysetIterator<T>(type, pageSize, includeDeleted);
+  }
+
   /**
    * {@inheritDoc}
    */
   public <T> List<T> queryAll(Class<T> type, String query, Object... params) {
     TypedQuery<T> q = entityManager.createQuery(query, type);
     addParams(q, params);
-    return q.getResultList();
+    return list(query, q);
   }
 
   /**
@@ -253,7 +321,62 @@ public class JPAPersistenceService implements PersistenceService {
     addParams(q, params);
     q.setFirstResult(start);
     q.setMaxResults(number);
-    return q.getResultList();
+    return list(query, q);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <T> List<T> queryAfter(Class<T> type, String query, String filter, String[] keys, Object[] last, int number,
+                                Object... params) {
+    if (keys.length == 0 || (last != null && last.length != keys.length)) {
+      throw new IllegalArgumentException("There must be at least one key and a last value for each key");
+    }
+
+    StringBuilder queryString = new StringBuilder(query);
+    String where = " where ";
+    if (filter != null) {
+      // The filter is wrapped so that an or in it can't escape the keyset condition
+      queryString.append(where).append("(").append(filter).append(")");
+      where = " and ";
+    }
+
+    if (last != null) {
+      queryString.append(where).append("(");
+
+      // This is the expanded form of (k1, k2) > (?, ?) since JPQL doesn't have row value comparisons
+      for (int i = 0; i < keys.length; i++) {
+        if (i > 0) {
+          queryString.append(" or ");
+        }
+
+        queryString.append("(");
+        for (int j = 0; j < i; j++) {
+          queryString.append(keys[j]).append(" = ?").append(params.length + j + 1).append(" and ");
+        }
+        queryString.append(keys[i]).append(" > ?").append(params.length + i + 1).append(")");
+      }
+
+      queryString.append(")");
+    }
+
+    queryString.append(" order by ");
+    for (int i = 0; i < keys.length; i++) {
+      if (i > 0) {
+        queryString.append(", ");
+      }
+      queryString.append(keys[i]);
+    }
+
+    TypedQuery<T> q = entityManager.createQuery(queryString.toString(), type);
+    addParams(q, params);
+    if (last != null) {
+      for (int i = 0; i < last.length; i++) {
+        q.setParameter(params.length + i + 1, last[i]);
+      }
+    }
+    q.setMaxResults(number);
+    return list(queryString.toString(), q);
   }
 
   /**
@@ -264,7 +387,7 @@ public class JPAPersistenceService implements PersistenceService {
     q.setFirstResult(0);
     q.setMaxResults(1);
     addParams(q, params);
-    List<T> results = q.getResultList();
+    List<T> results = list(query, q);
     if (results.size() > 0) {
       return results.get(0);
     }
@@ -278,7 +401,7 @@ public class JPAPersistenceService implements PersistenceService {
   public long queryCount(String query, Object... params) {
     TypedQuery<Long> q = entityManager.createQuery(query, Long.class);
     addParams(q, params);
-    return q.getSingleResult();
+    return (Long) single(query, q);
   }
 
   /**
@@ -287,7 +410,7 @@ public class JPAPersistenceService implements PersistenceService {
   public <T> List<T> queryAllWithNamedParameters(Class<T> type, String query, Map<String, Object> params) {
     TypedQuery<T> q = entityManager.createQuery(query, type);
     addNamedParams(q, params);
-    return q.getResultList();
+    return list(query, q);
   }
 
   /**
@@ -298,7 +421,7 @@ public class JPAPersistenceService implements PersistenceService {
     addNamedParams(q, params);
     q.setFirstResult(start);
     q.setMaxResults(number);
-    return q.getResultList();
+    return list(query, q);
   }
 
   /**
@@ -309,7 +432,7 @@ public class JPAPersistenceService implements PersistenceService {
     q.setFirstResult(0);
     q.setMaxResults(1);
     addNamedParams(q, params);
-    List<T> results = q.getResultList();
+    List<T> results = list(query, q);
     if (results.size() > 0) {
       return results.get(0);
     }
@@ -320,7 +443,7 @@ public class JPAPersistenceService implements PersistenceService {
   public long queryCountWithNamedParameters(String query, Map<String, Object> params) {
     Query q = entityManager.createQuery(query);
     addNamedParams(q, params);
-    return (Long) q.getSingleResult();
+    return (Long) single(query, q);
   }
 
   /**
@@ -329,7 +452,7 @@ public class JPAPersistenceService implements PersistenceService {
   public <T> List<T> namedQueryAll(Class<T> type, String query, Object... params) {
     TypedQuery<T> q = entityManager.createNamedQuery(query, type);
     addParams(q, params);
-    return q.getResultList();
+    return list(query, q);
   }
 
   /**
@@ -340,7 +463,7 @@ public class JPAPersistenceService implements PersistenceService {
     addParams(q, params);
     q.setFirstResult(start);
     q.setMaxResults(number);
-    return q.getResultList();
+    return list(query, q);
   }
 
   /**
@@ -349,7 +472,7 @@ public class JPAPersistenceService implements PersistenceService {
   public <T> T namedQueryFirst(Class<T> type, String query, Object... params) {
     TypedQuery<T> q = entityManager.createNamedQuery(query, type);
     addParams(q, params);
-    List<T> results = q.getResultList();
+    List<T> results = list(query, q);
     if (results.size() > 0) {
       return results.get(0);
     }
@@ -569,7 +692,7 @@ public class JPAPersistenceService implements PersistenceService {
     // Create the update and execute it
     Query query = entityManager.createQuery(statement);
     addParams(query, params);
-    int results = query.executeUpdate();
+    int results = update(statement, query);
 
     // No need for a try-catch block because a call to commit that fails will rollback the
     // transaction automatically for us.
@@ -588,7 +711,7 @@ public class JPAPersistenceService implements PersistenceService {
     // Create the update and execute it
     Query query = entityManager.createQuery(statement);
     addNamedParams(query, params);
-    int results = query.executeUpdate();
+    int results = update(statement, query);
 
     // No need for a try-catch block because a call to commit that fails will rollback the
     // transaction automatically for us.
@@ -650,4 +773,77 @@ public class JPAPersistenceService implements PersistenceService {
       q.setParameter(name, params.get(name));
     }
   }
+
+  /**
+   * Runs the query and records it in the {@link StatementMetrics}.
+   *
+   * @param query The JPQL or the name of the named query, which is used as the fingerprint.
+   * @param q     The query.
+   * @return The results.
+   */
+  private <T> List<T> list(String query, TypedQuery<T> q) {
+    long start = StatementMetrics.start();
+    List<T> results = q.getResultList();
+    StatementMetrics.record(query, start, results.size());
+    return results;
+  }
+
+  private Object single(String query, Query q) {
+    long start = StatementMetrics.start();
+    Object result = q.getSingleResult();
+    StatementMetrics.record(query, start, 1);
+    return result;
+  }
+
+  private int update(String statement, Query q) {
+    long start = StatementMetrics.start();
+    int results = q.executeUpdate();
+    StatementMetrics.record(statement, start, results);
+    return results;
+  }
+
+  /**
+   * Walks a table a page at a time using {@link #findByTypeAfterInternal}.
+   */
+  private class KeysetIterator<T extends Identifiable> implements Iterator<T> {
+    private final Class<T> type;
+    private final int pageSize;
+    private final boolean includeDeleted;
+    private List<T> page;
+    private int index;
+    private Object lastId;
+
+    private KeysetIterator(Class<T> type, int pageSize, boolean includeDeleted) {
+      if (pageSize < 1) {
+        throw new IllegalArgumentException("The page size must be greater than zero");
+      }
+
+      this.type = type;
+      this.pageSize = pageSize;
+      this.includeDeleted = includeDeleted;
+    }
+
+    public boolean hasNext() {
+      if (page == null || (index == page.size() && page.size() == pageSize)) {
+        page = findByTypeAfterInternal(type, lastId, pageSize, includeDeleted);
+        index = 0;
+      }
+
+      return index < page.size();
+    }
+
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      T t = page.get(index++);
+      lastId = t.getId();
+      return t;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
@@ -17,6 +17,7 @@ package org.primeframework.persistence.service.jpa;
 
 import javax.persistence.EntityManager;
 import javax.persistence.LockModeType;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -115,6 +116,56 @@ public interface PersistenceService {
    */
   <T extends SoftDeletable> List<T> findByType(Class<T> type, int start, int number, boolean includeDeleted);
 
+  /**
+   * This locates the next page of instances of an Object by class using keyset pagination. Rather than skipping over the
+   * previous pages like {@link #findByType(Class, int, int)}, this fetches the instances whose id is greater than the
+   * last id of the previous page. This takes the same amount of time for every page, no matter how deep.
+   *
+   * @param type   The type of Objects to fetch.
+   * @param lastId The id of the last Object in the previous page or null for the first page.
+   * @param number The number of results to return in this page.
+   * @return A List of the Objects found in the database ordered by id.
+   */
+  <T extends Identifiable> List<T> findByTypeAfter(Class<T> type, Object lastId, int number);
+
+  /**
+   * This locates the next page of instances of an Object by class using keyset pagination. See {@link
+   * #findByTypeAfter(Class, Object, int)}.
+   *
+   * @param type           The type of Objects to fetch.
+   * @param lastId         The id of the last Object in the previous page or null for the first page.
+   * @param number         The number of results to return in this page.
+   * @param includeDeleted Determines if this should return all the instances of the Object including those instances
+   *                       that are marked as deleted and are {@link SoftDeletable} objects.
+   * @return A List of the Objects found in the database ordered by id.
+   */
+  <T extends Identifiable & SoftDeletable> List<T> findByTypeAfter(Class<T> type, Object lastId, int number,
+                                                                   boolean includeDeleted);
+
+  /**
+   * Returns an Iterator that walks all of the instances of an Object by class in id order. The instances are fetched a
+   * page at a time using {@link #findByTypeAfter(Class, Object, int)}, so only a single page is held in memory by the
+   * Iterator. The instances are still managed, so long walks might need to call {@link #clearCache()} periodically.
+   *
+   * @param type     The type of Objects to fetch.
+   * @param pageSize The number of Objects fetched per page.
+   * @return The Iterator.
+   */
+  <T extends Identifiable> Iterator<T> iterateByType(Class<T> type, int pageSize);
+
+  /**
+   * Returns an Iterator that walks all of the instances of an Object by class in id order. See {@link
+   * #iterateByType(Class, int)}.
+   *
+   * @param type           The type of Objects to fetch.
+   * @param pageSize       The number of Objects fetched per page.
+   * @param includeDeleted Determines if this should return all the instances of the Object including those instances
+   *                       that are marked as deleted and are {@link SoftDeletable} objects.
+   * @return The Iterator.
+   */
+  <T extends Identifiable & SoftDeletable> Iterator<T> iterateByType(Class<T> type, int pageSize,
+                                                                     boolean includeDeleted);
+
   /**
    * Determines the total number of instances of the type given. If these are {@link SoftDeletable} Objects, this will
    * include all the deleted objects as well.
@@ -159,6 +210,30 @@ public interface PersistenceService {
    */
   <T> List<T> query(Class<T> type, String query, int start, int number, Object... params);
 
+  /**
+   * Executes the given query and returns the next page of results using keyset pagination. The query is only the select
+   * and from clauses, since this adds the where and order by clauses. The optional filter is combined with the
+   * condition that selects the results that come after the last result of the previous page, and the results are
+   * ordered by the keys. The keys must uniquely identify a result, so they usually end with the id. For example:
+   * <p/>
+   * <pre>
+   * queryAfter(User.class, "select u from User u", "u.active = ?1", new String[]{"u.name", "u.id"},
+   *   new Object[]{"Fred", 42}, 20, true)
+   * </pre>
+   *
+   * @param type   The type of Objects to fetch.
+   * @param query  The EJB3 query language select and from clauses, without a where or order by clause.
+   * @param filter (Optional) The condition that the results must match (e.g. u.active = ?1) or null.
+   * @param keys   The properties that the results are sorted by (e.g. u.name).
+   * @param last   The values of the keys for the last result of the previous page or null for the first page.
+   * @param number The number of results to return in this page.
+   * @param params A list of parameters that are parameterized within the filter (e.g. firstName = ?1). These are 1
+   *               based within the filter String.
+   * @return A List of the Objects found in the database.
+   */
+  <T> List<T> queryAfter(Class<T> type, String query, String filter, String[] keys, Object[] last, int number,
+                         Object... params);
+
   /**
    * Executes the given query and returns the first result from the query.
    *
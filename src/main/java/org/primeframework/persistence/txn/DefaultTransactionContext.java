@@ -34,6 +34,7 @@ public class DefaultTransactionContext implements TransactionContext {
   private boolean committed;
   private boolean rolledBack;
   private boolean rollbackOnly;
+  private boolean readOnly;
 
   /**
    * {@inheritDoc}
@@ -207,6 +208,27 @@ public class DefaultTransactionContext implements TransactionContext {
     rollbackOnly = true;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setReadOnly(boolean readOnly) {
+    if (started) {
+      throw new TransactionException("The transaction has already been started. The readOnly status must be set " +
+        "before the transaction is started.");
+    }
+
+    this.readOnly = readOnly;
+  }
+
   /**
    * {@inheritDoc}
    */
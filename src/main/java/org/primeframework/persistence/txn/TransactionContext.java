@@ -57,6 +57,18 @@ public interface TransactionContext {
    */
   void setRollbackOnly();
 
+  /**
+   * @return True if this transaction only reads.
+   */
+  boolean isReadOnly();
+
+  /**
+   * Sets whether or not this transaction only reads. This must be called before the transaction is started.
+   *
+   * @param readOnly True if the transaction only reads.
+   */
+  void setReadOnly(boolean readOnly);
+
   /**
    * Adds the given resources {@link TransactionalResource} to the transaction context.
    *
@@ -56,6 +56,7 @@ public class TransactionMethodInterceptor implements MethodInterceptor {
 
     boolean embedded = txnContext.isStarted();
     if (!embedded) {
+      txnContext.setReadOnly(readOnly(methodInvocation));
       txnContext.start();
     }
 
@@ -91,6 +92,16 @@ public class TransactionMethodInterceptor implements MethodInterceptor {
     return processorClass.newInstance();
   }
 
+  /**
+   * Called by the invoke method to determine if a new transaction only reads.
+   *
+   * @param methodInvocation The method invocation.
+   * @return The readOnly flag of the annotation.
+   */
+  protected boolean readOnly(MethodInvocation methodInvocation) {
+    return methodInvocation.getMethod().getAnnotation(Transactional.class).readOnly();
+  }
+
   /**
    * Ends the transaction.
    *
@@ -36,4 +36,10 @@ import org.primeframework.persistence.txn.TransactionResultProcessor;
 @Target({ElementType.METHOD})
 public @interface Transactional {
   Class<? extends TransactionResultProcessor> processor() default DefaultTransactionResultProcessor.class;
+
+  /**
+   * @return True if the method only reads. Read-only transactions run their JDBC reads on a replica if any replicas are
+   *         configured. This only has an effect on the outermost transactional method.
+   */
+  boolean readOnly() default false;
 }
\ No newline at end of file
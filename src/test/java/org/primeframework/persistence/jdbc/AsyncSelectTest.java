@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2011, Inversoft Inc., All Rights Reserved
+ */
+package org.primeframework.persistence.jdbc;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.primeframework.persistence.jdbc.AsyncSelect.Subscriber;
+import org.primeframework.persistence.jdbc.AsyncSelect.Subscription;
+import org.primeframework.persistence.jdbc.Select.RowHandler;
+import org.testng.annotations.Test;
+
+import static java.util.Arrays.*;
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * This class tests the async select.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class AsyncSelectTest {
+  @Test
+  public void backpressure() throws Exception {
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getString(1)).andReturn("a");
+    expect(rs.next()).andReturn(true);
+    expect(rs.getString(1)).andReturn("b");
+    expect(rs.next()).andReturn(true);
+    expect(rs.getString(1)).andReturn("c");
+    expect(rs.next()).andReturn(false);
+    rs.close();
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setFetchSize(2);
+    ps.setObject(1, 42);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("select name from users where group_id = ?", ResultSet.TYPE_FORWARD_ONLY,
+      ResultSet.CONCUR_READ_ONLY)).andReturn(ps);
+    c.close();
+    replay(c);
+
+    DataSource ds = createStrictMock(DataSource.class);
+    expect(ds.getConnection()).andReturn(c);
+    replay(ds);
+
+    ExecutorService executor = AsyncSelect.newExecutor(1);
+    try {
+      TestSubscriber subscriber = new TestSubscriber(2);
+      new AsyncSelect<String>(ds, executor, "select name from users where group_id = ?", new RowHandler<String>() {
+        public String row(ResultSet rs) throws SQLException {
+          return rs.getString(1);
+        }
+      }).with(42).fetchSize(2).subscribe(subscriber);
+
+      // Nothing is fetched until there is demand
+      Thread.sleep(50);
+      assertTrue(subscriber.items.isEmpty());
+
+      subscriber.subscription.request(2);
+      assertTrue(subscriber.received.await(5, TimeUnit.SECONDS));
+      Thread.sleep(50);
+      assertEquals(subscriber.items, asList("a", "b"));
+      assertFalse(subscriber.complete);
+
+      subscriber.subscription.request(10);
+      assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+      assertEquals(subscriber.items, asList("a", "b", "c"));
+      assertTrue(subscriber.complete);
+      assertNull(subscriber.error);
+    } finally {
+      executor.shutdown();
+    }
+
+    verify(rs, ps, c, ds);
+  }
+
+  @Test
+  public void cancel() throws Exception {
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getString(1)).andReturn("a");
+    rs.close();
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setFetchSize(Select.DEFAULT_FETCH_SIZE);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("select name from users", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(ps);
+    c.close();
+    replay(c);
+
+    DataSource ds = createStrictMock(DataSource.class);
+    expect(ds.getConnection()).andReturn(c);
+    replay(ds);
+
+    ExecutorService executor = AsyncSelect.newExecutor(1);
+    try {
+      TestSubscriber subscriber = new TestSubscriber(1);
+      new AsyncSelect<String>(ds, executor, "select name from users", new RowHandler<String>() {
+        public String row(ResultSet rs) throws SQLException {
+          return rs.getString(1);
+        }
+      }).subscribe(subscriber);
+
+      subscriber.subscription.request(1);
+      assertTrue(subscriber.received.await(5, TimeUnit.SECONDS));
+      subscriber.subscription.cancel();
+
+      // Cancelling closes everything on the executor thread
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+      assertEquals(subscriber.items, asList("a"));
+      assertFalse(subscriber.complete);
+    } finally {
+      executor.shutdown();
+    }
+
+    verify(rs, ps, c, ds);
+  }
+
+  @Test
+  public void error() throws Exception {
+    DataSource ds = createStrictMock(DataSource.class);
+    expect(ds.getConnection()).andThrow(new SQLException("No connections"));
+    replay(ds);
+
+    ExecutorService executor = AsyncSelect.newExecutor(1);
+    try {
+      TestSubscriber subscriber = new TestSubscriber(0);
+      new AsyncSelect<String>(ds, executor, "select name from users", new RowHandler<String>() {
+        public String row(ResultSet rs) throws SQLException {
+          return rs.getString(1);
+        }
+      }).subscribe(subscriber);
+
+      subscriber.subscription.request(1);
+      assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+      assertTrue(subscriber.error instanceof SQLException);
+    } finally {
+      executor.shutdown();
+    }
+
+    verify(ds);
+  }
+
+  @Test
+  public void rejected() throws Exception {
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getString(1)).andReturn("a");
+    rs.close();
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setFetchSize(Select.DEFAULT_FETCH_SIZE);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("select name from users", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(ps);
+    c.close();
+    replay(c);
+
+    DataSource ds = createStrictMock(DataSource.class);
+    expect(ds.getConnection()).andReturn(c);
+    replay(ds);
+
+    ExecutorService executor = AsyncSelect.newExecutor(1);
+    try {
+      TestSubscriber subscriber = new TestSubscriber(1);
+      new AsyncSelect<String>(ds, executor, "select name from users", new RowHandler<String>() {
+        public String row(ResultSet rs) throws SQLException {
+          return rs.getString(1);
+        }
+      }).subscribe(subscriber);
+
+      subscriber.subscription.request(1);
+      assertTrue(subscriber.received.await(5, TimeUnit.SECONDS));
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+      // The executor rejects the next drain, so the cursor is closed and the error is reported right away
+      subscriber.subscription.request(1);
+      assertEquals(subscriber.done.getCount(), 0);
+      assertTrue(subscriber.error instanceof RejectedExecutionException);
+
+      // Later calls don't report the error again
+      subscriber.error = null;
+      subscriber.subscription.request(1);
+      assertNull(subscriber.error);
+      assertEquals(subscriber.items, asList("a"));
+    } finally {
+      executor.shutdown();
+    }
+
+    verify(rs, ps, c, ds);
+  }
+
+  public static class TestSubscriber implements Subscriber<String> {
+    public final List<String> items = new ArrayList<String>();
+    public final CountDownLatch received;
+    public final CountDownLatch done = new CountDownLatch(1);
+    public volatile Subscription subscription;
+    public volatile boolean complete;
+    public volatile Throwable error;
+
+    public TestSubscriber(int expected) {
+      this.received = new CountDownLatch(expected);
+    }
+
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    public void onNext(String item) {
+      synchronized (items) {
+        items.add(item);
+      }
+      received.countDown();
+    }
+
+    public void onError(Throwable throwable) {
+      error = throwable;
+      done.countDown();
+    }
+
+    public void onComplete() {
+      complete = true;
+      done.countDown();
+    }
+  }
+}
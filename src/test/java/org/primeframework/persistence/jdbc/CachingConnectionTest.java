@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2011, Inversoft Inc., All Rights Reserved
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.testng.annotations.Test;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * This class tests the caching connection.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class CachingConnectionTest {
+  @Test
+  public void reuse() throws SQLException {
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, 1);
+    expect(ps.executeUpdate()).andReturn(1);
+    expect(ps.isClosed()).andReturn(false);
+    ps.clearParameters();
+    ps.clearBatch();
+    expect(ps.isClosed()).andReturn(false);
+    ps.setObject(1, 2);
+    expect(ps.executeUpdate()).andReturn(1);
+    expect(ps.isClosed()).andReturn(false);
+    ps.clearParameters();
+    ps.clearBatch();
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("update foo set bar = 1 where id = ?", Statement.NO_GENERATED_KEYS)).andReturn(ps);
+    c.close();
+    replay(c);
+
+    CachingConnection cc = new CachingConnection(c, 10);
+    assertEquals(new Update(cc, "update foo set bar = 1 where id = ?").with(1).go(), 1);
+    assertEquals(new Update(cc, "update foo set bar = 1 where id = ?").with(2).go(), 1);
+    assertEquals(cc.getCache().getHits(), 1);
+    assertEquals(cc.getCache().getMisses(), 1);
+    assertEquals(cc.getCache().size(), 1);
+    cc.close();
+
+    verify(ps, c);
+  }
+
+  @Test
+  public void evict() throws SQLException {
+    PreparedStatement ps1 = createStrictMock(PreparedStatement.class);
+    expect(ps1.executeUpdate()).andReturn(1);
+    expect(ps1.isClosed()).andReturn(false);
+    ps1.clearParameters();
+    ps1.clearBatch();
+    ps1.close();
+    replay(ps1);
+
+    PreparedStatement ps2 = createStrictMock(PreparedStatement.class);
+    expect(ps2.executeUpdate()).andReturn(1);
+    expect(ps2.isClosed()).andReturn(false);
+    ps2.clearParameters();
+    ps2.clearBatch();
+    replay(ps2);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("delete from foo", Statement.NO_GENERATED_KEYS)).andReturn(ps1);
+    expect(c.prepareStatement("delete from bar", Statement.NO_GENERATED_KEYS)).andReturn(ps2);
+    replay(c);
+
+    CachingConnection cc = new CachingConnection(c, 1);
+    new Delete(cc).from("foo").execute();
+    new Delete(cc).from("bar").execute();
+    assertEquals(cc.getCache().size(), 1);
+    assertEquals(cc.getCache().getMisses(), 2);
+
+    verify(ps1, ps2, c);
+  }
+}
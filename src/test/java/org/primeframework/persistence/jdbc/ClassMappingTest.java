@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2011, Inversoft Inc., All Rights Reserved
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.util.Arrays;
+
+import org.primeframework.persistence.jdbc.InsertTest.TestDomainAnnotated;
+import org.primeframework.persistence.jdbc.InsertTest.TestDomainInferred;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * This class tests the class mapping.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class ClassMappingTest {
+  @Test
+  public void inferred() {
+    ClassMapping mapping = ClassMapping.of(TestDomainInferred.class);
+    assertSame(ClassMapping.of(TestDomainInferred.class), mapping);
+    assertEquals(mapping.tableName, "test_domain_inferred");
+    assertEquals(mapping.columns, Arrays.asList("column_one", "column_two"));
+    assertEquals(mapping.columnList, "column_one,column_two");
+    assertEquals(mapping.placeholders, "(?,?)");
+    assertEquals(mapping.values(new TestDomainInferred(1, "one")), new Object[]{1, "one"});
+  }
+
+  @Test
+  public void annotated() {
+    ClassMapping mapping = ClassMapping.of(TestDomainAnnotated.class);
+    assertEquals(mapping.tableName, "foo");
+    assertEquals(mapping.columns, Arrays.asList("column_1", "column_2"));
+    assertEquals(mapping.size(), 2);
+    assertEquals(mapping.value(1, new TestDomainAnnotated(1, "two", "three")), "two");
+  }
+}
@@ -6,8 +6,14 @@ package org.primeframework.persistence.jdbc;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.primeframework.persistence.jdbc.Delete.DeleteException;
+import org.primeframework.persistence.jdbc.Delete.PurgeInterruptedException;
+import org.primeframework.persistence.jdbc.Delete.PurgeListener;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -46,6 +52,28 @@ public class DeleteTest {
     }
   }
 
+  @Test
+  public void executeTwice() throws SQLException {
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, 1);
+    expect(ps.executeUpdate()).andReturn(1);
+    ps.close();
+    ps.setObject(1, 1);
+    expect(ps.executeUpdate()).andReturn(0);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("delete from foo where id = ?")).andReturn(ps).times(2);
+    replay(c);
+
+    Delete delete = new Delete(c).from("foo").where("id").isEqualTo(1);
+    Assert.assertEquals(delete.execute(), 1);
+    Assert.assertEquals(delete.execute(), 0);
+
+    verify(ps, c);
+  }
+
   @Test
   public void noParams() throws SQLException {
 
@@ -126,4 +154,113 @@ public class DeleteTest {
 
     verify(ps, c);
   }
+
+  @Test
+  public void purgeLessThanMySQL() throws SQLException {
+    PreparedStatement ps1 = createStrictMock(PreparedStatement.class);
+    ps1.setObject(1, 42);
+    expect(ps1.executeUpdate()).andReturn(100);
+    ps1.close();
+    replay(ps1);
+
+    PreparedStatement ps2 = createStrictMock(PreparedStatement.class);
+    ps2.setObject(1, 42);
+    expect(ps2.executeUpdate()).andReturn(7);
+    ps2.close();
+    replay(ps2);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.getAutoCommit()).andReturn(true);
+    expect(c.prepareStatement("delete from foo where bar < ? order by id limit 100")).andReturn(ps1);
+    expect(c.prepareStatement("delete from foo where bar < ? order by id limit 100")).andReturn(ps2);
+    replay(c);
+
+    final List<Long> progress = new ArrayList<Long>();
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.MYSQL;
+    try {
+      long total = new Delete(c).from("foo").where("bar").isLessThan(42).purge(100).go(new PurgeListener() {
+        @Override
+        public void chunk(int chunk, int deleted, long total) {
+          progress.add(total);
+        }
+      });
+      Assert.assertEquals(total, 107);
+      Assert.assertEquals(progress.size(), 2);
+      Assert.assertEquals((long) progress.get(1), 107);
+    } finally {
+      DatabaseType.database = old;
+    }
+
+    verify(ps1, ps2, c);
+  }
+
+  @Test
+  public void purgeIn() throws SQLException {
+    PreparedStatement ps1 = createStrictMock(PreparedStatement.class);
+    ps1.setObject(1, "a");
+    ps1.setObject(2, "b");
+    expect(ps1.executeUpdate()).andReturn(2);
+    ps1.close();
+    replay(ps1);
+
+    PreparedStatement ps2 = createStrictMock(PreparedStatement.class);
+    ps2.setObject(1, "c");
+    expect(ps2.executeUpdate()).andReturn(1);
+    ps2.close();
+    replay(ps2);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.getAutoCommit()).andReturn(true);
+    expect(c.prepareStatement("delete from foo where bar in (?,?)")).andReturn(ps1);
+    expect(c.prepareStatement("delete from foo where bar in (?)")).andReturn(ps2);
+    replay(c);
+
+    long total = new Delete(c).from("foo").where("bar").in("a", "b", "c").purge(2).go();
+    Assert.assertEquals(total, 3);
+
+    verify(ps1, ps2, c);
+  }
+
+  @Test
+  public void purgeInTransaction() throws SQLException {
+    Connection c = createStrictMock(Connection.class);
+    expect(c.getAutoCommit()).andReturn(false);
+    replay(c);
+
+    try {
+      new Delete(c).from("foo").where("bar").isLessThan(42).purge(100).go();
+      Assert.fail("Should have failed");
+    } catch (DeleteException e) {
+      // Expected
+    }
+
+    verify(c);
+  }
+
+  @Test
+  public void purgeInterrupted() throws SQLException {
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, "a");
+    expect(ps.executeUpdate()).andReturn(1);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.getAutoCommit()).andReturn(true);
+    expect(c.prepareStatement("delete from foo where bar in (?)")).andReturn(ps);
+    replay(c);
+
+    Thread.currentThread().interrupt();
+    try {
+      new Delete(c).from("foo").where("bar").in("a", "b").purge(1).pause(10).go();
+      Assert.fail("Should have been interrupted");
+    } catch (PurgeInterruptedException e) {
+      Assert.assertEquals(e.total, 1);
+    } finally {
+      Assert.assertTrue(Thread.interrupted());
+    }
+
+    verify(ps, c);
+  }
 }
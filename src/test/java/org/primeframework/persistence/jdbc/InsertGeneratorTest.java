@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2011, Inversoft Inc., All Rights Reserved
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.zip.GZIPInputStream;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * This class tests the insert generator.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class InsertGeneratorTest {
+  @Test
+  public void inMemory() {
+    String sql = new InsertGenerator().insert("insert into foo (a,b) values ").values(1, "it's").values(null, InsertGenerator.NOW).sql();
+    assertEquals(sql, "insert into foo (a,b) values (1,'it''s'),\n(null,now());\n");
+  }
+
+  @Test
+  public void streamingToString() {
+    InsertGenerator generator = new InsertGenerator(new StringWriter()).insert("insert into foo (a) values ");
+    generator.values(1).values(2);
+    assertEquals(generator.toString(), "InsertGenerator{streaming 2 rows for [insert into foo (a) values ]}");
+
+    try {
+      generator.sql();
+      fail("Should have failed");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void writer() {
+    StringWriter writer = new StringWriter();
+    InsertGenerator generator = new InsertGenerator(writer).insert("insert into foo (a) values ");
+    for (int i = 0; i < 10001; i++) {
+      generator.values(i);
+    }
+    generator.close();
+
+    String sql = writer.toString();
+    assertTrue(sql.startsWith("insert into foo (a) values (0),\n(1),\n"));
+    assertTrue(sql.endsWith("(9999);\ninsert into foo (a) values (10000);\n"));
+  }
+
+  @Test
+  public void gzip() throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    InsertGenerator generator = new InsertGenerator(baos, true).insert("insert into foo (a) values ");
+    generator.values("one").values("two");
+    generator.close();
+
+    Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray())), "UTF-8");
+    StringBuilder build = new StringBuilder();
+    char[] buf = new char[1024];
+    int count;
+    while ((count = reader.read(buf)) != -1) {
+      build.append(buf, 0, count);
+    }
+
+    assertEquals(build.toString(), "insert into foo (a) values ('one'),\n('two');\n");
+  }
+}
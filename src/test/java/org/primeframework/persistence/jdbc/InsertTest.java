@@ -15,8 +15,11 @@ import java.sql.Statement;
 import org.primeframework.persistence.jdbc.Insert.GeneratedKeyHandler;
 import org.primeframework.persistence.jdbc.Insert.InsertResult;
 import org.primeframework.persistence.jdbc.convert.TypeConverter;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
 import org.testng.annotations.Test;
 
+import static java.util.Arrays.*;
 import static org.easymock.EasyMock.*;
 import static org.testng.Assert.*;
 
@@ -72,6 +75,7 @@ public class InsertTest {
     expect(rs.next()).andReturn(true);
     expect(rs.getInt(1)).andReturn(123);
     expect(rs.next()).andReturn(false);
+    rs.close();
     replay(rs);
 
     PreparedStatement ps = createStrictMock(PreparedStatement.class);
@@ -123,6 +127,298 @@ public class InsertTest {
     verify(ps, c);
   }
 
+  @Test
+  public void bulkChunked() throws SQLException {
+    PreparedStatement ps1 = createStrictMock(PreparedStatement.class);
+    ps1.setObject(1, 1);
+    ps1.setObject(2, 2);
+    ps1.setObject(3, 3);
+    ps1.setObject(4, 4);
+    expect(ps1.executeUpdate()).andReturn(2);
+    ps1.close();
+    replay(ps1);
+
+    PreparedStatement ps2 = createStrictMock(PreparedStatement.class);
+    ps2.setObject(1, 5);
+    ps2.setObject(2, 6);
+    expect(ps2.executeUpdate()).andReturn(1);
+    ps2.close();
+    replay(ps2);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.getAutoCommit()).andReturn(true);
+    c.setAutoCommit(false);
+    expect(c.prepareStatement("insert into foo (bar, baz) values (?,?),(?,?)", Statement.NO_GENERATED_KEYS)).andReturn(ps1);
+    expect(c.prepareStatement("insert into foo (bar, baz) values (?,?)", Statement.NO_GENERATED_KEYS)).andReturn(ps2);
+    c.commit();
+    c.setAutoCommit(true);
+    replay(c);
+
+    Insert i = new Insert(c, "insert into foo (bar, baz) values ").maxBulkParameters(4);
+    i.addBulk(1, 2);
+    i.addBulk(3, 4);
+    i.addBulk(5, 6);
+    int num = i.go();
+    assertEquals(num, 3);
+
+    verify(ps1, ps2, c);
+  }
+
+  @Test
+  public void batch() throws SQLException {
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, 1);
+    ps.setObject(2, 2);
+    ps.addBatch();
+    ps.setObject(1, 3);
+    ps.setObject(2, 4);
+    ps.addBatch();
+    expect(ps.executeBatch()).andReturn(new int[]{1, 1});
+    ps.setObject(1, 5);
+    ps.setObject(2, 6);
+    ps.addBatch();
+    expect(ps.executeBatch()).andReturn(new int[]{1});
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("insert into foo (bar, baz) values (?,?)", Statement.NO_GENERATED_KEYS)).andReturn(ps);
+    replay(c);
+
+    Insert i = new Insert(c, "insert into foo (bar, baz) values (?,?)").batchSize(2);
+    i.with(1, 2).addBatch();
+    i.with(3, 4).addBatch();
+    i.with(5, 6);
+    int[] counts = i.goBatch();
+    assertEquals(counts, new int[]{1, 1, 1});
+
+    verify(ps, c);
+  }
+
+  @Test
+  public void bulkGeneratedKeysPostgreSQL() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.POSTGRESQL;
+    try {
+      ResultSet keys1 = createStrictMock(ResultSet.class);
+      expect(keys1.next()).andReturn(true);
+      expect(keys1.getInt(1)).andReturn(10);
+      expect(keys1.next()).andReturn(true);
+      expect(keys1.getInt(1)).andReturn(11);
+      expect(keys1.next()).andReturn(false);
+      keys1.close();
+      replay(keys1);
+
+      ResultSet keys2 = createStrictMock(ResultSet.class);
+      expect(keys2.next()).andReturn(true);
+      expect(keys2.getInt(1)).andReturn(12);
+      expect(keys2.next()).andReturn(false);
+      keys2.close();
+      replay(keys2);
+
+      PreparedStatement ps1 = createStrictMock(PreparedStatement.class);
+      ps1.setObject(1, "a");
+      ps1.setObject(2, "b");
+      expect(ps1.executeUpdate()).andReturn(2);
+      expect(ps1.getGeneratedKeys()).andReturn(keys1);
+      ps1.close();
+      replay(ps1);
+
+      PreparedStatement ps2 = createStrictMock(PreparedStatement.class);
+      ps2.setObject(1, "c");
+      expect(ps2.executeUpdate()).andReturn(1);
+      expect(ps2.getGeneratedKeys()).andReturn(keys2);
+      ps2.close();
+      replay(ps2);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.getAutoCommit()).andReturn(false);
+      expect(c.prepareStatement(eq("insert into foo (name) values (?),(?)"), aryEq(new String[]{"id"}))).andReturn(ps1);
+      expect(c.prepareStatement(eq("insert into foo (name) values (?)"), aryEq(new String[]{"id"}))).andReturn(ps2);
+      replay(c);
+
+      Insert i = new Insert(c, "insert into foo (name) values ").maxBulkParameters(2).keyColumn("id");
+      i.addBulk("a").addBulk("b").addBulk("c");
+      InsertResult<Integer> result = i.go(new GeneratedKeyHandler<Integer>() {
+        public Integer handle(ResultSet rs) throws SQLException {
+          return rs.getInt(1);
+        }
+      });
+      assertEquals(result.count, 3);
+      assertEquals(result.keys, asList(10, 11, 12));
+
+      verify(keys1, keys2, ps1, ps2, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void bulkChunkedFailure() throws SQLException {
+    PreparedStatement ps1 = createStrictMock(PreparedStatement.class);
+    ps1.setObject(1, 1);
+    ps1.setObject(2, 2);
+    expect(ps1.executeUpdate()).andReturn(1);
+    ps1.close();
+    replay(ps1);
+
+    PreparedStatement ps2 = createStrictMock(PreparedStatement.class);
+    ps2.setObject(1, 3);
+    ps2.setObject(2, 4);
+    expect(ps2.executeUpdate()).andThrow(new SQLException("Bad"));
+    ps2.close();
+    replay(ps2);
+
+    // The first chunk is rolled back along with the second one
+    Connection c = createStrictMock(Connection.class);
+    expect(c.getAutoCommit()).andReturn(true);
+    c.setAutoCommit(false);
+    expect(c.prepareStatement("insert into foo (bar, baz) values (?,?)", Statement.NO_GENERATED_KEYS)).andReturn(ps1);
+    expect(c.prepareStatement("insert into foo (bar, baz) values (?,?)", Statement.NO_GENERATED_KEYS)).andReturn(ps2);
+    c.rollback();
+    c.setAutoCommit(true);
+    replay(c);
+
+    Insert i = new Insert(c, "insert into foo (bar, baz) values ").maxBulkParameters(2);
+    i.addBulk(1, 2);
+    i.addBulk(3, 4);
+    try {
+      i.go();
+      fail("Should have failed");
+    } catch (Insert.InsertException e) {
+      // Expected
+    }
+
+    verify(ps1, ps2, c);
+  }
+
+  @Test
+  public void generatedKeysPostgreSQLDefault() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.POSTGRESQL;
+    try {
+      ResultSet keys = createStrictMock(ResultSet.class);
+      expect(keys.next()).andReturn(true);
+      expect(keys.getInt(1)).andReturn(10);
+      expect(keys.next()).andReturn(false);
+      keys.close();
+      replay(keys);
+
+      PreparedStatement ps = createStrictMock(PreparedStatement.class);
+      ps.setObject(1, "a");
+      expect(ps.executeUpdate()).andReturn(1);
+      expect(ps.getGeneratedKeys()).andReturn(keys);
+      ps.close();
+      replay(ps);
+
+      // Without a key column, the driver decides what is returned
+      Connection c = createStrictMock(Connection.class);
+      expect(c.prepareStatement("insert into foo (name) values (?)", Statement.RETURN_GENERATED_KEYS)).andReturn(ps);
+      replay(c);
+
+      InsertResult<Integer> result = new Insert(c, "insert into foo (name) values (?)").with("a").go(new GeneratedKeyHandler<Integer>() {
+        public Integer handle(ResultSet rs) throws SQLException {
+          return rs.getInt(1);
+        }
+      });
+      assertEquals(result.count, 1);
+      assertEquals(result.keys, asList(10));
+
+      verify(keys, ps, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void batchGeneratedKeys() throws SQLException {
+    ResultSet keys1 = createStrictMock(ResultSet.class);
+    expect(keys1.next()).andReturn(true);
+    expect(keys1.getLong(1)).andReturn(1L);
+    expect(keys1.next()).andReturn(true);
+    expect(keys1.getLong(1)).andReturn(2L);
+    expect(keys1.next()).andReturn(false);
+    keys1.close();
+    replay(keys1);
+
+    ResultSet keys2 = createStrictMock(ResultSet.class);
+    expect(keys2.next()).andReturn(true);
+    expect(keys2.getLong(1)).andReturn(3L);
+    expect(keys2.next()).andReturn(false);
+    keys2.close();
+    replay(keys2);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, "a");
+    ps.addBatch();
+    ps.setObject(1, "b");
+    ps.addBatch();
+    expect(ps.executeBatch()).andReturn(new int[]{1, 1});
+    expect(ps.getGeneratedKeys()).andReturn(keys1);
+    ps.setObject(1, "c");
+    ps.addBatch();
+    expect(ps.executeBatch()).andReturn(new int[]{1});
+    expect(ps.getGeneratedKeys()).andReturn(keys2);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("insert into foo (name) values (?)", Statement.RETURN_GENERATED_KEYS)).andReturn(ps);
+    replay(c);
+
+    Insert i = new Insert(c, "insert into foo (name) values (?)").batchSize(2);
+    i.with("a").addBatch();
+    i.with("b").addBatch();
+    i.with("c");
+    InsertResult<Long> result = i.goBatch(new GeneratedKeyHandler<Long>() {
+      public Long handle(ResultSet rs) throws SQLException {
+        return rs.getLong(1);
+      }
+    });
+    assertEquals(result.count, 3);
+    assertEquals(result.keys, asList(1L, 2L, 3L));
+
+    verify(keys1, keys2, ps, c);
+  }
+
+  @Test
+  public void objectsGeneratedKeys() throws Exception {
+    ResultSet keys = createStrictMock(ResultSet.class);
+    expect(keys.next()).andReturn(true);
+    expect(keys.getInt(1)).andReturn(7);
+    expect(keys.next()).andReturn(true);
+    expect(keys.getInt(1)).andReturn(8);
+    expect(keys.next()).andReturn(false);
+    keys.close();
+    replay(keys);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, 1);
+    ps.setObject(2, "test1");
+    ps.setObject(3, 2);
+    ps.setObject(4, "test2");
+    expect(ps.executeUpdate()).andReturn(2);
+    expect(ps.getGeneratedKeys()).andReturn(keys);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("insert into test_domain_inferred (column_one,column_two) values (?,?),(?,?)", Statement.RETURN_GENERATED_KEYS)).andReturn(ps);
+    replay(c);
+
+    InsertResult<Integer> result = new Insert(c).into(TestDomainInferred.class).
+      objects(new TestDomainInferred(1, "test1"), new TestDomainInferred(2, "test2")).
+      go(new GeneratedKeyHandler<Integer>() {
+        public Integer handle(ResultSet rs) throws SQLException {
+          return rs.getInt(1);
+        }
+      });
+    assertEquals(result.count, 2);
+    assertEquals(result.keys, asList(7, 8));
+
+    verify(keys, ps, c);
+  }
+
   @Test
   public void objectsInferred() throws Exception {
     PreparedStatement ps = createStrictMock(PreparedStatement.class);
@@ -187,6 +483,33 @@ public class InsertTest {
     verify(ps, c);
   }
 
+  @Test
+  public void copyFallback() throws Exception {
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, 1);
+    ps.setObject(2, "test1");
+    ps.setObject(3, 2);
+    ps.setObject(4, "test2");
+    expect(ps.executeUpdate()).andReturn(2);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("insert into test_domain_inferred (column_one,column_two) values (?,?),(?,?)", Statement.NO_GENERATED_KEYS)).andReturn(ps);
+    replay(c);
+
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.MYSQL;
+    try {
+      long num = new Insert(c).into(TestDomainInferred.class).objects(new TestDomainInferred(1, "test1"), new TestDomainInferred(2, "test2")).copy();
+      assertEquals(num, 2);
+    } finally {
+      DatabaseType.database = old;
+    }
+
+    verify(ps, c);
+  }
+
   public static class TestDomainInferred {
     public Integer columnOne;
     public String columnTwo;
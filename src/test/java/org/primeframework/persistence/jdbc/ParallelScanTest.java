@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2011, Inversoft Inc., All Rights Reserved
+ */
+package org.primeframework.persistence.jdbc;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.primeframework.persistence.jdbc.ParallelScan.ScanException;
+import org.primeframework.persistence.jdbc.ParallelScan.ScanListener;
+import org.primeframework.persistence.jdbc.Select.SelectHandler;
+import org.testng.annotations.Test;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * This class tests the parallel scan.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class ParallelScanTest {
+  @Test
+  public void integerKey() throws SQLException {
+    ResultSet rangeRS = createStrictMock(ResultSet.class);
+    expect(rangeRS.next()).andReturn(true);
+    expect(rangeRS.getObject(1)).andReturn(1);
+    expect(rangeRS.getObject(2)).andReturn(100);
+    replay(rangeRS);
+
+    PreparedStatement rangePS = createStrictMock(PreparedStatement.class);
+    rangePS.setObject(1, false);
+    expect(rangePS.executeQuery()).andReturn(rangeRS);
+    rangePS.close();
+    replay(rangePS);
+
+    Connection rangeC = createStrictMock(Connection.class);
+    expect(rangeC.prepareStatement("select min(id), max(id) from users where (deleted = ?)")).andReturn(rangePS);
+    rangeC.close();
+    replay(rangeC);
+
+    // A single thread runs the segments in order
+    long[][] bounds = {{1, 26}, {26, 51}, {51, 76}, {76, 100}};
+    DataSource ds = createMock(DataSource.class);
+    expect(ds.getConnection()).andReturn(rangeC);
+    for (int i = 0; i < bounds.length; i++) {
+      boolean last = i == bounds.length - 1;
+      ResultSet rs = createMock(ResultSet.class);
+      expect(rs.next()).andReturn(true).times(i + 1);
+      expect(rs.next()).andReturn(false);
+      replay(rs);
+
+      PreparedStatement ps = createMock(PreparedStatement.class);
+      ps.setFetchSize(Select.DEFAULT_FETCH_SIZE);
+      ps.setObject(1, false);
+      ps.setObject(2, bounds[i][0]);
+      ps.setObject(3, bounds[i][1]);
+      expect(ps.executeQuery()).andReturn(rs);
+      ps.close();
+      replay(ps);
+
+      Connection c = createMock(Connection.class);
+      String sql = "select id, name from users where (deleted = ?) and id >= ? and id " + (last ? "<=" : "<") + " ?";
+      expect(c.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(ps);
+      c.close();
+      replay(c);
+
+      expect(ds.getConnection()).andReturn(c);
+    }
+    replay(ds);
+
+    final AtomicInteger rows = new AtomicInteger();
+    final Map<Integer, Long> progress = new ConcurrentHashMap<Integer, Long>();
+    long total = new ParallelScan(ds, "users", "id").columns("id, name").where("deleted = ?", false).parallelism(1).
+      segments(4).listener(new ScanListener() {
+      public void finished(int segment, long rows) {
+        progress.put(segment, rows);
+      }
+    }).go(new SelectHandler() {
+      public void row(ResultSet rs) throws SQLException {
+        rows.incrementAndGet();
+      }
+    });
+
+    assertEquals(total, 10);
+    assertEquals(rows.get(), 10);
+    assertEquals(progress.size(), 4);
+    for (int i = 0; i < 4; i++) {
+      assertEquals((long) progress.get(i), i + 1);
+    }
+  }
+
+  @Test
+  public void uuidKey() throws SQLException {
+    UUID min = new UUID(0, 0);
+    UUID max = new UUID(-1, -1);
+
+    ResultSet rangeRS = createStrictMock(ResultSet.class);
+    expect(rangeRS.next()).andReturn(true);
+    expect(rangeRS.getObject(1)).andReturn(min);
+    expect(rangeRS.getObject(2)).andReturn(max);
+    replay(rangeRS);
+
+    PreparedStatement rangePS = createStrictMock(PreparedStatement.class);
+    expect(rangePS.executeQuery()).andReturn(rangeRS);
+    rangePS.close();
+    replay(rangePS);
+
+    Connection rangeC = createStrictMock(Connection.class);
+    expect(rangeC.prepareStatement("select min(id), max(id) from users")).andReturn(rangePS);
+    rangeC.close();
+    replay(rangeC);
+
+    UUID middle = new UUID(Long.MIN_VALUE, 0);
+    DataSource ds = createMock(DataSource.class);
+    expect(ds.getConnection()).andReturn(rangeC);
+    UUID[][] bounds = {{min, middle}, {middle, max}};
+    for (int i = 0; i < bounds.length; i++) {
+      ResultSet rs = createMock(ResultSet.class);
+      expect(rs.next()).andReturn(false);
+      replay(rs);
+
+      PreparedStatement ps = createMock(PreparedStatement.class);
+      ps.setFetchSize(Select.DEFAULT_FETCH_SIZE);
+      ps.setObject(1, bounds[i][0]);
+      ps.setObject(2, bounds[i][1]);
+      expect(ps.executeQuery()).andReturn(rs);
+      ps.close();
+      replay(ps);
+
+      Connection c = createMock(Connection.class);
+      expect(c.prepareStatement("select * from users where id >= ? and id " + (i == 1 ? "<=" : "<") + " ?",
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(ps);
+      c.close();
+      replay(c);
+
+      expect(ds.getConnection()).andReturn(c);
+    }
+    replay(ds);
+
+    long total = new ParallelScan(ds, "users", "id").parallelism(1).segments(2).go(new SelectHandler() {
+      public void row(ResultSet rs) throws SQLException {
+        fail("Should not be called");
+      }
+    });
+    assertEquals(total, 0);
+  }
+
+  @Test
+  public void firstFailure() throws Exception {
+    ResultSet rangeRS = createStrictMock(ResultSet.class);
+    expect(rangeRS.next()).andReturn(true);
+    expect(rangeRS.getObject(1)).andReturn(1);
+    expect(rangeRS.getObject(2)).andReturn(100);
+    replay(rangeRS);
+
+    PreparedStatement rangePS = createStrictMock(PreparedStatement.class);
+    expect(rangePS.executeQuery()).andReturn(rangeRS);
+    rangePS.close();
+    replay(rangePS);
+
+    Connection rangeC = createStrictMock(Connection.class);
+    expect(rangeC.prepareStatement("select min(id), max(id) from users")).andReturn(rangePS);
+    rangeC.close();
+    replay(rangeC);
+
+    DataSource ds = createStrictMock(DataSource.class);
+    expect(ds.getConnection()).andReturn(rangeC);
+    replay(ds);
+
+    // The first segment is still running when the second one fails
+    final CountDownLatch latch = new CountDownLatch(1);
+    final RuntimeException failure = new RuntimeException("Segment failed");
+    try {
+      new ParallelScan(ds, "users", "id").parallelism(2).segments(2).listener(new ScanListener() {
+        public void started(int segment, Object lower, Object upper) {
+          if (segment == 0) {
+            try {
+              latch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              // Ignore
+            }
+
+            throw new RuntimeException("Segment finished too late");
+          }
+
+          throw failure;
+        }
+      }).go(new SelectHandler() {
+        public void row(ResultSet rs) throws SQLException {
+          fail("Should not be called");
+        }
+      });
+      fail("Should have failed");
+    } catch (ScanException e) {
+      assertSame(e.getCause(), failure);
+    } finally {
+      latch.countDown();
+    }
+
+    verify(rangeRS, rangePS, rangeC, ds);
+  }
+
+  @Test
+  public void invalidParallelism() {
+    DataSource ds = createStrictMock(DataSource.class);
+    replay(ds);
+
+    try {
+      new ParallelScan(ds, "users", "id").parallelism(0);
+      fail("Should have failed");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+
+    verify(ds);
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2011, Inversoft Inc., All Rights Reserved
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.primeframework.persistence.jdbc.Select.RowHandler;
+import org.primeframework.persistence.jdbc.Select.SelectException;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
+import org.testng.annotations.Test;
+
+import static java.util.Arrays.*;
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * This class tests the pipeline.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class PipelineTest {
+  private static final RowHandler<String> STRING = new RowHandler<String>() {
+    public String row(ResultSet rs) throws SQLException {
+      return rs.getString(1);
+    }
+  };
+
+  @Test
+  public void pipelined() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.POSTGRESQL;
+    try {
+      ResultSet rs1 = createStrictMock(ResultSet.class);
+      expect(rs1.next()).andReturn(true);
+      expect(rs1.getString(1)).andReturn("brian");
+      expect(rs1.next()).andReturn(false);
+      replay(rs1);
+
+      ResultSet rs2 = createStrictMock(ResultSet.class);
+      expect(rs2.next()).andReturn(true);
+      expect(rs2.getString(1)).andReturn("order1");
+      expect(rs2.next()).andReturn(true);
+      expect(rs2.getString(1)).andReturn("order2");
+      expect(rs2.next()).andReturn(false);
+      replay(rs2);
+
+      PreparedStatement ps = createStrictMock(PreparedStatement.class);
+      ps.setObject(1, 1);
+      ps.setObject(2, 1);
+      ps.setObject(3, "open");
+      expect(ps.execute()).andReturn(true);
+      expect(ps.getResultSet()).andReturn(rs1);
+      expect(ps.getMoreResults()).andReturn(true);
+      expect(ps.getResultSet()).andReturn(rs2);
+      ps.close();
+      replay(ps);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.prepareStatement("select name from users where id = ?; select name from orders where user_id = ? and status = ?")).andReturn(ps);
+      replay(c);
+
+      Pipeline pipeline = new Pipeline(c);
+      Pipeline.Result<String> user = pipeline.singleResult(new Select(c, "select name from users where id = ?;").with(1), STRING);
+      Pipeline.Result<List<String>> orders = pipeline.multipleResults(new Select(c, "select name from orders where user_id = ? and status = ?").with(1, "open"), STRING);
+      pipeline.go();
+
+      assertEquals(user.get(), "brian");
+      assertEquals(orders.get(), asList("order1", "order2"));
+
+      verify(rs1, rs2, ps, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void sequential() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.MYSQL;
+    try {
+      ResultSet rs1 = createStrictMock(ResultSet.class);
+      expect(rs1.next()).andReturn(true);
+      expect(rs1.getString(1)).andReturn("brian");
+      expect(rs1.next()).andReturn(false);
+      replay(rs1);
+
+      ResultSet rs2 = createStrictMock(ResultSet.class);
+      expect(rs2.next()).andReturn(false);
+      replay(rs2);
+
+      PreparedStatement ps1 = createStrictMock(PreparedStatement.class);
+      ps1.setObject(1, 1);
+      expect(ps1.executeQuery()).andReturn(rs1);
+      ps1.close();
+      replay(ps1);
+
+      PreparedStatement ps2 = createStrictMock(PreparedStatement.class);
+      ps2.setObject(1, 1);
+      expect(ps2.executeQuery()).andReturn(rs2);
+      ps2.close();
+      replay(ps2);
+
+      DatabaseMetaData md = createStrictMock(DatabaseMetaData.class);
+      expect(md.getURL()).andReturn("jdbc:mysql://localhost:3306/test?useUnicode=true");
+      replay(md);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.getMetaData()).andReturn(md);
+      expect(c.prepareStatement("select name from users where id = ?")).andReturn(ps1);
+      expect(c.prepareStatement("select name from orders where user_id = ?")).andReturn(ps2);
+      replay(c);
+
+      Pipeline pipeline = new Pipeline(c);
+      Pipeline.Result<String> user = pipeline.singleResult(new Select(c, "select name from users where id = ?").with(1), STRING);
+      Pipeline.Result<List<String>> orders = pipeline.multipleResults(new Select(c, "select name from orders where user_id = ?").with(1), STRING);
+      pipeline.go();
+
+      assertEquals(user.get(), "brian");
+      assertEquals(orders.get(), asList());
+
+      verify(rs1, rs2, ps1, ps2, md, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void sequentialUnknownDatabase() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = null;
+    try {
+      ResultSet rs1 = createStrictMock(ResultSet.class);
+      expect(rs1.next()).andReturn(false);
+      replay(rs1);
+
+      ResultSet rs2 = createStrictMock(ResultSet.class);
+      expect(rs2.next()).andReturn(false);
+      replay(rs2);
+
+      PreparedStatement ps1 = createStrictMock(PreparedStatement.class);
+      expect(ps1.executeQuery()).andReturn(rs1);
+      ps1.close();
+      replay(ps1);
+
+      PreparedStatement ps2 = createStrictMock(PreparedStatement.class);
+      expect(ps2.executeQuery()).andReturn(rs2);
+      ps2.close();
+      replay(ps2);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.prepareStatement("select name from users")).andReturn(ps1);
+      expect(c.prepareStatement("select name from orders")).andReturn(ps2);
+      replay(c);
+
+      Pipeline pipeline = new Pipeline(c);
+      Pipeline.Result<String> user = pipeline.singleResult(new Select(c, "select name from users"), STRING);
+      Pipeline.Result<List<String>> orders = pipeline.multipleResults(new Select(c, "select name from orders"), STRING);
+      pipeline.go();
+
+      assertNull(user.get());
+      assertEquals(orders.get(), asList());
+
+      verify(rs1, rs2, ps1, ps2, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void pipelinedExplicit() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = null;
+    try {
+      ResultSet rs1 = createStrictMock(ResultSet.class);
+      expect(rs1.next()).andReturn(false);
+      replay(rs1);
+
+      ResultSet rs2 = createStrictMock(ResultSet.class);
+      expect(rs2.next()).andReturn(false);
+      replay(rs2);
+
+      PreparedStatement ps = createStrictMock(PreparedStatement.class);
+      expect(ps.execute()).andReturn(true);
+      expect(ps.getResultSet()).andReturn(rs1);
+      expect(ps.getMoreResults()).andReturn(true);
+      expect(ps.getResultSet()).andReturn(rs2);
+      ps.close();
+      replay(ps);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.prepareStatement("select name from users; select name from orders")).andReturn(ps);
+      replay(c);
+
+      Pipeline pipeline = new Pipeline(c).multiStatement(true);
+      pipeline.add(new Select(c, "select name from users"), new Select.SelectHandler() {
+        public void row(ResultSet rs) {
+        }
+      });
+      pipeline.add(new Select(c, "select name from orders"), new Select.SelectHandler() {
+        public void row(ResultSet rs) {
+        }
+      });
+      pipeline.go();
+
+      verify(rs1, rs2, ps, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void pipelinedFailure() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.POSTGRESQL;
+    try {
+      ResultSet rs1 = createStrictMock(ResultSet.class);
+      expect(rs1.next()).andReturn(true);
+      expect(rs1.getString(1)).andReturn("brian");
+      expect(rs1.next()).andReturn(false);
+      replay(rs1);
+
+      SQLException failure = new SQLException("Bad table");
+      PreparedStatement ps = createStrictMock(PreparedStatement.class);
+      expect(ps.execute()).andReturn(true);
+      expect(ps.getResultSet()).andReturn(rs1);
+      expect(ps.getMoreResults()).andThrow(failure);
+      ps.close();
+      replay(ps);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.prepareStatement("select name from users; select name from bad; select name from orders")).andReturn(ps);
+      replay(c);
+
+      final List<SQLException> exceptions = new ArrayList<SQLException>();
+      RowHandler<String> handler = new RowHandler<String>() {
+        public String row(ResultSet rs) throws SQLException {
+          return rs.getString(1);
+        }
+
+        public void exception(SQLException e) {
+          exceptions.add(e);
+        }
+      };
+
+      Pipeline pipeline = new Pipeline(c);
+      Pipeline.Result<String> user = pipeline.singleResult(new Select(c, "select name from users"), handler);
+      Pipeline.Result<String> bad = pipeline.singleResult(new Select(c, "select name from bad"), handler);
+      Pipeline.Result<List<String>> orders = pipeline.multipleResults(new Select(c, "select name from orders"), handler);
+      pipeline.go();
+
+      assertEquals(user.get(), "brian");
+      assertEquals(exceptions, asList(failure, failure));
+
+      try {
+        bad.get();
+        fail("Should have failed");
+      } catch (SelectException e) {
+        assertSame(e.getCause(), failure);
+      }
+
+      try {
+        orders.get();
+        fail("Should have failed");
+      } catch (SelectException e) {
+        assertSame(e.getCause(), failure);
+      }
+
+      verify(rs1, ps, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void otherConnection() {
+    Connection c = createStrictMock(Connection.class);
+    Connection other = createStrictMock(Connection.class);
+    replay(c, other);
+
+    try {
+      new Pipeline(c).singleResult(new Select(other, "select 1"), STRING);
+      fail("Should have failed");
+    } catch (SelectException e) {
+      // Expected
+    }
+
+    verify(c, other);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void notRun() {
+    Connection c = createStrictMock(Connection.class);
+    new Pipeline(c).singleResult(new Select(c, "select 1"), STRING).get();
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2011, Inversoft Inc., All Rights Reserved
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.math.BigDecimal;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * This class tests the encoding of the PostgreSQL COPY text format.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class PostgreSQLCopyTest {
+  @Test
+  public void append() {
+    assertEquals(encode(null), "\\N");
+    assertEquals(encode(true), "t");
+    assertEquals(encode(false), "f");
+    assertEquals(encode(42), "42");
+    assertEquals(encode(new BigDecimal("1.50")), "1.50");
+    assertEquals(encode(new byte[]{0, 15, (byte) 255}), "\\\\x000fff");
+    assertEquals(encode("plain"), "plain");
+    assertEquals(encode("tab\there\nnew\rline\\slash"), "tab\\there\\nnew\\rline\\\\slash");
+  }
+
+  private String encode(Object value) {
+    StringBuilder build = new StringBuilder();
+    PostgreSQLCopy.append(build, value);
+    return build.toString();
+  }
+}
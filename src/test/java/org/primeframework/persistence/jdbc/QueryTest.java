@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2011, Inversoft Inc., All Rights Reserved
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.primeframework.persistence.jdbc.Select.RowHandler;
+import org.testng.annotations.Test;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * This class tests the compiled queries.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class QueryTest {
+  private static final Query FIND = Query.compile("select name from users where id = ? and status <> '?'");
+
+  @Test
+  public void parameters() {
+    assertEquals(FIND.parameters, 1);
+    assertEquals(Query.compile("select 1 -- where id = ?\nfrom foo where a = ? /* and b = ? */").parameters, 1);
+    assertEquals(Query.compile("update foo set a = ?, b = ? where c in (?,?)").parameters, 4);
+  }
+
+  @Test
+  public void reuse() throws SQLException {
+    RowHandler<String> handler = new RowHandler<String>() {
+      public String row(ResultSet rs) throws SQLException {
+        return rs.getString(1);
+      }
+    };
+
+    for (int i = 1; i <= 2; i++) {
+      ResultSet rs = createStrictMock(ResultSet.class);
+      expect(rs.next()).andReturn(true);
+      expect(rs.getString(1)).andReturn("user" + i);
+      replay(rs);
+
+      PreparedStatement ps = createStrictMock(PreparedStatement.class);
+      ps.setObject(1, i);
+      expect(ps.executeQuery()).andReturn(rs);
+      ps.close();
+      replay(ps);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.prepareStatement(same(FIND.sql))).andReturn(ps);
+      replay(c);
+
+      assertEquals(FIND.select(c, i).singleResult(handler), "user" + i);
+
+      verify(rs, ps, c);
+    }
+  }
+
+  @Test
+  public void thaw() throws SQLException {
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, "a");
+    ps.setObject(2, 1);
+    ps.setObject(3, 2);
+    expect(ps.executeUpdate()).andReturn(2);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("update foo set bar = ? where id in (?,?)")).andReturn(ps);
+    replay(c);
+
+    Query query = Query.compile("update foo set bar = ? where id");
+    Update u = query.update(c, "a");
+    u.startIn();
+    u.addToIn(1, 2);
+    u.endIn();
+    assertEquals(u.go(), 2);
+    assertEquals(query.sql, "update foo set bar = ? where id");
+
+    verify(ps, c);
+  }
+
+  @Test
+  public void delete() throws SQLException {
+    Query query = new Delete(null).from("foo").where("id").in(1, 2).compile();
+    assertEquals(query.sql, "delete from foo where id in (?,?)");
+    assertEquals(query.parameters, 2);
+  }
+
+  @Test
+  public void wrongParameters() {
+    try {
+      FIND.select(null, 1, 2);
+      fail("Should have failed");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+}
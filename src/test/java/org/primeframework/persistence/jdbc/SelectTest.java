@@ -3,16 +3,28 @@
  */
 package org.primeframework.persistence.jdbc;
 
+import javax.persistence.Column;
+import java.sql.Array;
+import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
+import org.primeframework.persistence.jdbc.Select.Cursor;
 import org.primeframework.persistence.jdbc.Select.RowHandler;
+import org.primeframework.persistence.jdbc.Select.RowMapper;
 import org.primeframework.persistence.jdbc.Select.SelectHandler;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
 import org.testng.annotations.Test;
 
+import static java.util.Arrays.*;
 import static org.easymock.EasyMock.*;
 import static org.testng.Assert.*;
 
@@ -164,6 +176,218 @@ public class SelectTest {
     verify(rs, ps, c);
   }
 
+  @Test
+  public void typedParams() throws SQLException {
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.next()).andReturn(false);
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setInt(1, 1);
+    ps.setLong(2, 2L);
+    ps.setString(3, "three");
+    ps.setNull(4, Types.TIMESTAMP);
+    ps.setObject(5, null);
+    ps.setNull(6, Types.VARCHAR);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("select foo from bar where a = ? and b = ? and c = ? and d = ? and e = ? and f = ?")).andReturn(ps);
+    replay(c);
+
+    Select s = new Select(c, "select foo from bar where a = ? and b = ? and c = ? and d = ? and e = ? and f = ?");
+    s.addInt(1).addLong(2L).addString("three").addNull(Types.TIMESTAMP).add((Object) null).addString(null);
+    assertEquals(s.size(), 6);
+    s.go(new SelectHandler() {
+      public void row(ResultSet rs) throws SQLException {
+        fail("Should not be called");
+      }
+    });
+
+    verify(rs, ps, c);
+  }
+
+  @Test
+  public void ints() throws SQLException {
+    ResultSet rs = createStrictMock(ResultSet.class);
+    for (int i = 1; i <= 100; i++) {
+      expect(rs.next()).andReturn(true);
+      expect(rs.getInt(1)).andReturn(i == 50 ? 0 : i);
+      expect(rs.wasNull()).andReturn(i == 50);
+    }
+    expect(rs.next()).andReturn(false);
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("select id from bar")).andReturn(ps);
+    replay(c);
+
+    int[] ids = new Select(c, "select id from bar").ints();
+    assertEquals(ids.length, 99);
+    assertEquals(ids[0], 1);
+    assertEquals(ids[49], 51);
+    assertEquals(ids[98], 100);
+
+    verify(rs, ps, c);
+  }
+
+  @Test
+  public void uuids() throws SQLException {
+    UUID first = UUID.randomUUID();
+    UUID second = UUID.randomUUID();
+    UUID third = UUID.randomUUID();
+    byte[] bytes = ByteBuffer.allocate(16).putLong(third.getMostSignificantBits()).putLong(third.getLeastSignificantBits()).array();
+
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getObject(1)).andReturn(first);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getObject(1)).andReturn(second.toString());
+    expect(rs.next()).andReturn(true);
+    expect(rs.getObject(1)).andReturn(null);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getObject(1)).andReturn(bytes);
+    expect(rs.next()).andReturn(false);
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("select id from bar")).andReturn(ps);
+    replay(c);
+
+    long[] ids = new Select(c, "select id from bar").uuids();
+    assertEquals(ids.length, 6);
+    assertEquals(new UUID(ids[0], ids[1]), first);
+    assertEquals(new UUID(ids[2], ids[3]), second);
+    assertEquals(new UUID(ids[4], ids[5]), third);
+
+    verify(rs, ps, c);
+  }
+
+  @Test
+  public void rowMapper() throws SQLException {
+    ResultSetMetaData md = createStrictMock(ResultSetMetaData.class);
+    expect(md.getColumnCount()).andReturn(2);
+    expect(md.getColumnLabel(2)).andReturn("age");
+    expect(md.getColumnLabel(1)).andReturn("NAME");
+    replay(md);
+
+    // The meta data is only read for the first row
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getMetaData()).andReturn(md);
+    expect(rs.getString(1)).andReturn("one");
+    expect(rs.getInt(2)).andReturn(1);
+    expect(rs.wasNull()).andReturn(false);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getString(1)).andReturn("two");
+    expect(rs.getInt(2)).andReturn(0);
+    expect(rs.wasNull()).andReturn(true);
+    expect(rs.next()).andReturn(false);
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("select name, age from users")).andReturn(ps);
+    replay(c);
+
+    List<String> results = new Select(c, "select name, age from users").multipleResults(new RowMapper<String>() {
+      @Override
+      public String row(Row row) throws SQLException {
+        return row.getString("name") + ":" + row.getIntOrNull("age");
+      }
+    });
+    assertEquals(results, asList("one:1", "two:null"));
+
+    verify(md, rs, ps, c);
+  }
+
+  @Test
+  public void rowMapperShared() throws SQLException {
+    RowMapper<String> mapper = new RowMapper<String>() {
+      @Override
+      public String row(Row row) throws SQLException {
+        return row.getString("name");
+      }
+    };
+
+    // The same mapper reads two cursors at the same time and each one resolves its labels once
+    Connection c = createStrictMock(Connection.class);
+    List<Select.Cursor<String>> cursors = new ArrayList<Select.Cursor<String>>();
+    List<Object> mocks = new ArrayList<Object>();
+    for (int i = 0; i < 2; i++) {
+      ResultSetMetaData md = createStrictMock(ResultSetMetaData.class);
+      expect(md.getColumnCount()).andReturn(1);
+      expect(md.getColumnLabel(1)).andReturn("name");
+      replay(md);
+
+      ResultSet rs = createStrictMock(ResultSet.class);
+      expect(rs.next()).andReturn(true);
+      expect(rs.getMetaData()).andReturn(md);
+      expect(rs.getString(1)).andReturn("one" + i);
+      expect(rs.next()).andReturn(true);
+      expect(rs.getString(1)).andReturn("two" + i);
+      replay(rs);
+
+      PreparedStatement ps = createStrictMock(PreparedStatement.class);
+      ps.setFetchSize(Select.DEFAULT_FETCH_SIZE);
+      expect(ps.executeQuery()).andReturn(rs);
+      replay(ps);
+
+      reset(c);
+      expect(c.prepareStatement("select name from users", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(ps);
+      replay(c);
+
+      cursors.add(new Select(c, "select name from users").cursor(mapper));
+      mocks.add(md);
+      mocks.add(rs);
+      mocks.add(ps);
+    }
+
+    assertEquals(cursors.get(0).next(), "one0");
+    assertEquals(cursors.get(1).next(), "one1");
+    assertEquals(cursors.get(0).next(), "two0");
+    assertEquals(cursors.get(1).next(), "two1");
+
+    verify(mocks.toArray());
+  }
+
+  @Test
+  public void count() throws SQLException {
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getLong(1)).andReturn(5000000000L);
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("select count(*) from bar")).andReturn(ps);
+    replay(c);
+
+    assertEquals(new Select(c, "select count(*) from bar").count(), 5000000000L);
+
+    verify(rs, ps, c);
+  }
+
   @Test
   public void inClause() throws SQLException {
     ResultSet rs = createStrictMock(ResultSet.class);
@@ -195,4 +419,275 @@ public class SelectTest {
 
     verify(rs, ps, c);
   }
+
+  @Test
+  public void inClausePadded() throws SQLException {
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.next()).andReturn(false);
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, "x");
+    ps.setObject(2, 1);
+    ps.setObject(3, 2);
+    ps.setObject(4, 3);
+    ps.setObject(5, 3);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("select foo from bar where baz = ? and id in (?,?,?,?)")).andReturn(ps);
+    replay(c);
+
+    Select s = new Select(c, "select foo from bar where baz = ? and id").inStrategy(InList.Strategy.PAD).add("x");
+    s.startIn();
+    s.addToIn(1, 2);
+    s.addToIn(3);
+    s.endIn();
+    assertNull(s.singleResult(new RowHandler<Object>() {
+      public Object row(ResultSet rs) throws SQLException {
+        return rs.getObject(1);
+      }
+    }));
+
+    verify(rs, ps, c);
+  }
+
+  @Test
+  public void inClauseArray() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.POSTGRESQL;
+    try {
+      Array array = createStrictMock(Array.class);
+      replay(array);
+
+      ResultSet rs = createStrictMock(ResultSet.class);
+      expect(rs.next()).andReturn(false);
+      replay(rs);
+
+      PreparedStatement ps = createStrictMock(PreparedStatement.class);
+      ps.setObject(1, array);
+      expect(ps.executeQuery()).andReturn(rs);
+      ps.close();
+      replay(ps);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.createArrayOf(eq("int8"), aryEq(new Object[]{1L, 2L, 3L}))).andReturn(array);
+      expect(c.prepareStatement("select foo from bar where id = any(?)")).andReturn(ps);
+      replay(c);
+
+      Select s = new Select(c, "select foo from bar where id").inStrategy(InList.Strategy.ARRAY);
+      s.startIn();
+      s.addToIn(1L, 2L, 3L);
+      s.endIn();
+      assertEquals(s.multipleResults(new RowHandler<Object>() {
+        public Object row(ResultSet rs) throws SQLException {
+          return rs.getObject(1);
+        }
+      }).size(), 0);
+
+      verify(array, rs, ps, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void inClauseAuto() throws SQLException {
+    Database old = DatabaseType.database;
+    try {
+      // PostgreSQL binds an array
+      DatabaseType.database = Database.POSTGRESQL;
+      Array array = createStrictMock(Array.class);
+      replay(array);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.createArrayOf(eq("int8"), aryEq(new Object[]{1L, 2L, 3L}))).andReturn(array);
+      replay(c);
+
+      Select s = new Select(c, "select foo from bar where id").inStrategy(InList.Strategy.AUTO);
+      s.startIn();
+      s.addToIn(1L, 2L, 3L);
+      s.endIn();
+      assertEquals(s.sql(), "select foo from bar where id = any(?)");
+      verify(array, c);
+
+      // PostgreSQL pads values whose type isn't known
+      c = createStrictMock(Connection.class);
+      replay(c);
+
+      s = new Select(c, "select foo from bar where id").inStrategy(InList.Strategy.AUTO);
+      s.startIn();
+      s.addToIn(new Object(), new Object(), new Object());
+      s.endIn();
+      assertEquals(s.sql(), "select foo from bar where id in (?,?,?,?)");
+
+      // Everything else pads
+      DatabaseType.database = Database.MYSQL;
+      s = new Select(c, "select foo from bar where id").inStrategy(InList.Strategy.AUTO);
+      s.startIn();
+      s.addToIn(1L, 2L, 3L);
+      s.endIn();
+      assertEquals(s.sql(), "select foo from bar where id in (?,?,?,?)");
+      assertEquals(s.params().size(), 4);
+      verify(c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void inClauseDefaultStrategy() throws SQLException {
+    Connection c = createStrictMock(Connection.class);
+    replay(c);
+
+    InList.defaultStrategy(InList.Strategy.PAD);
+    try {
+      Select s = new Select(c, "select foo from bar where id");
+      s.startIn();
+      s.addToIn(1, 2, 3);
+      s.endIn();
+      assertEquals(s.sql(), "select foo from bar where id in (?,?,?,?)");
+    } finally {
+      InList.defaultStrategy(InList.Strategy.EXPAND);
+    }
+
+    verify(c);
+  }
+
+  @Test
+  public void streamMySQL() throws SQLException {
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getString(1)).andReturn("baz");
+    expect(rs.next()).andReturn(false);
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setFetchSize(Integer.MIN_VALUE);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("select foo from bar", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(ps);
+    replay(c);
+
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.MYSQL;
+    try {
+      Select s = new Select(c, "select foo from bar");
+      s.stream(new SelectHandler() {
+        public void row(ResultSet rs) throws SQLException {
+          assertEquals(rs.getString(1), "baz");
+        }
+      });
+    } finally {
+      DatabaseType.database = old;
+    }
+
+    verify(rs, ps, c);
+  }
+
+  @Test
+  public void cursorPostgreSQL() throws SQLException {
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getString(1)).andReturn("one");
+    expect(rs.next()).andReturn(true);
+    expect(rs.getString(1)).andReturn("two");
+    expect(rs.next()).andReturn(false);
+    rs.close();
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setFetchSize(10);
+    ps.setObject(1, 123);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.getAutoCommit()).andReturn(true);
+    c.setAutoCommit(false);
+    expect(c.prepareStatement("select foo from bar where id = ?", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(ps);
+    c.setAutoCommit(true);
+    replay(c);
+
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.POSTGRESQL;
+    try {
+      Select s = new Select(c, "select foo from bar where id = ?").fetchSize(10).with(123);
+      Cursor<String> cursor = s.cursor(new RowHandler<String>() {
+        public String row(ResultSet rs) throws SQLException {
+          return rs.getString(1);
+        }
+      });
+
+      assertTrue(cursor.hasNext());
+      assertEquals(cursor.next(), "one");
+      assertEquals(cursor.next(), "two");
+      assertFalse(cursor.hasNext());
+
+      // Closing again must be a no-op
+      cursor.close();
+    } finally {
+      DatabaseType.database = old;
+    }
+
+    verify(rs, ps, c);
+  }
+
+  @Test
+  public void asClass() throws SQLException {
+    ResultSetMetaData md = createStrictMock(ResultSetMetaData.class);
+    expect(md.getColumnCount()).andReturn(4);
+    expect(md.getColumnLabel(1)).andReturn("ID");
+    expect(md.getColumnLabel(2)).andReturn("first_name");
+    expect(md.getColumnLabel(3)).andReturn("unmapped");
+    expect(md.getColumnLabel(4)).andReturn("age_in_years");
+    replay(md);
+
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getMetaData()).andReturn(md);
+    expect(rs.getInt(1)).andReturn(1);
+    expect(rs.getString(2)).andReturn("Brian");
+    expect(rs.getInt(4)).andReturn(0);
+    expect(rs.wasNull()).andReturn(true);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getInt(1)).andReturn(2);
+    expect(rs.getString(2)).andReturn("James");
+    expect(rs.getInt(4)).andReturn(42);
+    expect(rs.wasNull()).andReturn(false);
+    expect(rs.next()).andReturn(false);
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("select * from users")).andReturn(ps);
+    replay(c);
+
+    List<TestUser> users = new Select(c, "select * from users").multipleResults(Select.as(TestUser.class));
+    assertEquals(users.size(), 2);
+    assertEquals(users.get(0).id, 1);
+    assertEquals(users.get(0).firstName, "Brian");
+    assertNull(users.get(0).age);
+    assertEquals(users.get(1).id, 2);
+    assertEquals(users.get(1).firstName, "James");
+    assertEquals((int) users.get(1).age, 42);
+
+    verify(md, rs, ps, c);
+  }
+
+  public static class TestUser {
+    public int id;
+    public String firstName;
+    @Column(name = "age_in_years") public Integer age;
+  }
 }
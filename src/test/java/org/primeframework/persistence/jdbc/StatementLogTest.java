@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2011, Inversoft Inc., All Rights Reserved
+ */
+package org.primeframework.persistence.jdbc;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.primeframework.persistence.jdbc.InsertTest.TestType;
+import org.primeframework.persistence.jdbc.InsertTest.TestTypeConverter;
+import org.primeframework.persistence.jdbc.StatementLog.Listener;
+import org.primeframework.persistence.jdbc.StatementLog.SlowStatement;
+import org.primeframework.persistence.jdbc.convert.TypeConverter.Converters;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static java.util.Arrays.*;
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * This class tests the slow statement log.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class StatementLogTest {
+  @AfterMethod
+  public void reset() {
+    StatementLog.threshold(StatementLog.DEFAULT_THRESHOLD, TimeUnit.NANOSECONDS);
+    StatementLog.redactParameters(false);
+    StatementLog.listener(null);
+    StatementLog.explain(null, false);
+    Converters.unregister(TestType.class);
+  }
+
+  @Test
+  public void slow() throws Exception {
+    Converters.register(TestType.class, new TestTypeConverter());
+    TestType baz = new TestType("baz");
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, "baz");
+    ps.setObject(2, 1);
+    expect(ps.executeUpdate()).andReturn(1);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("update foo set bar = ? where id = ?")).andReturn(ps);
+    replay(c);
+
+    ResultSetMetaData meta = createStrictMock(ResultSetMetaData.class);
+    expect(meta.getColumnCount()).andReturn(1);
+    replay(meta);
+
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.getMetaData()).andReturn(meta);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getString(1)).andReturn("Update on foo");
+    expect(rs.next()).andReturn(true);
+    expect(rs.getString(1)).andReturn("  ->  Index Scan using foo_pkey on foo");
+    expect(rs.next()).andReturn(false);
+    replay(rs);
+
+    PreparedStatement explainPS = createStrictMock(PreparedStatement.class);
+    explainPS.setObject(1, "baz");
+    explainPS.setObject(2, 1);
+    expect(explainPS.executeQuery()).andReturn(rs);
+    explainPS.close();
+    replay(explainPS);
+
+    Connection explainC = createStrictMock(Connection.class);
+    expect(explainC.prepareStatement("explain update foo set bar = ? where id = ?")).andReturn(explainPS);
+    explainC.close();
+    replay(explainC);
+
+    DataSource ds = createStrictMock(DataSource.class);
+    expect(ds.getConnection()).andReturn(explainC);
+    replay(ds);
+
+    final List<SlowStatement> statements = new ArrayList<SlowStatement>();
+    final List<String> plans = new ArrayList<String>();
+    final CountDownLatch latch = new CountDownLatch(1);
+    StatementLog.threshold(0, TimeUnit.MILLISECONDS);
+    StatementLog.explain(ds, true);
+    StatementLog.listener(new Listener() {
+      public void slow(SlowStatement statement) {
+        statements.add(statement);
+      }
+
+      public void explained(SlowStatement statement, String plan) {
+        plans.add(plan);
+        latch.countDown();
+      }
+    });
+
+    // The explain converts the parameters like the update does
+    assertEquals(new Update(c, "update foo set bar = ? where id = ?").with(baz, 1).go(), 1);
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    assertEquals(statements.size(), 1);
+    assertEquals(statements.get(0).sql, "update foo set bar = ? where id = ?");
+    assertEquals(asList(statements.get(0).parameters), asList(baz, 1));
+    assertTrue(statements.get(0).totalNanos() >= 0);
+    assertEquals(plans, asList("Update on foo\n  ->  Index Scan using foo_pkey on foo"));
+
+    verify(ps, c, meta, rs, explainPS, explainC, ds);
+  }
+
+  @Test
+  public void redacted() throws SQLException {
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, "secret");
+    ps.setObject(2, null);
+    expect(ps.executeUpdate()).andReturn(1);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("update users set password = ? where name = ?")).andReturn(ps);
+    replay(c);
+
+    final List<SlowStatement> statements = new ArrayList<SlowStatement>();
+    StatementLog.threshold(0, TimeUnit.MILLISECONDS);
+    StatementLog.redactParameters(true);
+    StatementLog.listener(new Listener() {
+      public void slow(SlowStatement statement) {
+        statements.add(statement);
+      }
+
+      public void explained(SlowStatement statement, String plan) {
+      }
+    });
+
+    new Update(c, "update users set password = ? where name = ?").with("secret", null).go();
+    assertEquals(asList(statements.get(0).parameters), asList("<String>", null));
+
+    verify(ps, c);
+  }
+
+  @Test
+  public void batch() throws SQLException {
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, "one");
+    ps.setObject(2, 1);
+    ps.addBatch();
+    ps.setObject(1, "two");
+    ps.setObject(2, 2);
+    ps.addBatch();
+    expect(ps.executeBatch()).andReturn(new int[]{1, 1});
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("update foo set bar = ? where id = ?")).andReturn(ps);
+    replay(c);
+
+    final List<SlowStatement> statements = new ArrayList<SlowStatement>();
+    StatementLog.threshold(0, TimeUnit.MILLISECONDS);
+    StatementLog.listener(new Listener() {
+      public void slow(SlowStatement statement) {
+        statements.add(statement);
+      }
+
+      public void explained(SlowStatement statement, String plan) {
+      }
+    });
+
+    new Update(c, "update foo set bar = ? where id = ?").with("one", 1).addBatch().with("two", 2).addBatch().goBatch();
+    assertEquals(asList(statements.get(0).parameters), asList("two", 2));
+
+    verify(ps, c);
+  }
+
+  @Test
+  public void fast() throws SQLException {
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    expect(ps.executeUpdate()).andReturn(0);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("delete from foo")).andReturn(ps);
+    replay(c);
+
+    final List<SlowStatement> statements = new ArrayList<SlowStatement>();
+    StatementLog.threshold(1, TimeUnit.HOURS);
+    StatementLog.listener(new Listener() {
+      public void slow(SlowStatement statement) {
+        statements.add(statement);
+      }
+
+      public void explained(SlowStatement statement, String plan) {
+      }
+    });
+
+    new Update(c, "delete from foo").go();
+    assertTrue(statements.isEmpty());
+
+    verify(ps, c);
+  }
+
+  @Test
+  public void explainSQL() {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.POSTGRESQL;
+    try {
+      assertEquals(StatementLog.explainSQL(" select * from foo"), "explain select * from foo");
+      assertNull(StatementLog.explainSQL("create table foo (id int)"));
+
+      StatementLog.explain(null, true);
+      assertEquals(StatementLog.explainSQL("select * from foo"), "explain (analyze, buffers) select * from foo");
+      assertEquals(StatementLog.explainSQL("delete from foo"), "explain delete from foo");
+
+      DatabaseType.database = Database.MYSQL;
+      assertEquals(StatementLog.explainSQL("select * from foo"), "explain select * from foo");
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+}
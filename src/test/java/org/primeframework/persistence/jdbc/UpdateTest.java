@@ -3,10 +3,19 @@
  */
 package org.primeframework.persistence.jdbc;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 
+import org.primeframework.persistence.jdbc.InsertTest.TestType;
+import org.primeframework.persistence.jdbc.InsertTest.TestTypeConverter;
+import org.primeframework.persistence.jdbc.Update.UpdateException;
+import org.primeframework.persistence.jdbc.convert.TypeConverter;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.Test;
 
 import static org.easymock.EasyMock.*;
@@ -19,6 +28,11 @@ import static org.testng.Assert.*;
  */
 @Test(groups = "unit")
 public class UpdateTest {
+  @AfterMethod
+  public void reset() {
+    TypeConverter.Converters.unregister(TestType.class);
+  }
+
   @Test
   public void noParams() throws SQLException {
     PreparedStatement ps = createStrictMock(PreparedStatement.class);
@@ -84,4 +98,312 @@ public class UpdateTest {
 
     verify(ps, c);
   }
+
+  @Test
+  public void inClausePadded() throws SQLException {
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, 1);
+    ps.setObject(2, 2);
+    ps.setObject(3, 3);
+    ps.setObject(4, 4);
+    ps.setObject(5, 4);
+    expect(ps.executeUpdate()).andReturn(2);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("update foo set bar = ? where id in (?,?,?,?)")).andReturn(ps);
+    replay(c);
+
+    Update u = new Update(c, "update foo set bar = ? where id").inStrategy(InList.Strategy.PAD);
+    u.add(1);
+    u.startIn();
+    u.addToIn(2, 3, 4);
+    u.endIn();
+    assertEquals(u.go(), 2);
+
+    verify(ps, c);
+  }
+
+  @Test
+  public void inClauseTempTable() throws SQLException {
+    Connection c = createStrictMock(Connection.class);
+    for (int i = 0; i < 2; i++) {
+      Statement create = createStrictMock(Statement.class);
+      expect(create.execute(matches("create temporary table prime_in_[0-9]+ \\(value int4\\)"))).andReturn(false);
+      create.close();
+      replay(create);
+
+      PreparedStatement insert = createStrictMock(PreparedStatement.class);
+      insert.setObject(1, 2);
+      insert.setObject(2, 3);
+      insert.setObject(3, 4);
+      expect(insert.executeUpdate()).andReturn(3);
+      insert.close();
+      replay(insert);
+
+      PreparedStatement ps = createStrictMock(PreparedStatement.class);
+      ps.setObject(1, 1);
+      expect(ps.executeUpdate()).andReturn(3);
+      ps.close();
+      replay(ps);
+
+      Statement drop = createStrictMock(Statement.class);
+      expect(drop.execute(matches("drop table prime_in_[0-9]+"))).andReturn(false);
+      drop.close();
+      replay(drop);
+
+      expect(c.createStatement()).andReturn(create);
+      expect(c.prepareStatement(matches("insert into prime_in_[0-9]+ \\(value\\) values \\(\\?\\),\\(\\?\\),\\(\\?\\)"),
+        eq(Statement.NO_GENERATED_KEYS))).andReturn(insert);
+      expect(c.prepareStatement(matches("update foo set bar = \\? where id in \\(select value from prime_in_[0-9]+\\)"))).andReturn(ps);
+      expect(c.createStatement()).andReturn(drop);
+    }
+    replay(c);
+
+    // The table is created when the update runs and dropped when it is done, so the update can be run again
+    Update u = new Update(c, "update foo set bar = ? where id").inTempTableThreshold(2);
+    u.add(1);
+    u.startIn();
+    u.addToIn(2, 3, 4);
+    u.endIn();
+    assertEquals(u.go(), 3);
+    assertEquals(u.go(), 3);
+
+    verify(c);
+  }
+
+  @Test
+  public void inClauseTempTableFailure() throws SQLException {
+    Statement create = createStrictMock(Statement.class);
+    expect(create.execute(matches("create temporary table prime_in_[0-9]+ \\(value int4\\)"))).andReturn(false);
+    create.close();
+    replay(create);
+
+    PreparedStatement insert = createStrictMock(PreparedStatement.class);
+    insert.setObject(1, 2);
+    insert.setObject(2, 3);
+    insert.setObject(3, 4);
+    expect(insert.executeUpdate()).andReturn(3);
+    insert.close();
+    replay(insert);
+
+    SQLException failure = new SQLException("Deadlock");
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, 1);
+    expect(ps.executeUpdate()).andThrow(failure);
+    ps.close();
+    replay(ps);
+
+    // The transaction is aborted, so the drop fails as well
+    Statement drop = createStrictMock(Statement.class);
+    expect(drop.execute(matches("drop table prime_in_[0-9]+"))).andThrow(new SQLException("Transaction is aborted"));
+    drop.close();
+    replay(drop);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.createStatement()).andReturn(create);
+    expect(c.prepareStatement(matches("insert into prime_in_[0-9]+ \\(value\\) values \\(\\?\\),\\(\\?\\),\\(\\?\\)"),
+      eq(Statement.NO_GENERATED_KEYS))).andReturn(insert);
+    expect(c.prepareStatement(matches("update foo set bar = \\? where id in \\(select value from prime_in_[0-9]+\\)"))).andReturn(ps);
+    expect(c.createStatement()).andReturn(drop);
+    replay(c);
+
+    Update u = new Update(c, "update foo set bar = ? where id").inStrategy(InList.Strategy.TEMP_TABLE);
+    u.add(1);
+    u.startIn();
+    u.addToIn(2, 3, 4);
+    u.endIn();
+    try {
+      u.go();
+      fail("Should have failed");
+    } catch (UpdateException e) {
+      assertSame(e.getCause(), failure);
+    }
+
+    verify(create, insert, ps, drop, c);
+  }
+
+  @Test
+  public void inClauseTempTableNotRun() throws SQLException {
+    Connection c = createStrictMock(Connection.class);
+    replay(c);
+
+    Update u = new Update(c, "update foo set bar = ? where id").inStrategy(InList.Strategy.TEMP_TABLE);
+    u.add(1);
+    u.startIn();
+    u.addToIn(2, 3, 4);
+    u.endIn();
+
+    verify(c);
+  }
+
+  @Test
+  public void convertedParams() throws SQLException {
+    TypeConverter.Converters.register(TestType.class, new TestTypeConverter());
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, "converted");
+    ps.setObject(2, 1);
+    expect(ps.executeUpdate()).andReturn(1);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("update foo set bar = ? where id = ?")).andReturn(ps);
+    replay(c);
+
+    assertEquals(new Update(c, "update foo set bar = ? where id = ?").with(new TestType("converted"), 1).go(), 1);
+
+    verify(ps, c);
+  }
+
+  @Test
+  public void batchFailure() throws SQLException {
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, "a");
+    ps.setObject(2, 1);
+    ps.addBatch();
+    ps.setObject(1, "b");
+    ps.setObject(2, 2);
+    ps.addBatch();
+    expect(ps.executeBatch()).andReturn(new int[]{1, 1});
+    ps.setObject(1, "c");
+    ps.setObject(2, 3);
+    ps.addBatch();
+    ps.setObject(1, "d");
+    ps.setObject(2, 4);
+    ps.addBatch();
+    expect(ps.executeBatch()).andThrow(new BatchUpdateException(new int[]{1}));
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("update foo set bar = ? where id = ?")).andReturn(ps);
+    replay(c);
+
+    Update u = new Update(c, "update foo set bar = ? where id = ?").batchSize(2);
+    u.with("a", 1).addBatch().with("b", 2).addBatch().with("c", 3).addBatch().with("d", 4).addBatch();
+    try {
+      u.goBatch();
+      fail("Should have failed");
+    } catch (BatchException e) {
+      assertEquals(e.index, 3);
+      assertEquals(e.counts, new int[]{1, 1, 1});
+    }
+
+    verify(ps, c);
+  }
+
+  @Test
+  public void bulkPostgreSQL() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.POSTGRESQL;
+    try {
+      PreparedStatement ps1 = createStrictMock(PreparedStatement.class);
+      ps1.setObject(1, 1);
+      ps1.setObject(2, "one");
+      ps1.setObject(3, 2);
+      ps1.setObject(4, "two");
+      expect(ps1.executeUpdate()).andReturn(2);
+      ps1.close();
+      replay(ps1);
+
+      PreparedStatement ps2 = createStrictMock(PreparedStatement.class);
+      ps2.setObject(1, 3);
+      ps2.setObject(2, null);
+      expect(ps2.executeUpdate()).andReturn(1);
+      ps2.close();
+      replay(ps2);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.getAutoCommit()).andReturn(true);
+      c.setAutoCommit(false);
+      expect(c.prepareStatement("update foo as t set name = v.name from (values (?,cast(? as text)),(?,?)) as v (id,name) where t.id = v.id")).andReturn(ps1);
+      expect(c.prepareStatement("update foo as t set name = v.name from (values (?,cast(? as text))) as v (id,name) where t.id = v.id")).andReturn(ps2);
+      c.commit();
+      c.setAutoCommit(true);
+      replay(c);
+
+      int count = new Update(c).bulk("foo", "id", "name").types(null, "text").maxParameters(4).
+        row(1, "one").row(2, "two").row(3, (Object) null).go();
+      assertEquals(count, 3);
+
+      verify(ps1, ps2, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void bulkChunkedFailure() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.POSTGRESQL;
+    try {
+      PreparedStatement ps1 = createStrictMock(PreparedStatement.class);
+      ps1.setObject(1, 1);
+      ps1.setObject(2, "one");
+      expect(ps1.executeUpdate()).andReturn(1);
+      ps1.close();
+      replay(ps1);
+
+      SQLException failure = new SQLException("Bad row");
+      PreparedStatement ps2 = createStrictMock(PreparedStatement.class);
+      ps2.setObject(1, 2);
+      ps2.setObject(2, "two");
+      expect(ps2.executeUpdate()).andThrow(failure);
+      ps2.close();
+      replay(ps2);
+
+      String sql = "update foo as t set name = v.name from (values (?,?)) as v (id,name) where t.id = v.id";
+      Connection c = createStrictMock(Connection.class);
+      expect(c.getAutoCommit()).andReturn(true);
+      c.setAutoCommit(false);
+      expect(c.prepareStatement(sql)).andReturn(ps1);
+      expect(c.prepareStatement(sql)).andReturn(ps2);
+      c.rollback();
+      c.setAutoCommit(true);
+      replay(c);
+
+      try {
+        new Update(c).bulk("foo", "id", "name").maxParameters(2).row(1, "one").row(2, "two").go();
+        fail("Should have failed");
+      } catch (UpdateException e) {
+        assertSame(e.getCause(), failure);
+      }
+
+      verify(ps1, ps2, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void bulkMySQL() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.MYSQL;
+    try {
+      PreparedStatement ps = createStrictMock(PreparedStatement.class);
+      ps.setObject(1, 1);
+      ps.setObject(2, "one");
+      ps.setObject(3, 10);
+      ps.setObject(4, 2);
+      ps.setObject(5, "two");
+      ps.setObject(6, 20);
+      expect(ps.executeUpdate()).andReturn(2);
+      ps.close();
+      replay(ps);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.prepareStatement("update foo t join (select ? as id,? as name,? as age union all select ?,?,?) v on t.id = v.id set t.name = v.name, t.age = v.age")).andReturn(ps);
+      replay(c);
+
+      int count = new Update(c).bulk("foo", "id", "name", "age").row(1, "one", 10).row(2, "two", 20).go();
+      assertEquals(count, 2);
+
+      verify(ps, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2011, Inversoft Inc., All Rights Reserved
+ */
+package org.primeframework.persistence.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.primeframework.persistence.jdbc.InsertTest.TestDomainInferred;
+import org.primeframework.persistence.service.DatabaseType;
+import org.primeframework.persistence.service.DatabaseType.Database;
+import org.testng.annotations.Test;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * This class tests the upsert.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class UpsertTest {
+  @Test
+  public void postgreSQL() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.POSTGRESQL;
+    try {
+      PreparedStatement ps1 = createStrictMock(PreparedStatement.class);
+      ps1.setObject(1, 1);
+      ps1.setObject(2, "one");
+      ps1.setObject(3, 2);
+      ps1.setObject(4, "two");
+      expect(ps1.executeUpdate()).andReturn(2);
+      ps1.close();
+      replay(ps1);
+
+      PreparedStatement ps2 = createStrictMock(PreparedStatement.class);
+      ps2.setObject(1, 3);
+      ps2.setObject(2, "three");
+      expect(ps2.executeUpdate()).andReturn(1);
+      ps2.close();
+      replay(ps2);
+
+      String sql = " on conflict (id) do update set name = excluded.name";
+      Connection c = createStrictMock(Connection.class);
+      expect(c.getAutoCommit()).andReturn(true);
+      c.setAutoCommit(false);
+      expect(c.prepareStatement("insert into foo (id,name) values (?,?),(?,?)" + sql, Statement.NO_GENERATED_KEYS)).andReturn(ps1);
+      expect(c.prepareStatement("insert into foo (id,name) values (?,?)" + sql, Statement.NO_GENERATED_KEYS)).andReturn(ps2);
+      c.commit();
+      c.setAutoCommit(true);
+      replay(c);
+
+      // The second row for 1 replaces the first one
+      int count = new Upsert(c, "foo", "id", "name").on("id").maxBulkParameters(4).
+        row(1, "first").row(2, "two").row(1, "one").row(3, "three").go();
+      assertEquals(count, 3);
+
+      verify(ps1, ps2, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void collapse() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.POSTGRESQL;
+    try {
+      PreparedStatement ps = createStrictMock(PreparedStatement.class);
+      ps.setObject(eq(1), aryEq(new byte[]{1}));
+      ps.setObject(2, 7);
+      ps.setObject(3, "two");
+      ps.setObject(eq(4), aryEq(new byte[]{2}));
+      ps.setObject(5, null);
+      ps.setObject(6, "three");
+      ps.setObject(eq(7), aryEq(new byte[]{2}));
+      ps.setObject(8, null);
+      ps.setObject(9, "four");
+      expect(ps.executeUpdate()).andReturn(3);
+      ps.close();
+      replay(ps);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.prepareStatement("insert into foo (id,tenant_id,name) values (?,?,?),(?,?,?),(?,?,?) on conflict (id,tenant_id) do update set name = excluded.name", Statement.NO_GENERATED_KEYS)).andReturn(ps);
+      replay(c);
+
+      // Binary keys are collapsed by their contents, but keys with nulls are never collapsed
+      int count = new Upsert(c, "foo", "id", "tenant_id", "name").on("id", "tenant_id").
+        row(new byte[]{1}, 7, "one").row(new byte[]{1}, 7, "two").
+        row(new byte[]{2}, null, "three").row(new byte[]{2}, null, "four").go();
+      assertEquals(count, 3);
+
+      verify(ps, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void postgreSQLNothing() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.POSTGRESQL;
+    try {
+      PreparedStatement ps = createStrictMock(PreparedStatement.class);
+      ps.setObject(1, 1);
+      ps.setObject(2, 2);
+      expect(ps.executeUpdate()).andReturn(1);
+      ps.close();
+      replay(ps);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.prepareStatement("insert into foo_bar (foo_id,bar_id) values (?,?) on conflict (foo_id,bar_id) do nothing", Statement.NO_GENERATED_KEYS)).andReturn(ps);
+      replay(c);
+
+      int count = new Upsert(c, "foo_bar", "foo_id", "bar_id").on("foo_id", "bar_id").row(1, 2).go();
+      assertEquals(count, 1);
+
+      verify(ps, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void mySQLObjects() throws SQLException {
+    Database old = DatabaseType.database;
+    DatabaseType.database = Database.MYSQL;
+    try {
+      PreparedStatement ps = createStrictMock(PreparedStatement.class);
+      ps.setObject(1, 1);
+      ps.setObject(2, "test1");
+      ps.setObject(3, 2);
+      ps.setObject(4, "test2");
+      expect(ps.executeUpdate()).andReturn(3);
+      ps.close();
+      replay(ps);
+
+      Connection c = createStrictMock(Connection.class);
+      expect(c.prepareStatement("insert into test_domain_inferred (column_one,column_two) values (?,?),(?,?) on duplicate key update column_two = values(column_two)", Statement.NO_GENERATED_KEYS)).andReturn(ps);
+      replay(c);
+
+      int count = new Upsert(c).into(TestDomainInferred.class).on("column_one").
+        objects(new TestDomainInferred(1, "test1"), new TestDomainInferred(2, "test2")).go();
+      assertEquals(count, 3);
+
+      verify(ps, c);
+    } finally {
+      DatabaseType.database = old;
+    }
+  }
+
+  @Test
+  public void noRows() {
+    Connection c = createStrictMock(Connection.class);
+    replay(c);
+
+    assertEquals(new Upsert(c, "foo", "id", "name").on("id").go(), 0);
+
+    verify(c);
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2011, Inversoft Inc., All Rights Reserved
+ */
+package org.primeframework.persistence.jdbc.convert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.primeframework.persistence.jdbc.convert.TypeConverter.Converters;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * This class tests the type converter registry.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class TypeConverterTest {
+  @AfterMethod
+  public void reset() {
+    Converters.unregister(Base.class);
+    Converters.unregister(Named.class);
+    Converters.unregister(Sub.class);
+    Converters.unregister(Concurrent.class);
+  }
+
+  @Test
+  public void hierarchy() {
+    TypeConverter<Base> base = new NameConverter<Base>("base");
+    TypeConverter<Named> named = new NameConverter<Named>("named");
+    Converters.register(Base.class, base);
+    Converters.register(Named.class, named);
+
+    assertSame(Converters.get(Base.class), base);
+    assertSame(Converters.get(Sub.class), base);
+    assertSame(Converters.get(Other.class), named);
+    assertNull(Converters.get(String.class));
+    assertNull(Converters.get(int.class));
+
+    assertEquals(Converters.toSQL(new Sub()), "base");
+    assertEquals(Converters.toSQL(new Other()), "named");
+    assertEquals(Converters.toSQL("foo"), "foo");
+    assertNull(Converters.toSQL(null));
+
+    // Registering a closer converter replaces the cached resolution
+    TypeConverter<Sub> sub = new NameConverter<Sub>("sub");
+    Converters.register(Sub.class, sub);
+    assertSame(Converters.get(Sub.class), sub);
+    assertSame(Converters.get(Base.class), base);
+
+    // Unregistering it falls back to the superclass converter
+    Converters.unregister(Sub.class);
+    assertSame(Converters.get(Sub.class), base);
+  }
+
+  @Test
+  public void concurrentRegistration() throws Exception {
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    List<Thread> threads = new LinkedList<Thread>();
+    for (int i = 0; i < 4; i++) {
+      Thread thread = new Thread() {
+        public void run() {
+          try {
+            for (int j = 0; j < 1000; j++) {
+              Converters.register(Concurrent.class, new NameConverter<Concurrent>("concurrent"));
+              assertNotNull(Converters.get(Concurrent.class));
+              Converters.get(Collection.class);
+            }
+          } catch (Throwable t) {
+            synchronized (errors) {
+              errors.add(t);
+            }
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertTrue(errors.isEmpty(), errors.toString());
+  }
+
+  public interface Named {
+  }
+
+  public static class Base {
+  }
+
+  public static class Sub extends Base {
+  }
+
+  public static class Other implements Named {
+  }
+
+  public static class Concurrent {
+  }
+
+  public static class NameConverter<T> implements TypeConverter<T> {
+    private final String name;
+
+    public NameConverter(String name) {
+      this.name = name;
+    }
+
+    public Object convertToSQL(T object) {
+      return name;
+    }
+
+    public T convertFromSQL(Object object) {
+      return null;
+    }
+  }
+}
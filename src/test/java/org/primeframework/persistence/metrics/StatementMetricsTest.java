@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2011, Inversoft Inc., All Rights Reserved
+ */
+package org.primeframework.persistence.metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.primeframework.persistence.jdbc.Select;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * This class tests the statement metrics.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class StatementMetricsTest {
+  @AfterMethod
+  public void reset() {
+    StatementMetrics.enabled(false);
+    StatementMetrics.maxFingerprints(StatementMetrics.DEFAULT_MAX_FINGERPRINTS);
+    StatementMetrics.clear();
+  }
+
+  @Test
+  public void fingerprint() {
+    assertEquals(StatementMetrics.fingerprint("SELECT *  FROM users\n WHERE name = 'it''s' AND age > 21 -- comment\n"),
+      "select * from users where name = ? and age > ?");
+    assertEquals(StatementMetrics.fingerprint("select * from users where id in (?,?,?,?)"),
+      "select * from users where id in (?+)");
+    assertEquals(StatementMetrics.fingerprint("select * from users where id in (1, 2)"),
+      "select * from users where id in (?+)");
+    assertEquals(StatementMetrics.fingerprint("insert into t2 (a,b) values (?,?),(?,?),(?,?)"),
+      "insert into t2 (a,b) values (?+)+");
+    assertEquals(StatementMetrics.fingerprint("select \"Name\" from /* hint */ users where id in (select value from prime_in_42)"),
+      "select \"Name\" from users where id in (select value from prime_in_?)");
+  }
+
+  @Test
+  public void histogram() {
+    StatementStats stats = new StatementStats("test");
+    for (int i = 1; i <= 100; i++) {
+      stats.record(i * 1000000L, 1);
+    }
+
+    assertEquals(stats.getCount(), 100);
+    assertEquals(stats.getRows(), 100);
+    assertEquals(stats.getMaxMicros(), 100000);
+
+    // Within the 1/16 precision of the buckets
+    assertTrue(Math.abs(stats.getP50Micros() - 50000) <= 50000 / 16, "" + stats.getP50Micros());
+    assertTrue(Math.abs(stats.getP99Micros() - 99000) <= 99000 / 16, "" + stats.getP99Micros());
+
+    for (long value = 0; value < 1000000; value = value * 3 + 1) {
+      int bucket = StatementStats.bucket(value);
+      assertTrue(StatementStats.upperBound(bucket) >= value);
+      assertTrue(bucket == 0 || StatementStats.upperBound(bucket - 1) < value);
+    }
+  }
+
+  @Test
+  public void bounded() {
+    StatementMetrics.enabled(true);
+    StatementMetrics.maxFingerprints(2);
+    StatementMetrics.recordNanos("select a from t", 1000, 1);
+    StatementMetrics.recordNanos("select b from t", 1000, 1);
+    StatementMetrics.recordNanos("select c from t", 1000, 1);
+    StatementMetrics.recordNanos("select d from t", 1000, 1);
+    StatementMetrics.recordNanos("select a from t", 1000, 1);
+
+    assertEquals(StatementMetrics.get("select a from t").getCount(), 2);
+    assertEquals(StatementMetrics.get(StatementMetrics.OTHER).getCount(), 2);
+    assertEquals(StatementMetrics.all().size(), 3);
+  }
+
+  @Test
+  public void select() throws SQLException {
+    ResultSet rs = createStrictMock(ResultSet.class);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getInt(1)).andReturn(1);
+    expect(rs.wasNull()).andReturn(false);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getInt(1)).andReturn(2);
+    expect(rs.wasNull()).andReturn(false);
+    expect(rs.next()).andReturn(false);
+    replay(rs);
+
+    PreparedStatement ps = createStrictMock(PreparedStatement.class);
+    ps.setObject(1, 1);
+    ps.setObject(2, 2);
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.close();
+    replay(ps);
+
+    Connection c = createStrictMock(Connection.class);
+    expect(c.prepareStatement("select id from users where id in (?,?)")).andReturn(ps);
+    replay(c);
+
+    StatementMetrics.enabled(true);
+    assertEquals(new Select(c, "select id from users where id in (?,?)").with(1, 2).ints().length, 2);
+
+    StatementStats stats = StatementMetrics.get("select id from users where id in (?+)");
+    assertEquals(stats.getCount(), 1);
+    assertEquals(stats.getRows(), 2);
+
+    verify(rs, ps, c);
+  }
+}
@@ -16,6 +16,7 @@
 package org.primeframework.persistence.service.jdbc;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 
 import org.testng.annotations.Test;
 
@@ -143,4 +144,101 @@ public class ConnectionProxyTest {
 
     verify(connection, service);
   }
+
+  @Test
+  public void routing() throws Exception {
+    ConnectionContext.remove();
+    ConnectionContext.setLastWrite(0);
+    PreparedStatement read = createStrictMock(PreparedStatement.class);
+    read.close();
+    replay(read);
+
+    Connection replica = createStrictMock(Connection.class);
+    expect(replica.prepareStatement("select * from users")).andReturn(read);
+    replay(replica);
+
+    PreparedStatement write = createStrictMock(PreparedStatement.class);
+    write.close();
+    replay(write);
+
+    PreparedStatement sticky = createStrictMock(PreparedStatement.class);
+    Connection primary = createStrictMock(Connection.class);
+    expect(primary.prepareStatement("update users set name = ?")).andReturn(write);
+    expect(primary.prepareStatement("select * from users")).andReturn(sticky);
+    replay(primary);
+
+    JDBCService service = createStrictMock(JDBCService.class);
+    expect(service.setupReadConnection()).andReturn(replica);
+    expect(service.setupConnection()).andReturn(primary);
+    expect(service.setupReadConnection()).andReturn(null);
+    replay(service);
+
+    try {
+      ConnectionProxy proxy = new ConnectionProxy(service);
+      assertSame(proxy.prepareStatement("select * from users"), read);
+      assertFalse(ConnectionContext.hasWritten());
+
+      assertSame(proxy.prepareStatement("update users set name = ?"), write);
+      assertTrue(ConnectionContext.hasWritten());
+      assertTrue(ConnectionContext.getLastWrite() > 0);
+
+      // The service keeps the reads on the primary after the write
+      assertSame(proxy.prepareStatement("select * from users"), sticky);
+
+      // Each statement is released to the Connection that prepared it
+      proxy.release(read);
+      proxy.release(write);
+
+      verify(read, replica, write, primary, service);
+    } finally {
+      ConnectionContext.remove();
+      ConnectionContext.setLastWrite(0);
+    }
+  }
+
+  @Test
+  public void unwrapIsWrite() throws Exception {
+    ConnectionContext.remove();
+    ConnectionContext.setLastWrite(0);
+    PreparedStatement select = createStrictMock(PreparedStatement.class);
+    replay(select);
+
+    Connection primary = createStrictMock(Connection.class);
+    expect(primary.unwrap(Connection.class)).andReturn(primary);
+    expect(primary.prepareStatement("select * from users")).andReturn(select);
+    replay(primary);
+
+    JDBCService service = createStrictMock(JDBCService.class);
+    expect(service.setupConnection()).andReturn(primary);
+    expect(service.setupReadConnection()).andReturn(null);
+    replay(service);
+
+    try {
+      // A COPY through the driver Connection sticks the following reads to the primary
+      ConnectionProxy proxy = new ConnectionProxy(service);
+      assertSame(proxy.unwrap(Connection.class), primary);
+      assertTrue(ConnectionContext.hasWritten());
+      assertSame(proxy.prepareStatement("select * from users"), select);
+
+      verify(select, primary, service);
+    } finally {
+      ConnectionContext.remove();
+      ConnectionContext.setLastWrite(0);
+    }
+  }
+
+  @Test
+  public void isRead() {
+    assertTrue(ConnectionProxy.isRead("select * from users"));
+    assertTrue(ConnectionProxy.isRead("  SELECT id from users where id in (select user_id from orders)"));
+    assertTrue(ConnectionProxy.isRead("(select id from a) union (select id from b)"));
+    assertFalse(ConnectionProxy.isRead("insert into users (name) values (?)"));
+    assertFalse(ConnectionProxy.isRead("update users set name = ?"));
+    assertFalse(ConnectionProxy.isRead("with x as (delete from users returning *) select * from x"));
+    assertFalse(ConnectionProxy.isRead("select * from users where id = ? for update"));
+    assertFalse(ConnectionProxy.isRead("select * from users for share"));
+    assertFalse(ConnectionProxy.isRead("select * from users lock in share mode"));
+    assertFalse(ConnectionProxy.isRead("select nextval('users_seq')"));
+    assertFalse(ConnectionProxy.isRead("select * into backup from users"));
+  }
 }
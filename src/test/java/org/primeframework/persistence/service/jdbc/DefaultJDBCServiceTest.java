@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2001-2012, JCatapult.org, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.primeframework.persistence.service.jdbc;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.primeframework.persistence.txn.TransactionContext;
+import org.primeframework.persistence.txn.TransactionContextManager;
+import org.primeframework.persistence.txn.jdbc.JDBCTransactionalResource;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * Tests the routing of reads to the replicas.
+ *
+ * @author Brian Pontarelli
+ */
+@Test(groups = "unit")
+public class DefaultJDBCServiceTest {
+  @AfterMethod
+  public void cleanup() {
+    ConnectionContext.remove();
+    ConnectionContext.setLastWrite(0);
+  }
+
+  @Test
+  public void noReplicas() {
+    TransactionContextManager manager = createStrictMock(TransactionContextManager.class);
+    replay(manager);
+
+    DefaultJDBCService service = new DefaultJDBCService(manager, createStrictMock(DataSource.class));
+    assertNull(service.setupReadConnection());
+    verify(manager);
+  }
+
+  @Test
+  public void roundRobin() throws Exception {
+    Connection one = connection();
+    Connection two = connection();
+    DataSource first = dataSource(one);
+    DataSource second = dataSource(two);
+
+    DefaultJDBCService service = new DefaultJDBCService(manager(null), createStrictMock(DataSource.class));
+    service.setReplicas(Arrays.asList(first, second));
+
+    assertSame(service.setupReadConnection(), one);
+    assertSame(service.setupReadConnection(), one);
+    service.tearDownConnection();
+    assertSame(service.setupReadConnection(), two);
+    service.tearDownConnection();
+
+    verify(first, second, one, two);
+  }
+
+  @Test
+  public void leastLoaded() throws Exception {
+    Connection busy = createStrictMock(Connection.class);
+    replay(busy);
+    Connection done = connection();
+    Connection two = connection();
+    DataSource first = dataSource(busy);
+    DataSource second = dataSource(done, two);
+
+    final DefaultJDBCService service = new DefaultJDBCService(manager(null), createStrictMock(DataSource.class));
+    service.setReplicas(Arrays.asList(first, second));
+    service.setReplicaBalancing(ReplicaBalancing.LEAST_LOADED);
+
+    // One thread keeps its Connection to the first replica and another gives its Connection to the second one back
+    Thread keeps = new Thread() {
+      @Override
+      public void run() {
+        service.setupReadConnection();
+      }
+    };
+    keeps.start();
+    keeps.join();
+
+    Thread releases = new Thread() {
+      @Override
+      public void run() {
+        service.setupReadConnection();
+        service.tearDownConnection();
+      }
+    };
+    releases.start();
+    releases.join();
+
+    // Round-robin would be back at the first replica
+    assertSame(service.setupReadConnection(), two);
+    service.tearDownConnection();
+    verify(first, second, done, two);
+  }
+
+  @Test
+  public void writeTransaction() {
+    TransactionContext txnContext = createStrictMock(TransactionContext.class);
+    expect(txnContext.isReadOnly()).andReturn(false);
+    replay(txnContext);
+
+    DataSource replica = createStrictMock(DataSource.class);
+    replay(replica);
+
+    DefaultJDBCService service = new DefaultJDBCService(manager(txnContext), createStrictMock(DataSource.class));
+    service.setReplicas(Arrays.asList(replica));
+    assertNull(service.setupReadConnection());
+    verify(txnContext, replica);
+  }
+
+  @Test
+  public void readOnlyTransaction() throws Exception {
+    Connection c = createStrictMock(Connection.class);
+    replay(c);
+
+    TransactionContext txnContext = createStrictMock(TransactionContext.class);
+    expect(txnContext.isReadOnly()).andReturn(true);
+    txnContext.add(isA(JDBCTransactionalResource.class));
+    replay(txnContext);
+
+    DataSource replica = dataSource(c);
+    DefaultJDBCService service = new DefaultJDBCService(manager(txnContext), createStrictMock(DataSource.class));
+    service.setReplicas(Arrays.asList(replica));
+    assertSame(service.setupReadConnection(), c);
+    verify(txnContext, replica);
+  }
+
+  @Test
+  public void stickiness() throws Exception {
+    DataSource replica = createStrictMock(DataSource.class);
+    replay(replica);
+
+    DefaultJDBCService service = new DefaultJDBCService(manager(null), createStrictMock(DataSource.class));
+    service.setReplicas(Arrays.asList(replica));
+    service.setReplicaStickiness(60000);
+
+    // Sticky for the rest of the request
+    ConnectionContext.wrote();
+    assertNull(service.setupReadConnection());
+
+    // Sticky for the window after the request
+    ConnectionContext.remove();
+    assertNull(service.setupReadConnection());
+
+    // Not sticky once the window is over
+    ConnectionContext.setLastWrite(System.currentTimeMillis() - 60000);
+    Connection c = createStrictMock(Connection.class);
+    reset(replica);
+    expect(replica.getConnection()).andReturn(c);
+    replay(replica);
+    assertSame(service.setupReadConnection(), c);
+    verify(replica);
+  }
+
+  @Test
+  public void replicaDown() throws Exception {
+    DataSource replica = createStrictMock(DataSource.class);
+    expect(replica.getConnection()).andThrow(new SQLException("Down"));
+    replay(replica);
+
+    DefaultJDBCService service = new DefaultJDBCService(manager(null), createStrictMock(DataSource.class));
+    service.setReplicas(Arrays.asList(replica));
+    assertNull(service.setupReadConnection());
+    assertNull(ConnectionContext.getReplica());
+    verify(replica);
+  }
+
+  private TransactionContextManager manager(TransactionContext txnContext) {
+    TransactionContextManager manager = createMock(TransactionContextManager.class);
+    expect(manager.getCurrent()).andReturn(txnContext).anyTimes();
+    replay(manager);
+    return manager;
+  }
+
+  private DataSource dataSource(Connection... connections) throws SQLException {
+    DataSource dataSource = createStrictMock(DataSource.class);
+    for (Connection c : connections) {
+      expect(dataSource.getConnection()).andReturn(c);
+    }
+
+    replay(dataSource);
+    return dataSource;
+  }
+
+  private Connection connection() throws SQLException {
+    Connection c = createStrictMock(Connection.class);
+    c.setAutoCommit(true);
+    c.close();
+    replay(c);
+    return c;
+  }
+}
@@ -21,6 +21,7 @@ import javax.persistence.PersistenceException;
 import javax.sql.RowSet;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -177,6 +178,70 @@ public class JPAPersistenceServiceTest extends BaseJPATest {
     }
   }
 
+  @Test
+  public void findAfter() throws Exception {
+    clearTable("users");
+    for (int i = 0; i < 100; i++) {
+      executeSQL("insert into users (id, insert_date, update_date, name) " +
+        "values (" + (i + 1) + ", 1, 1, 'Fred" + i + "')");
+    }
+
+    clearTable("BaseSoftDeletableUser");
+    for (int i = 0; i < 100; i++) {
+      executeSQL("insert into BaseSoftDeletableUser (id, insert_date, update_date, name, deleted) " +
+        "values (" + (i + 1) + ", 1, 1, 'Fred" + i + "', " + ((i % 2 == 0) ? "false" : "true") + ")");
+    }
+
+    JPAPersistenceService service = new JPAPersistenceService(EntityManagerContext.get());
+
+    // This tests that each page starts after the last id of the previous page
+    Integer lastId = null;
+    for (int i = 0; i < 100; i += 10) {
+      List<User> users = service.findByTypeAfter(User.class, lastId, 10);
+      assertEquals(users.size(), 10);
+      for (int j = 0; j < 10; j++) {
+        assertEquals(users.get(j).getName(), "Fred" + (j + i));
+      }
+      lastId = users.get(9).getId();
+    }
+    assertEquals(service.findByTypeAfter(User.class, lastId, 10).size(), 0);
+
+    // This tests that the deleted beans are skipped
+    lastId = null;
+    for (int i = 0; i < 100; i += 20) {
+      List<BaseSoftDeletableUser> users = service.findByTypeAfter(BaseSoftDeletableUser.class, lastId, 10, false);
+      assertEquals(users.size(), 10);
+      for (int j = 0; j < 10; j++) {
+        assertEquals(users.get(j).getName(), "Fred" + ((j * 2) + i));
+      }
+      lastId = users.get(9).getId();
+    }
+
+    // This tests walking the entire table
+    Iterator<User> iterator = service.iterateByType(User.class, 7);
+    int count = 0;
+    while (iterator.hasNext()) {
+      assertEquals(iterator.next().getName(), "Fred" + count++);
+    }
+    assertEquals(count, 100);
+
+    iterator = service.iterateByType(User.class, 10);
+    count = 0;
+    while (iterator.hasNext()) {
+      iterator.next();
+      count++;
+    }
+    assertEquals(count, 100);
+
+    Iterator<BaseSoftDeletableUser> softIterator = service.iterateByType(BaseSoftDeletableUser.class, 10, false);
+    count = 0;
+    while (softIterator.hasNext()) {
+      assertFalse(softIterator.next().isDeleted());
+      count++;
+    }
+    assertEquals(count, 50);
+  }
+
   @Test
   public void findById() throws SQLException {
     clearTable("users");
@@ -285,6 +350,43 @@ public class JPAPersistenceServiceTest extends BaseJPATest {
     }
   }
 
+  @Test
+  public void queryAfter() throws Exception {
+    clearTable("users");
+    for (int i = 0; i < 30; i++) {
+      executeSQL("insert into users (id, insert_date, update_date, name) " +
+        "values (" + (i + 1) + ", 1, 1, 'Fred" + (i % 3) + "')");
+    }
+
+    // This tests paging over a non-unique key with the id as the tie breaker
+    JPAPersistenceService service = new JPAPersistenceService(EntityManagerContext.get());
+    String[] keys = {"u.name", "u.id"};
+    Object[] last = null;
+    int count = 0;
+    String lastName = "";
+    int lastId = 0;
+    while (true) {
+      // The or in the filter must not let rows before the last one through
+      List<User> users = service.queryAfter(User.class, "select u from User u", "u.id < 0 or u.name like ?1", keys,
+        last, 4, "Fred%");
+      if (users.isEmpty()) {
+        break;
+      }
+
+      for (User user : users) {
+        int compare = user.getName().compareTo(lastName);
+        assertTrue(compare > 0 || (compare == 0 && user.getId() > lastId));
+        lastName = user.getName();
+        lastId = user.getId();
+        count++;
+      }
+
+      last = new Object[]{lastName, lastId};
+    }
+
+    assertEquals(count, 30);
+  }
+
   @Test
   public void queryAllWithNamedParameters() throws Exception {
     clearTable("users");
@@ -35,15 +35,43 @@ public class TransactionMethodInterceptorTest extends BaseJPATest {
   public void annotatedMethod() {
   }
 
+  @Transactional(readOnly = true)
+  public void readOnlyMethod() {
+  }
+
   @Test
   public void topLevelCommit() throws Throwable {
     MethodInvocation invocation = createStrictMock(MethodInvocation.class);
-    expect(invocation.getMethod()).andReturn(this.getClass().getMethod("annotatedMethod"));
+    expect(invocation.getMethod()).andReturn(this.getClass().getMethod("annotatedMethod")).times(2);
     expect(invocation.proceed()).andReturn(null);
     replay(invocation);
 
     txnMgr.context = createStrictMock(TransactionContext.class);
     expect(txnMgr.context.isStarted()).andReturn(false);
+    txnMgr.context.setReadOnly(false);
+    txnMgr.context.start();
+    expect(txnMgr.context.isRollbackOnly()).andReturn(false);
+    txnMgr.context.commit();
+    replay(txnMgr.context);
+
+    TransactionMethodInterceptor interceptor = new TransactionMethodInterceptor();
+    interceptor.setTransactionMethodInterceptor(txnMgr);
+    interceptor.invoke(invocation);
+    assertNull(txnMgr.context);
+
+    verify(invocation);
+  }
+
+  @Test
+  public void topLevelReadOnly() throws Throwable {
+    MethodInvocation invocation = createStrictMock(MethodInvocation.class);
+    expect(invocation.getMethod()).andReturn(this.getClass().getMethod("readOnlyMethod")).times(2);
+    expect(invocation.proceed()).andReturn(null);
+    replay(invocation);
+
+    txnMgr.context = createStrictMock(TransactionContext.class);
+    expect(txnMgr.context.isStarted()).andReturn(false);
+    txnMgr.context.setReadOnly(true);
     txnMgr.context.start();
     expect(txnMgr.context.isRollbackOnly()).andReturn(false);
     txnMgr.context.commit();
@@ -61,12 +89,13 @@ public class TransactionMethodInterceptorTest extends BaseJPATest {
   public void topLevelRollback() throws Throwable {
     RuntimeException re = new RuntimeException();
     MethodInvocation invocation = createStrictMock(MethodInvocation.class);
-    expect(invocation.getMethod()).andReturn(this.getClass().getMethod("annotatedMethod"));
+    expect(invocation.getMethod()).andReturn(this.getClass().getMethod("annotatedMethod")).times(2);
     expect(invocation.proceed()).andThrow(re);
     replay(invocation);
 
     txnMgr.context = createStrictMock(TransactionContext.class);
     expect(txnMgr.context.isStarted()).andReturn(false);
+    txnMgr.context.setReadOnly(false);
     txnMgr.context.start();
     expect(txnMgr.context.isRollbackOnly()).andReturn(false);
     txnMgr.context.rollback();
@@ -89,12 +118,13 @@ public class TransactionMethodInterceptorTest extends BaseJPATest {
   @Test
   public void topLevelRollbackOnly() throws Throwable {
     MethodInvocation invocation = createStrictMock(MethodInvocation.class);
-    expect(invocation.getMethod()).andReturn(this.getClass().getMethod("annotatedMethod"));
+    expect(invocation.getMethod()).andReturn(this.getClass().getMethod("annotatedMethod")).times(2);
     expect(invocation.proceed()).andReturn(null);
     replay(invocation);
 
     txnMgr.context = createStrictMock(TransactionContext.class);
     expect(txnMgr.context.isStarted()).andReturn(false);
+    txnMgr.context.setReadOnly(false);
     txnMgr.context.start();
     expect(txnMgr.context.isRollbackOnly()).andReturn(true);
     txnMgr.context.rollback();